@@ -1,3 +1,36 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 /**
  * WAVLTree
  * <p>
@@ -9,16 +42,38 @@
  */
 
 public class WAVLTree {
-    private IWAVLNode root;
-    private IWAVLNode min;
-    private IWAVLNode max;
+    /**
+     * The single external leaf shared by every node of every tree.
+     * It has key -1, rank -1 and size 0, and is never mutated.
+     */
+    private static final WAVLNode VIRTUAL_NODE = new WAVLNode(null, null, null, -1, null, -1);
+    // in lazy sizes mode, staleSizes may grow to this many entries even in a small tree before it is flushed
+    private static final int LAZY_FLUSH_MIN = 1024;
+    // snapshot file format (see saveSnapshot)
+    private static final int SNAPSHOT_MAGIC = 0x57415653; // "WAVS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int SNAPSHOT_CHECKSUMS = 1; // flag bit
+    private static final int SNAPSHOT_HEADER_BYTES = 20;
+    private static final int SNAPSHOT_BLOCK_HEADER_BYTES = 12;
+    private static final int SNAPSHOT_BLOCK_ITEMS = 4096;
+
+    private WAVLNode root;
+    private WAVLNode min;
+    private WAVLNode max;
     private int size;
+    // while insertAll/deleteAll run, or in lazy sizes mode: nodes whose subtree sizes (or their ancestors') are out of date
+    private ArrayList<WAVLNode> staleSizes;
+    private boolean lazySizes;
+    // null unless enableMetrics was called
+    private Metrics metrics;
+    // null unless setAugmentation was called
+    private Augmentation<Object> augmentation;
 
     //constructors (WAVLTree)
     public WAVLTree(IWAVLNode root) {
-        this.root = root;
-        this.min = root;
-        this.max = root;
+        this.root = (WAVLNode) root;
+        this.min = this.root;
+        this.max = this.root;
         this.size = 1;
     }
 
@@ -30,1152 +85,8273 @@ public class WAVLTree {
     }
 
     /**
-     * public boolean empty()
+     * public static WAVLTree fromSorted(int[] keys, String[] values)
      * <p>
-     * returns true if and only if the tree is empty
+     * Builds a tree holding keys[j] with info values[j] for every j, without inserting them one by one.
+     * keys must be strictly increasing (as returned by keysToArray) and values must be of the same length.
+     * The result is perfectly balanced: every node's rank is its height, so all rank differences are 1 or 2.
      * <p>
-     * Complexity: O(1)
+     * Complexity: O(n)
      */
-    public boolean empty() {
-        WAVLNode castedRoot = (WAVLNode) root;
-        return castedRoot.getSubtreeSize() == 0; // to be replaced by student code
+    public static WAVLTree fromSorted(int[] keys, String[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("got " + keys.length + " keys but " + values.length + " values");
+        }
+        for (int j = 1; j < keys.length; j++) {
+            if (keys[j - 1] >= keys[j]) {
+                throw new IllegalArgumentException("keys are not strictly increasing at index " + j);
+            }
+        }
+        WAVLTree tree = new WAVLTree();
+        tree.rebuild(keys, values, keys.length);
+        return tree;
     }
 
     /**
-     * public String search(int k)
+     * public void saveSnapshot(Path path) / saveSnapshot(Path path, boolean checksums)
      * <p>
-     * returns the info of an item with key k if it exists in the tree
-     * otherwise, returns null
+     * Writes the items of the tree to path in the snapshot format read by loadSnapshot, walking the tree
+     * in order (nothing is copied into arrays). The file is a header (magic, version, flags, item count,
+     * items per block) followed by blocks of up to SNAPSHOT_BLOCK_ITEMS items, each with its item count,
+     * payload length and (if checksums) the CRC32C of the payload. In the payload the first key of a block is
+     * a zigzag varint and the others are varint gaps from the previous key; each info is a varint of its
+     * UTF-8 length plus one (0 for null) followed by its bytes.
+     * The file is written to a new temporary file in the directory of path and renamed over path once complete
+     * and forced to disk, then the directory is forced so that the rename is durable too. A crash leaves either
+     * the old snapshot or the new one; if writing fails the temporary file is deleted.
      * <p>
-     * Complexity O(logn)
+     * Complexity: O(n)
      */
-    public String search(int k) {
-        return treeSearch(k, this.root);
+    public void saveSnapshot(Path path) throws IOException {
+        saveSnapshot(path, true);
     }
 
-    /**
-     * public String treeSearch(int k, IWAVLNode currNode)
-     * <p>
-     * returns the info of an item with key k if it exists in the
-     * sub-tree of currNode. otherwise, returns null
-     * <p>
-     * Complexity: O(logn)
-     */
-    public String treeSearch(int k, IWAVLNode currNode) {
-        if (!currNode.isRealNode()) {
-            return null;
-        }
-        if (currNode.getKey() == k) {
-            return currNode.getValue();
-        } else if (currNode.getKey() < k) {
-            return treeSearch(k, currNode.getRight());
-        } else {
-            return treeSearch(k, currNode.getLeft());
+    public void saveSnapshot(Path path, boolean checksums) throws IOException {
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+        boolean moved = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES);
+                header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putInt(checksums ? SNAPSHOT_CHECKSUMS : 0);
+                header.putInt(this.size).putInt(SNAPSHOT_BLOCK_ITEMS);
+                header.flip();
+                writeFully(channel, header);
+                ByteBuffer payload = ByteBuffer.allocate(1 << 16);
+                ByteBuffer blockHeader = ByteBuffer.allocate(SNAPSHOT_BLOCK_HEADER_BYTES);
+                CRC32C crc = new CRC32C();
+                WAVLNode node = this.min;
+                int remaining = this.size;
+                while (remaining > 0) {
+                    int items = Math.min(remaining, SNAPSHOT_BLOCK_ITEMS);
+                    payload.clear();
+                    int previousKey = 0;
+                    for (int j = 0; j < items; j++) {
+                        int key = node.getKey();
+                        long gap = j == 0 ? (key << 1) ^ (key >> 31) : (long) key - previousKey;
+                        payload = putVarint(payload, gap & 0xFFFFFFFFL);
+                        byte[] info = node.getValue() == null ? null : node.getValue().getBytes(StandardCharsets.UTF_8);
+                        payload = putVarint(payload, info == null ? 0 : info.length + 1L);
+                        if (info != null) {
+                            payload = ensureRoom(payload, info.length);
+                            payload.put(info);
+                        }
+                        previousKey = key;
+                        node = successor(node);
+                    }
+                    payload.flip();
+                    crc.reset();
+                    if (checksums) {
+                        crc.update(payload.duplicate());
+                    }
+                    blockHeader.clear();
+                    blockHeader.putInt(items).putInt(payload.remaining()).putInt((int) crc.getValue());
+                    blockHeader.flip();
+                    writeFully(channel, blockHeader);
+                    writeFully(channel, payload);
+                    remaining -= items;
+                }
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            moved = true;
+        } finally {
+            if (!moved) {
+                Files.deleteIfExists(temp);
+            }
         }
+        forceDirectory(dir);
     }
 
     /**
-     * public int getLeftRankDiff(WAVLNode currNode)
+     * public static WAVLTree loadSnapshot(Path path)
      * <p>
-     * returns the difference in ranks between currNode and its left
-     * child
+     * Reads a file written by saveSnapshot and builds the tree with fromSorted, so ranks and subtree sizes
+     * are set directly instead of by n inserts. The file is read block by block through a FileChannel.
+     * Throws IOException if the file is not a snapshot, is truncated, fails a checksum or holds keys out of order.
      * <p>
-     * Complexity: O(1)
+     * Complexity: O(n)
      */
-    public int getLeftRankDiff(WAVLNode currNode) {
-        if (currNode.isRealNode()) {
-            return currNode.getRank() - currNode.getLeft().getRank();
-        } else {
-            return 1;
+    public static WAVLTree loadSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readFully(channel, ByteBuffer.allocate(SNAPSHOT_HEADER_BYTES));
+            if (header.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(path + " is not a WAVL tree snapshot");
+            }
+            int version = header.getInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException(path + " has snapshot version " + version + ", expected " + SNAPSHOT_VERSION);
+            }
+            boolean checksums = (header.getInt() & SNAPSHOT_CHECKSUMS) != 0;
+            int count = header.getInt();
+            header.getInt(); // items per block, only needed by readers that seek
+            if (count < 0 || count > channel.size() / 2) {
+                throw new IOException(path + " has a corrupt item count " + count);
+            }
+            int[] keys = new int[count];
+            String[] values = new String[count];
+            ByteBuffer blockHeader = ByteBuffer.allocate(SNAPSHOT_BLOCK_HEADER_BYTES);
+            ByteBuffer payload = ByteBuffer.allocate(1 << 16);
+            CRC32C crc = new CRC32C();
+            int loaded = 0;
+            while (loaded < count) {
+                blockHeader.clear();
+                readFully(channel, blockHeader);
+                int items = blockHeader.getInt();
+                int length = blockHeader.getInt();
+                int checksum = blockHeader.getInt();
+                if (items <= 0 || items > count - loaded || length < 0) {
+                    throw new IOException(path + " has a corrupt block header after item " + loaded);
+                }
+                if (payload.capacity() < length) {
+                    payload = ByteBuffer.allocate(length);
+                }
+                payload.clear().limit(length);
+                readFully(channel, payload);
+                if (checksums) {
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException(path + " fails the checksum of the block starting at item " + loaded);
+                    }
+                }
+                try {
+                    long key = 0;
+                    for (int j = 0; j < items; j++) {
+                        long gap = getVarint(payload);
+                        key = j == 0 ? (gap >>> 1) ^ -(gap & 1) : key + gap;
+                        keys[loaded] = (int) key;
+                        long infoLength = getVarint(payload);
+                        if (infoLength > 0) {
+                            int start = payload.position();
+                            payload.position(start + (int) (infoLength - 1));
+                            values[loaded] = new String(payload.array(), start, (int) (infoLength - 1), StandardCharsets.UTF_8);
+                        }
+                        loaded++;
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException(path + " has a corrupt block starting at item " + (loaded), e);
+                }
+            }
+            try {
+                return fromSorted(keys, values);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + " holds keys out of order", e);
+            }
         }
     }
 
     /**
-     * public int getRightRankDiff(WAVLNode currNode)
+     * private static ByteBuffer putVarint(ByteBuffer buffer, long value)
      * <p>
-     * returns the difference in ranks between currNode and its right
-     * child
+     * Appends value (non-negative) 7 bits per byte, low bits first, and returns the buffer
+     * (a larger copy if it was full).
      * <p>
      * Complexity: O(1)
      */
-    public int getRightRankDiff(WAVLNode currNode) {
-        if (currNode.isRealNode()) {
-            return currNode.getRank() - currNode.getRight().getRank();
-        } else {
-            return 1;
+    private static ByteBuffer putVarint(ByteBuffer buffer, long value) {
+        buffer = ensureRoom(buffer, 10);
+        while (value >= 0x80) {
+            buffer.put((byte) (value | 0x80));
+            value >>>= 7;
         }
+        buffer.put((byte) value);
+        return buffer;
     }
 
-    /**
-     * public WAVLNode rightRotate(WAVLNode currNode)
-     * <p>
-     * in a right rotations, currnode becomes the right child of his left (former) child and is demoted
-     * and currNode's parent should be the parent of leftChild
-     * <p>
-     * Complexity: O(1)
-     */
-    public WAVLNode rightRotate(WAVLNode currNode) {
-        WAVLNode leftChild = currNode.getLeft(); // Keep left child
-        WAVLNode currNodeParent = currNode.getParent();//keep the parent
-        int leftOrRight = currNode.relationWithParent();
-        //update sizes
-        rightUpdateSizes(currNode);
-        // Change the right child of the leftChild to be mynode's child.
-        currNode.setLeft(leftChild.getRight());
-        if (leftChild.hasRightChild()) {
-            leftChild.getRight().setParent(currNode);
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
         }
-        // changing the ranks
-        currNode.setRank(currNode.getRank() - 1);//demote currnode
-
-        // Changing leftChild's parent to be mynode's parent
-        leftChild.setParent(currNode.getParent());
-
-        // Changing currNode to be the right child of leftChild
-        leftChild.setRight(currNode);
+        throw new IllegalArgumentException("varint longer than 10 bytes");
+    }
 
-        // currnode becomes the right child of his left (former) child
-        currNode.setParent(leftChild);
-        //update so that currNode parent will point to leftChild
-        if (leftOrRight == 0) {
-            currNodeParent.setLeft(leftChild);
-        } else if (leftOrRight == 1) {
-            currNodeParent.setRight(leftChild);
+    private static ByteBuffer ensureRoom(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
         }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        return larger.put(buffer);
+    }
 
-        //if currNode was the root, change the tree's root to it's leftCHild
-        if (currNode == (WAVLNode) root) {
-            this.root = leftChild;
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
-
-        return leftChild;
     }
 
     /**
-     * public void rightUpdateSizes(WAVLNode currNode)
-     * <p>
-     * updates the sizes of the left subtree of currNode and of currNode
+     * private static void forceDirectory(Path dir)
      * <p>
-     * Complexity: O(1)
+     * Forces the directory entry changes of dir (a file created, renamed or removed in it) to disk, as
+     * FileChannel.force does for the contents of a file. Some platforms (Windows) cannot open a directory;
+     * there the IOException is ignored, since their file systems write directory changes through.
      */
-    public void rightUpdateSizes(WAVLNode currNode) {
-        if (!currNode.getLeft().isRealNode() || !currNode.isRealNode()) {
+    private static void forceDirectory(Path dir) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(dir, StandardOpenOption.READ);
+        } catch (IOException e) {
             return;
         }
-        WAVLNode LeftChild = currNode.getLeft();
-        currNode.setSize(currNode.getLeft().getRight().getSubtreeSize() + currNode.getRight().getSubtreeSize() + 1);
-        LeftChild.setSize(LeftChild.getLeft().getSubtreeSize() + currNode.getSubtreeSize() + 1);
+        try (channel) {
+            channel.force(true);
+        }
     }
 
     /**
-     * public void leftUpdateSizes(WAVLNode currNode)
+     * private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer)
      * <p>
-     * updates the sizes of the right subtree of currNode and of currNode
+     * Fills the buffer up to its limit from the channel and flips it for reading.
+     * Throws EOFException if the channel ends first.
+     */
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("snapshot ends in the middle of a block");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * private void rebuild(int[] keys, String[] values, int count)
      * <p>
-     * Complexity: O(1)
+     * Replaces the contents of the tree with a balanced tree holding the first count keys and values.
+     * #pre keys[0..count-1] are strictly increasing
+     * <p>
+     * Complexity: O(count)
      */
-    public void leftUpdateSizes(WAVLNode currNode) {
-        if (!currNode.getLeft().isRealNode() || !currNode.isRealNode()) {
+    private void rebuild(int[] keys, String[] values, int count) {
+        if (count == 0) {
+            if (staleSizes != null) {
+                staleSizes.clear();
+            }
+            this.root = null;
+            this.min = null;
+            this.max = null;
+            this.size = 0;
             return;
         }
-        WAVLNode rightChild = currNode.getRight();
-        currNode.setSize(currNode.getRight().getLeft().getSubtreeSize() + currNode.getLeft().getSubtreeSize() + 1);
-        rightChild.setSize(rightChild.getRight().getSubtreeSize() + currNode.getSubtreeSize() + 1);
+        if (staleSizes != null) {
+            staleSizes.clear();
+        }
+        WAVLNode newRoot = buildSubtree(keys, values, 0, count - 1);
+        if (augmentation != null) {
+            computeAggregates(newRoot);
+        }
+        this.root = newRoot;
+        this.min = treeMin(newRoot);
+        this.max = treeMax(newRoot);
+        this.size = count;
     }
 
     /**
-     * public WAVLNode rightDoubleRotate(WAVLNode currNode)
+     * private static WAVLNode buildSubtree(int[] keys, String[] values, int from, int to)
      * <p>
-     * returns the new root of the sub-tree after the rotations.
-     * b in slide 27 in the WAVL slideshow
+     * Returns the root of a balanced subtree holding keys[from..to] (the virtual node if from > to),
+     * with ranks and sizes set. The parent of the returned root is left for the caller to set.
      * <p>
-     * Complexity: O(1)
+     * Complexity: O(to - from)
      */
-    public WAVLNode rightDoubleRotate(WAVLNode currNode) {
-        WAVLNode toPromote = currNode.getRight().getLeft();
-        rightRotate(currNode.getRight());
-        promotion(toPromote);
-        leftRotate(currNode);
-        //demotion(currNode);
-        //if currNode was the root, replace it with toPromote
-        if (currNode == (WAVLNode) root) {
-            this.root = toPromote;
+    private static WAVLNode buildSubtree(int[] keys, String[] values, int from, int to) {
+        if (from > to) {
+            return VIRTUAL_NODE;
         }
-        return toPromote;
+        int middle = (from + to) >>> 1;
+        WAVLNode node = new WAVLNode(keys[middle], values[middle]);
+        WAVLNode left = buildSubtree(keys, values, from, middle - 1);
+        WAVLNode right = buildSubtree(keys, values, middle + 1, to);
+        node.setLeft(left);
+        node.setRight(right);
+        if (left.isRealNode()) {
+            left.setParent(node);
+        }
+        if (right.isRealNode()) {
+            right.setParent(node);
+        }
+        node.setRank(Math.max(left.getRank(), right.getRank()) + 1);
+        node.setSize(to - from + 1);
+        return node;
     }
 
-    /*
-     * public WAVLNode leftRotate(WAVLNode currNode)
-     *
-     * in a left rotation, currnode becomes the left child of its right (former) child and is demoted
-     * and currNode's parent should be the parent of RightChild
-     *
-     * Complexity: O(1)
+    /**
+     * private static WAVLNode treeMin(WAVLNode node) / treeMax(WAVLNode node)
+     * <p>
+     * #pre node is a real node
+     * #post Returns the node with the smallest / largest key in node's subtree.
+     * <p>
+     * Complexity O(logn)
      */
-    public WAVLNode leftRotate(WAVLNode currNode) {
-        WAVLNode RightChild = currNode.getRight(); // save right child
-        //update tree sizes
-        leftUpdateSizes(currNode);
-        // Change the right child of the leftChild to be mynode's child.
-        currNode.setRight(RightChild.getLeft());
-        WAVLNode currNodeParent = currNode.getParent();//keep the parent
-        int leftOrRight = currNode.relationWithParent();
-        if (RightChild.hasLeftChild()) {
-            RightChild.getLeft().setParent(currNode);
+    private static WAVLNode treeMin(WAVLNode node) {
+        while (node.hasLeftChild()) {
+            node = node.getLeft();
         }
+        return node;
+    }
 
-        // changing the ranks
-        currNode.setRank(currNode.getRank() - 1);//demote currnode
-
-        // Changing leftChild's parent to be mynode's parent
-        RightChild.setParent(currNode.getParent());
-
-        // Changing currNode to be the Left child of RightChild
-        RightChild.setLeft(currNode);
+    private static WAVLNode treeMax(WAVLNode node) {
+        while (node.hasRightChild()) {
+            node = node.getRight();
+        }
+        return node;
+    }
 
-        // currnode becomes the right child of his left (former) child
-        currNode.setParent(RightChild);
-        //update so that currNode parent will point to leftChild
-        if (leftOrRight == 0) {
-            currNodeParent.setLeft(RightChild);
-        } else if (leftOrRight == 1) {
-            currNodeParent.setRight(RightChild);
+    /**
+     * public static WAVLTree join(WAVLTree left, int key, String value, WAVLTree right)
+     * <p>
+     * Returns a tree holding the items of left, the item (key, value) and the items of right.
+     * Every key in left must be smaller than key and every key in right must be larger than key.
+     * The nodes of left and right are moved into the result, so both of them are empty afterwards.
+     * <p>
+     * Complexity: O(|rank(left) - rank(right)| + 1), which is O(logn)
+     */
+    public static WAVLTree join(WAVLTree left, int key, String value, WAVLTree right) {
+        if (!left.empty() && left.max.getKey() >= key) {
+            throw new IllegalArgumentException("left tree has key " + left.max.getKey() + " which is not smaller than " + key);
         }
-        //if currNode was the root, change the tree's root to it's leftCHild
-        if (currNode == (WAVLNode) root) {
-            this.root = RightChild;
+        if (!right.empty() && right.min.getKey() <= key) {
+            throw new IllegalArgumentException("right tree has key " + right.min.getKey() + " which is not larger than " + key);
         }
-        return RightChild;
+        left.flushSizes();
+        right.flushSizes();
+        WAVLNode joined = joinNodes(left.rootOrVirtual(), new WAVLNode(key, value), right.rootOrVirtual());
+        left.rebuild(null, null, 0);
+        right.rebuild(null, null, 0);
+        return fromRoot(joined);
     }
 
     /**
-     * public WAVLNode rightDoubleRotate(WAVLNode currNode)
+     * public WAVLTree[] split(int key)
      * <p>
-     * returns the new root of the sub-tree after the rotations.
-     * b in slide 27 in the WAVL slideshow
+     * Splits the tree around key and returns two trees: the first holds the items with keys smaller
+     * than key and the second holds the items with keys larger than or equal to key.
+     * The nodes are moved into the returned trees, so this tree is empty afterwards.
      * <p>
-     * Complexity: O(1)
+     * Complexity: O(logn)
      */
-    public WAVLNode leftDoubleRotate(WAVLNode currNode) {
-        WAVLNode toPromote = currNode.getLeft().getRight();
-        leftRotate(currNode.getLeft());
-        promotion(toPromote);
-        rightRotate(currNode);
-        //if currNode was the root, replace it with toPromote
-        if (currNode == (WAVLNode) root) {
-            this.root = toPromote;
-        }
-        return toPromote;
+    public WAVLTree[] split(int key) {
+        flushSizes();
+        WAVLNode[] parts = splitNodes(rootOrVirtual(), key);
+        rebuild(null, null, 0);
+        WAVLNode larger = parts[1] == null ? parts[2] : joinNodes(VIRTUAL_NODE, parts[1], parts[2]);
+        return new WAVLTree[]{fromRoot(parts[0]), fromRoot(larger)};
     }
 
     /**
-     * public void demotion(WAVLNode mynode)
+     * private WAVLNode rootOrVirtual()
      * <p>
-     * Decreases the rank of mynode by 1
+     * Returns the root, or the virtual node if the tree is empty.
      * <p>
-     * Complexity: O(1)
+     * Complexity O(1)
      */
-    public void demotion(WAVLNode mynode) {
-        mynode.decreaseRank();
+    private WAVLNode rootOrVirtual() {
+        return this.root == null ? VIRTUAL_NODE : this.root;
     }
 
     /**
-     * public void promotion(WAVLNode mynode)
+     * private static WAVLTree fromRoot(WAVLNode root)
      * <p>
-     * increases the rank of mynode by 1
+     * Wraps a detached subtree (ranks and sizes correct, root's parent null) in a new tree object.
      * <p>
-     * Complexity: O(1)
+     * Complexity O(logn)
      */
-    public void promotion(WAVLNode mynode) {
-        mynode.increaseRank();
+    private static WAVLTree fromRoot(WAVLNode root) {
+        WAVLTree tree = new WAVLTree();
+        if (root.isRealNode()) {
+            tree.root = root;
+            tree.min = treeMin(root);
+            tree.max = treeMax(root);
+            tree.size = root.getSubtreeSize();
+        }
+        return tree;
     }
 
     /**
-     * public int checkInsertCase(WAVLNode mynode)
+     * private static WAVLNode[] splitNodes(WAVLNode node, int key)
      * <p>
-     * checks if current sub-tree is balanced after the insertion and returns which case is needed
-     *
-     * @pre - mynode != null
+     * Splits the subtree of node into {subtree of the keys smaller than key, the node with key or null,
+     * subtree of the keys larger than key}, by joining the pieces left over on the way down to key.
+     * The ranks of the pieces joined on each side only grow, so the join costs add up to O(logn).
+     * #pre node is the virtual node or a root (its parent is null)
      * <p>
-     * Complexity: O(1)
-     **/
-    public int checkInsertCase(WAVLNode mynode) {
-        //0 if there's no problem
-        //1 if (0,1) or (1,0)
-        //2 if currNode is (0,2) and their left child is (1,2)
-        //3 if currNode is (0,2) and their left child is (2,1)
-        //4 if currNode is (2,0) and their right child is (1,2)
-        //5 if currNode is (2,0) and their right child is (2,1)
-        WAVLNode myLeft = mynode.getLeft();
-        WAVLNode myRight = mynode.getRight();
-        //if none of them == 0 then return there's no problem
-        if ((getLeftRankDiff(mynode) != 0) && (getRightRankDiff(mynode) != 0)) {
-            return 0;
+     * Complexity O(logn)
+     */
+    private static WAVLNode[] splitNodes(WAVLNode node, int key) {
+        if (!node.isRealNode()) {
+            return new WAVLNode[]{VIRTUAL_NODE, null, VIRTUAL_NODE};
         }
-        //one of them == 0. if the other one == 1 then (0,1) or (1,0)
-        else if (getRightRankDiff(mynode) == 1 || getLeftRankDiff(mynode) == 1) {
-            return 1;
+        WAVLNode left = node.getLeft();
+        WAVLNode right = node.getRight();
+        if (left.isRealNode()) {
+            left.setParent(null);
         }
-        //if (0,2) check the left child ("myLeft")
-        else if (getRightRankDiff(mynode) == 2) {
-            if (getLeftRankDiff(myLeft) == 1) {
-                return 2;
-            } else {
-                return 3;
-            }
+        if (right.isRealNode()) {
+            right.setParent(null);
         }
-//if (2,0) check the right child ("myRight")
-        else if (getLeftRankDiff(mynode) == 2) {
-            if (getLeftRankDiff(myRight) == 1) {
-                return 4;
-            } else {
-                return 5;
-            }
+        if (key == node.getKey()) {
+            return new WAVLNode[]{left, node, right};
         }
-        return -1;
+        if (key < node.getKey()) {
+            WAVLNode[] parts = splitNodes(left, key);
+            return new WAVLNode[]{parts[0], parts[1], joinNodes(parts[2], node, right)};
+        }
+        WAVLNode[] parts = splitNodes(right, key);
+        return new WAVLNode[]{joinNodes(left, node, parts[0]), parts[1], parts[2]};
     }
 
     /**
-     * public int insert(int k, String i)
+     * private static WAVLNode joinNodes(WAVLNode left, WAVLNode middle, WAVLNode right)
      * <p>
-     * inserts an item with key k and info i to the WAVL tree.
-     * the tree must remain valid (keep its invariants).
-     * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
-     * returns -1 if an item with key k already exists in the tree.
+     * Links the detached subtrees left and right under middle and rebalances, returning the new root.
+     * If the ranks are close, middle simply becomes the root. Otherwise middle is hung on the inner spine
+     * of the taller subtree, above the first node whose rank is at most rank(shorter) + 1, with rank
+     * rank(shorter) + 2. That leaves middle a (1,2), (2,1) or (2,2) node and at most a 0-difference
+     * above it, which is exactly what the insertion rebalancing fixes.
+     * #pre all keys of left < middle.key < all keys of right; left and right are virtual or roots
      * <p>
-     * Complexity: O(logn)
+     * Complexity O(|rank(left) - rank(right)| + 1)
      */
-    public int insert(int k, String i) {
-
-        WAVLNode newNode = new WAVLNode(k, i);
-        newNode.addVirtualNodes();
-        WAVLNode castedRoot = (WAVLNode) root;
-        //if the tree is empty add new node as a root
-        if (this.size() == 0) {
-            this.root = newNode;
-            this.min = newNode;
-            this.max = newNode;
-            this.size++;
-            return 0;
+    private static WAVLNode joinNodes(WAVLNode left, WAVLNode middle, WAVLNode right) {
+        int leftRank = left.getRank();
+        int rightRank = right.getRank();
+        middle.setParent(null);
+        if (Math.abs(leftRank - rightRank) <= 1) {
+            linkChildren(middle, left, right, Math.max(leftRank, rightRank) + 1);
+            return middle;
         }
-        //if the key already exists, return -1
-        else {
-            //inserts the node in the correct position
-            int isfound = treeInsert(castedRoot, newNode);
-            if (isfound == -1) {
-                return -1;
+        WAVLTree scratch = new WAVLTree();
+        WAVLNode parent;
+        if (leftRank > rightRank) {
+            parent = left;
+            WAVLNode child = left.getRight();
+            while (child.getRank() > rightRank + 1) {
+                parent = child;
+                child = child.getRight();
             }
+            linkChildren(middle, child, right, child.isRealNode() || right.isRealNode() ? rightRank + 2 : 0);
+            parent.setRight(middle);
+            scratch.root = left;
+        } else {
+            parent = right;
+            WAVLNode child = right.getLeft();
+            while (child.getRank() > leftRank + 1) {
+                parent = child;
+                child = child.getLeft();
+            }
+            linkChildren(middle, left, child, child.isRealNode() || left.isRealNode() ? leftRank + 2 : 0);
+            parent.setLeft(middle);
+            scratch.root = right;
         }
-        if (min.getKey() > newNode.getKey()) {
-            this.min = newNode;
-        }
-        if (max.getKey() < newNode.getKey()) {
-            this.max = newNode;
+        middle.setParent(parent);
+        for (WAVLNode ancestor = parent; ancestor != null; ancestor = ancestor.getParent()) {
+            ancestor.setSize(ancestor.getLeft().getSubtreeSize() + ancestor.getRight().getSubtreeSize() + 1);
         }
+        scratch.insertRebalance(parent);
+        return scratch.root;
+    }
 
-        //changes sizes of subtrees
-        int resizesNum = adjustSizes(newNode);
-        //System.out.println("the number of nodes that increased their size is: " + resizesNum);
-        //rebalancing
-        WAVLNode currNode = newNode.getParent();
-        int j = checkInsertCase(currNode);
-        int corrections = 0;
-        while (j > 0 && (currNode != null)) {
-            switch (j) {
-                //to-do update the root after rotations
-                //1 if (0,1) or (1,0), promote  node and go to parent
-                case 1:
-                    promotion(currNode);
-                    currNode = currNode.getParent();
-                    corrections++;
-                    break;
-
-                //2 if currNode is (0,2) and their left child is (1,2)
-                case 2:
-                    currNode = rightRotate(currNode);
-                    corrections = corrections + 2; //rotation+demotion
-                    currNode = currNode.getParent();
-                    break;
-
-                //3 if currNode is (0,2) and their left child is (2,1)
-                case 3:
-                    currNode = leftDoubleRotate(currNode);
-                    corrections = corrections + 5; // 2 rotations+ 2 demotion + 1 promotion
-                    break;
-
-                //4 if currNode is (2,0) and their right child is (1,2)
-                case 4:
-                    currNode = rightDoubleRotate(currNode);
-                    corrections = corrections + 5; //2 rotations+ 2 demotion + 1 promotion
-                    break;
-
-                //5 if currNode is (2,0) and their right child is (2,1)
-                case 5:
-                    currNode = leftRotate(currNode);
-                    corrections = corrections + 2; //rotation+demotion
-                    currNode = currNode.getParent();
-                    break;
-            }
-            if (currNode != null) {
-                j = checkInsertCase(currNode);
-            }
-
-
+    /**
+     * private static void linkChildren(WAVLNode node, WAVLNode left, WAVLNode right, int rank)
+     * <p>
+     * Makes left and right the children of node and sets node's rank and size.
+     * <p>
+     * Complexity O(1)
+     */
+    private static void linkChildren(WAVLNode node, WAVLNode left, WAVLNode right, int rank) {
+        node.setLeft(left);
+        node.setRight(right);
+        if (left.isRealNode()) {
+            left.setParent(node);
         }
-        //increase sizes of nodes to the root
-        this.size++;
-        castedRoot = (WAVLNode) root;
-
-        //should return the numbers of changes to the tree
-        return corrections;
+        if (right.isRealNode()) {
+            right.setParent(node);
+        }
+        node.setRank(rank);
+        node.setSize(left.getSubtreeSize() + right.getSubtreeSize() + 1);
     }
 
     /**
-     * public int adjustSizes(WAVLNode newNode)
+     * public static WAVLTree union(WAVLTree a, WAVLTree b)
      * <p>
-     * adds 1 to the rank of each node on the path from the new added
-     * node to the root of the tree. returns the number of nodes updated.
+     * Returns a tree holding every key that is in a or in b. For a key in both, the info of a is kept.
+     * b is split around the root key of a, the two halves are combined with the subtrees of a's root
+     * as fork-join tasks, and the results are joined back around a's root.
+     * The nodes are moved into the result, so a and b are empty afterwards.
      * <p>
-     * Complexity: O(logn)
+     * Complexity: O(m log(n/m + 1)) work for sizes m <= n, O(log^2 n) depth
      */
-    public int adjustSizes(WAVLNode newNode) {
-        WAVLNode currNode = newNode;
-        int numOfIncreases = 0;
-        WAVLNode castedRoot = (WAVLNode) root;
-        castedRoot.increaseSize();
-        while (currNode.getKey() != castedRoot.getKey()) {
-            currNode.increaseSize();
-            currNode = currNode.getParent();
+    public static WAVLTree union(WAVLTree a, WAVLTree b) {
+        return setOperation(SetOperation.UNION, a, b);
+    }
 
-        }
-        return numOfIncreases;
+    /**
+     * public static WAVLTree intersect(WAVLTree a, WAVLTree b)
+     * <p>
+     * Returns a tree holding every key that is in both a and b, with the info of a.
+     * The nodes are moved into the result, so a and b are empty afterwards.
+     * <p>
+     * Complexity: O(m log(n/m + 1)) work for sizes m <= n, O(log^2 n) depth
+     */
+    public static WAVLTree intersect(WAVLTree a, WAVLTree b) {
+        return setOperation(SetOperation.INTERSECTION, a, b);
     }
 
     /**
-     * public int treeInsert(WAVLNode currNode,WAVLNode newNode)
+     * public static WAVLTree difference(WAVLTree a, WAVLTree b)
      * <p>
-     * Inserts newNode as a child of currNode
+     * Returns a tree holding every key of a that is not in b.
+     * The nodes are moved into the result, so a and b are empty afterwards.
      * <p>
-     * Complexity: O(logn)
+     * Complexity: O(m log(n/m + 1)) work for sizes m <= n, O(log^2 n) depth
      */
-    public int treeInsert(WAVLNode currNode, WAVLNode newNode) {
-        WAVLNode position = treePosition(currNode, newNode.getKey());
-        if (newNode.getKey() == position.getKey()) {
-            return -1;
-        }
-        newNode.setParent(position);
-        if (newNode.getKey() < position.getKey()) {
-            position.setLeft(newNode);
-        } else {
-            position.setRight(newNode);
-        }
-        return 0;
+    public static WAVLTree difference(WAVLTree a, WAVLTree b) {
+        return setOperation(SetOperation.DIFFERENCE, a, b);
     }
 
     /**
-     * public WAVLNode treePosition(WAVLNode currNode, int key)
+     * private static WAVLTree setOperation(int kind, WAVLTree a, WAVLTree b)
      * <p>
-     * Returns the position to insert currNode
+     * Runs a SetOperation of the given kind over the roots of a and b in the common fork-join pool,
+     * and empties a and b.
      * <p>
-     * Complexity: O(logn)
+     * Complexity: O(m log(n/m + 1))
      */
-    public WAVLNode treePosition(WAVLNode currNode, int key) {
-        WAVLNode position = currNode;
-        while (currNode.isRealNode()) {
-            position = currNode;
-            if (key == currNode.getKey()) {
-                return currNode;
-            } else if (key < currNode.getKey()) {
-                currNode = currNode.getLeft();
-            } else {
-                currNode = currNode.getRight();
-            }
+    private static WAVLTree setOperation(int kind, WAVLTree a, WAVLTree b) {
+        if (a == b) {
+            throw new IllegalArgumentException("the two trees must be different objects");
         }
-        return position;
+        a.flushSizes();
+        b.flushSizes();
+        WAVLNode result = ForkJoinPool.commonPool().invoke(new SetOperation(kind, a.rootOrVirtual(), b.rootOrVirtual()));
+        a.rebuild(null, null, 0);
+        b.rebuild(null, null, 0);
+        return fromRoot(result);
     }
 
     /**
-     * public int delete(int k)
+     * private static WAVLNode concat(WAVLNode left, WAVLNode right)
      * <p>
-     * deletes an item with key k from the binary tree, if it is there;
-     * the tree must remain valid (keep its invariants).
-     * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
-     * returns -1 if an item with key k was not found in the tree.
+     * Joins two detached subtrees without a middle item, by splitting the largest node off left
+     * and using it as the middle.
+     * #pre all keys of left < all keys of right; left and right are virtual or roots
      * <p>
-     * Complexity: O(logn)
+     * Complexity O(logn)
      */
-    public int delete(int k) {
-        if (root == null) {
-            return -1;
-        }
-        WAVLNode node = findKey((WAVLNode) root, k);
-        if (node == null) {
-            return -1;
-        }
-        if (k == min.getKey()) {
-            min = successor(node);
-        }
-        if (k == max.getKey()) {
-            max = predecessor(node);
-        }
-        WAVLNode nodeToBalance = null;
-        if (size() == 1) {
-            root = null;
-            size--;
-            return 0;
-        }
-        if (!node.hasParent()) {
-            // If node is root, replace its fields with one of its children's fields
-            // (by this stage it must have at least one) and continue the delete process with the chosen child.
-            if (node.hasLeftChild()) {
-                node.setKey(node.getLeft().getKey());
-                node.setInfo(node.getLeft().getValue());
-                node = node.getLeft();
-            } else {
-                node.setKey(node.getRight().getKey());
-                node.setInfo(node.getRight().getValue());
-                node = node.getRight();
-            }
-        }
-        if (node.hasLeftChild() && node.hasRightChild()) {
-            // If node has two children, replace its fields with its predecessor's/successor's fields
-            // And continue the delete process with the predecessor/successor (respectively).
-            if (node.getKey() < node.getParent().getKey()) {
-                WAVLNode predecessorNode = predecessor(node);
-                node.setKey(predecessorNode.getKey());
-                node.setInfo(predecessorNode.getValue());
-                node = predecessorNode;
-            } else {
-                WAVLNode successorNode = successor(node);
-                node.setKey(successorNode.getKey());
-                node.setInfo(successorNode.getValue());
-                node = successorNode;
-            }
+    private static WAVLNode concat(WAVLNode left, WAVLNode right) {
+        if (!left.isRealNode()) {
+            return right;
         }
-        if (!node.left.isRealNode() && !node.right.isRealNode()) {
-            // If node is a leaf, just replace with a virtual node.
-            nodeToBalance = node.getParent();
-            if (node.isLeftChild()) {
-                nodeToBalance.setLeft(null);
-            } else {
-                nodeToBalance.setRight(null);
-            }
-            nodeToBalance.addVirtualNodes();
-        } else {
-            // If node has exactly one child, delete the node and connect its parent to its child
-            nodeToBalance = node.getParent();
-            if (node.hasLeftChild()) {
-                node.getLeft().setParent(node.getParent());
-                if (node.isLeftChild()) {
-                    nodeToBalance.setLeft(node.getLeft());
-                } else {
-                    nodeToBalance.setRight(node.getLeft());
-                }
-            } else {
-                node.getRight().setParent(node.getParent());
-                if (node.isLeftChild()) {
-                    nodeToBalance.setLeft(node.getRight());
-                } else {
-                    nodeToBalance.setRight(node.getRight());
-                }
-            }
+        if (!right.isRealNode()) {
+            return left;
         }
-        size--;
+        WAVLNode[] parts = splitNodes(left, treeMax(left).getKey());
+        return joinNodes(parts[0], parts[1], right);
+    }
 
-        //Re-balance stage
-        int rebalanceOperations = 0;
-        node = nodeToBalance;
-        int deleteCase = deletionCase(node);
-        while (deleteCase != 0) {
-            switch (deleteCase) {
-                case 1:
-                    demotion(node);
-                    node = node.getParent();
-                    rebalanceOperations++;
-                    break;
-                case 2:
-                    demotion(node);
-                    demotion(node.getRight());
-                    node = node.getParent();
-                    rebalanceOperations += 2;
-                    break;
-                case 3:
-                    demotion(node);
-                    demotion(node.getLeft());
-                    node = node.getParent();
-                    rebalanceOperations += 2;
-                    break;
-                case 4:
-                    promotion(leftRotate(node));
-                    rebalanceOperations++;
-                    break;
-                case 5:
-                    promotion(rightRotate(node));
-                    rebalanceOperations++;
-                    break;
-                case 6:
-                    promotion(rightRotate(node.getRight()));
-                    promotion(leftRotate(node));
-                    rebalanceOperations += 2;
-                    break;
-                case 7:
-                    promotion(leftRotate(node.getLeft()));
-                    promotion(rightRotate(node));
-                    rebalanceOperations += 2;
-                    break;
-            }
-            deleteCase = deletionCase(node);
-        }
-        // If a rotation moved the root away from the top, fix it.
-        if (((WAVLNode) root).isLeftChild() || ((WAVLNode) root).isRightChild()) {
-            root = ((WAVLNode) root).getParent();
-        }
-        return rebalanceOperations;
+    /**
+     * public boolean empty()
+     * <p>
+     * returns true if and only if the tree is empty
+     * <p>
+     * Complexity: O(1)
+     */
+    public boolean empty() {
+        return this.size() == 0;
     }
 
     /**
-     * private static WAVLNode findKey(WAVLNode node, int k)
+     * public String search(int k)
      * <p>
-     * #pre node != null
-     * #post Returns the node containing the key k or null if no such node exists, starting with node.
+     * returns the info of an item with key k if it exists in the tree
+     * otherwise, returns null
      * <p>
      * Complexity O(logn)
      */
-    private static WAVLNode findKey(WAVLNode node, int k) {
-        if (node.getKey() == k) {
-            return node;
-        } else if (k < node.getKey() && node.hasLeftChild()) {
-            return findKey(node.getLeft(), k);
-        } else if (k > node.getKey() && node.hasRightChild()) {
-            return findKey(node.getRight(), k);
-        } else {
+    public String search(int k) {
+        if (this.root == null) {
             return null;
         }
+        WAVLNode node = searchKey(this.root, k);
+        return node == null ? null : node.getValue();
     }
 
     /**
-     * private static WAVLNode predecessor(WAVLNode node)
-     * #pre node != null
-     * #post Returns the node with the largest key which is smaller then node.getKey().
-     * #post Returns null if no such node exists (i.e This node is the minimum of the tree).
+     * public boolean containsKey(int k)
      * <p>
-     * Complexity: O(logn)
+     * returns true if and only if an item with key k exists in the tree
+     * <p>
+     * Complexity O(logn)
      */
-    private static WAVLNode predecessor(WAVLNode node) {
-        if (!node.getLeft().isRealNode()) {
-            boolean hasParent = node.getParent() != null;
-            boolean isRightChild = node.isRightChild();
-            if (hasParent && isRightChild) {
-                return node.getParent();
-            } else if (hasParent) {
-                while (node.isLeftChild()) {
-                    node = node.getParent();
-                }
-                return node.getParent();
-            } else {
-                return null;
-            }
-        } else {
-            node = node.getLeft();
-            while (node.hasRightChild()) {
-                node = node.getRight();
-            }
-            return node;
-        }
+    public boolean containsKey(int k) {
+        return this.root != null && searchKey(this.root, k) != null;
     }
 
     /**
-     * private int deletionCase(WAVLNode node)
+     * public IWAVLNode fingerSearch(IWAVLNode finger, int k)
      * <p>
-     * #post Returns the deletion case of the node
-     * 0   - No further changes should be made.
-     * 1   - Demotion required.
-     * 2/3 - Double demotion required.
-     * 4/5 - Rotation required. left/right
-     * 6/7 - Double rotation required, right-left/left-right
+     * returns the node with key k if it exists in the tree, otherwise returns null.
+     * The search climbs from finger until it reaches a subtree that k belongs in and goes down from there,
+     * instead of starting at the root. finger must be a node of this tree (for example one returned by an
+     * earlier fingerSearch, floorEntry or selectNode); if finger is null, the search starts from whichever
+     * of the smallest and largest keys is closer to k. Keys beyond the smallest or largest key are settled
+     * at those nodes without climbing.
      * <p>
-     * Complexity O(1)
+     * Complexity O(log d) for balanced paths, where d is the number of keys between finger's key and k;
+     * O(logn) in the worst case
      */
-    private int deletionCase(WAVLNode node) {
-        if (node == null) return 0;
-        boolean leftSideIncorrect = getLeftRankDiff(node) == 3;
-        boolean rightSideIncorrect = getRightRankDiff(node) == 3;
-        if (!node.getLeft().isRealNode() && !node.getRight().isRealNode() && getLeftRankDiff(node) == 2 && getRightRankDiff(node) == 2) {
-            return 1;
-        }
-        if (!(leftSideIncorrect || rightSideIncorrect)) {
-            return 0; // Everything is correct
-        }
-        // At this point we know there is a problem.
-        if (getLeftRankDiff(node) == 2 || getRightRankDiff(node) == 2) {
-            return 1;
-        }
-        if (leftSideIncorrect) {
-            if (getLeftRankDiff(node.getRight()) == 2 && getRightRankDiff(node.getRight()) == 2) {
-                return 2;
-            } else if (getRightRankDiff(node.getRight()) == 1) {
-                return 4;
-            } else {
-                return 6;
-            }
-        } else {
-            if (getRightRankDiff(node.getLeft()) == 2 && getLeftRankDiff(node.getLeft()) == 2) {
-                return 3;
-            } else if (getLeftRankDiff(node.getLeft()) == 1) {
-                return 5;
-            } else {
-                return 7;
-            }
+    public IWAVLNode fingerSearch(IWAVLNode finger, int k) {
+        if (this.root == null) {
+            return null;
         }
-
+        return searchKey(fingerStart(finger, k), k);
     }
 
     /**
-     * public String min()
+     * public int fingerInsert(IWAVLNode finger, int k, String i)
      * <p>
-     * Returns the info of the item with the smallest key in the tree,
-     * or null if the tree is empty
+     * Same as insert, but finds the position of k from finger as fingerSearch does.
+     * Appending a key larger than every key in the tree (or smaller than every key) therefore
+     * finds its position in O(1); updating the subtree sizes on the path to the root still costs O(logn).
      * <p>
-     * Complexity O(1)
+     * Complexity: O(log d) to find the position, plus O(logn) to update the subtree sizes
      */
-    public String min() {
-        if (this.empty()) {
-            return null;
+    public int fingerInsert(IWAVLNode finger, int k, String i) {
+        if (this.root == null) {
+            return insert(k, i);
         }
-        return this.min.getValue();
+        WAVLNode newNode = new WAVLNode(k, i);
+        if (treeInsert(fingerStart(finger, k), newNode) == -1) {
+            return -1;
+        }
+        return insertFixup(newNode);
     }
 
-
     /**
-     * public String max()
+     * public int fingerDelete(IWAVLNode finger, int k)
      * <p>
-     * Returns the info of the item with the largest key in the tree,
-     * or null if the tree is empty
+     * Same as delete, but finds k from finger as fingerSearch does.
+     * finger itself may be the node deleted, but must not be used as a finger afterwards.
      * <p>
-     * Complexity O(1)
+     * Complexity: O(log d) to find k, plus O(logn) to update the subtree sizes
      */
-    public String max() {
-        if (this.empty()) {
-            return null;
+    public int fingerDelete(IWAVLNode finger, int k) {
+        if (this.root == null) {
+            return -1;
         }
-        return this.max.getValue();
+        WAVLNode node = findKey(fingerStart(finger, k), k);
+        if (node == null) {
+            return -1;
+        }
+        return deleteNode(node);
     }
 
     /**
-     * public int[] keysToArray()
+     * private WAVLNode fingerStart(IWAVLNode finger, int k)
      * <p>
-     * Returns a sorted array which contains all keys in the tree,
-     * or an empty array if the tree is empty.
+     * #pre the tree is not empty; finger is null or a node of this tree (so a WAVLNode)
+     * #post Returns the node a search for k started at finger should go down from.
      * <p>
-     * Complexity O(n)
+     * Complexity O(log d)
      */
-    public int[] keysToArray() {
-        int[] arr = new int[this.size()]; // size of the array is the tree's size
-        //in-order walk
-        WAVLNode currnode = (WAVLNode) this.min;
-
-        for (int i = 0; i < this.size(); i++) {
-            arr[i] = currnode.getKey();
-            currnode = successor(currnode);
+    private WAVLNode fingerStart(IWAVLNode finger, int k) {
+        if (k > max.getKey()) {
+            return max;
         }
-
-        return arr;
+        if (k < min.getKey()) {
+            return min;
+        }
+        if (finger == null) {
+            return climbTowards((long) max.getKey() - k < (long) k - min.getKey() ? max : min, k);
+        }
+        return climbTowards((WAVLNode) finger, k);
     }
 
     /**
-     * public WAVLNode successor(WAVLNode currnode )
+     * public String treeSearch(int k, IWAVLNode currNode)
      * <p>
-     * #pre node != null
-     * #post Returns the node with the smallest key which is larger then node.getKey().
-     * #post Returns null if no such node exists (i.e This node is the maximum of the tree).
+     * returns the info of an item with key k if it exists in the
+     * sub-tree of currNode. otherwise, returns null
      * <p>
-     * Complexity O(logn)
+     * Complexity: O(logn)
      */
-    public WAVLNode successor(WAVLNode currnode) {
-        if (currnode == max) {
-            return null;
-        }
-        if (currnode.getRight().isRealNode()) {
-            currnode = currnode.getRight();
-            while (currnode.getLeft().isRealNode()) {
-                currnode = currnode.getLeft();
-            }
-        } else {
-            while (currnode.getParent().getRight() == currnode) {
-                currnode = currnode.getParent();
+    public String treeSearch(int k, IWAVLNode currNode) {
+        while (currNode.isRealNode()) {
+            int currKey = currNode.getKey();
+            if (currKey == k) {
+                return currNode.getValue();
             }
+            currNode = currKey < k ? currNode.getRight() : currNode.getLeft();
         }
-        return currnode;
+        return null;
     }
 
     /**
-     * public String[] infoToArray()
+     * public int getLeftRankDiff(WAVLNode currNode)
      * <p>
-     * Returns an array which contains all info in the tree,
-     * sorted by their respective keys,
-     * or an empty array if the tree is empty.
+     * returns the difference in ranks between currNode and its left
+     * child
      * <p>
-     * Complexity: O(logn)
+     * Complexity: O(1)
      */
-    public String[] infoToArray() {
-        String[] arr = new String[this.size()]; // size of the array is the tree's size
-        //in-order walk
-        WAVLNode currnode = (WAVLNode) this.min;
-
-        for (int i = 0; i < this.size(); i++) {
-            arr[i] = currnode.getValue();
-            currnode = successor(currnode);
+    public int getLeftRankDiff(WAVLNode currNode) {
+        if (currNode.isRealNode()) {
+            return currNode.getRank() - currNode.getLeft().getRank();
+        } else {
+            return 1;
         }
-
-        return arr;
     }
 
     /**
-     * public int size()
+     * public int getRightRankDiff(WAVLNode currNode)
      * <p>
-     * Returns the number of nodes in the tree.
+     * returns the difference in ranks between currNode and its right
+     * child
      * <p>
      * Complexity: O(1)
      */
-    public int size() {
-        //WAVLNode castedRoot = (WAVLNode)root;
-        if (this.root == null) {
-            return 0;
+    public int getRightRankDiff(WAVLNode currNode) {
+        if (currNode.isRealNode()) {
+            return currNode.getRank() - currNode.getRight().getRank();
+        } else {
+            return 1;
         }
-        return this.size; // to be replaced by student code
     }
 
     /**
-     * public int getRoot()
-     * <p>
-     * Returns the root WAVL node, or null if the tree is empty
+     * public WAVLNode rightRotate(WAVLNode currNode)
      * <p>
-     * precondition: none
-     * postcondition: none
+     * in a right rotations, currnode becomes the right child of his left (former) child and is demoted
+     * and currNode's parent should be the parent of leftChild
      * <p>
      * Complexity: O(1)
      */
-    public IWAVLNode getRoot() {
+    public WAVLNode rightRotate(WAVLNode currNode) {
+        WAVLNode leftChild = currNode.getLeft(); // Keep left child
+        WAVLNode currNodeParent = currNode.getParent();//keep the parent
+        int leftOrRight = currNode.relationWithParent();
+        //update sizes
+        rightUpdateSizes(currNode);
+        // Change the right child of the leftChild to be mynode's child.
+        currNode.setLeft(leftChild.getRight());
+        if (leftChild.hasRightChild()) {
+            leftChild.getRight().setParent(currNode);
+        }
+        // changing the ranks
+        currNode.setRank(currNode.getRank() - 1);//demote currnode
 
-        return this.root;
+        // Changing leftChild's parent to be mynode's parent
+        leftChild.setParent(currNode.getParent());
+
+        // Changing currNode to be the right child of leftChild
+        leftChild.setRight(currNode);
+
+        // currnode becomes the right child of his left (former) child
+        currNode.setParent(leftChild);
+        //update so that currNode parent will point to leftChild
+        if (leftOrRight == 0) {
+            currNodeParent.setLeft(leftChild);
+        } else if (leftOrRight == 1) {
+            currNodeParent.setRight(leftChild);
+        }
+
+        //if currNode was the root, change the tree's root to it's leftCHild
+        if (currNode == root) {
+            this.root = leftChild;
+        }
+
+        return leftChild;
     }
 
     /**
-     * public int select(int i)
-     * <p>
-     * Returns the value of the i'th smallest key (return -1 if tree is empty)
-     * Example 1: select(1) returns the value of the node with minimal key
-     * Example 2: select(size()) returns the value of the node with maximal key
-     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
+     * public void rightUpdateSizes(WAVLNode currNode)
      * <p>
-     * precondition: size() >= i > 0
-     * postcondition: none
+     * updates the sizes of the left subtree of currNode and of currNode
      * <p>
-     * Complexity O(logn)
+     * Complexity: O(1)
      */
-    public String select(int i) {
-        return select(i, root);
+    public void rightUpdateSizes(WAVLNode currNode) {
+        if (!currNode.getLeft().isRealNode() || !currNode.isRealNode()) {
+            return;
+        }
+        if (staleSizes != null) {
+            staleSizes.add(currNode);
+            staleSizes.add(currNode.getLeft());
+            return;
+        }
+        WAVLNode LeftChild = currNode.getLeft();
+        currNode.setSize(currNode.getLeft().getRight().getSubtreeSize() + currNode.getRight().getSubtreeSize() + 1);
+        LeftChild.setSize(LeftChild.getLeft().getSubtreeSize() + currNode.getSubtreeSize() + 1);
+        if (augmentation != null) {
+            updateAggregate(currNode, LeftChild.getRight(), currNode.getRight());
+            updateAggregate(LeftChild, LeftChild.getLeft(), currNode);
+        }
     }
 
     /**
-     * public String select(int i, IWAVLNode node)
-     * <p>
-     * Returns the value of the i'th smallest key in node's subtree(return -1 if tree is empty)
-     * Example 1: select(1) returns the value of the node with minimal key
-     * Example 2: select(size()) returns the value of the node with maximal key
-     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
+     * public void leftUpdateSizes(WAVLNode currNode)
      * <p>
-     * precondition: node.getSubtreeSize() >= i > 0
-     * postcondition: none
+     * updates the sizes of the right subtree of currNode and of currNode
      * <p>
-     * Complexity O(logn)
+     * Complexity: O(1)
      */
-    public String select(int i, IWAVLNode node) {
-        if (this.size() < i || this.size() == 0) {
-            return "-1";
+    public void leftUpdateSizes(WAVLNode currNode) {
+        if (!currNode.getRight().isRealNode() || !currNode.isRealNode()) {
+            return;
         }
-        IWAVLNode currnode = node.getLeft();
-        int currsize = currnode.getSubtreeSize();
-        if (currsize == i - 1) {
-            return node.getValue();
+        if (staleSizes != null) {
+            staleSizes.add(currNode);
+            staleSizes.add(currNode.getRight());
+            return;
         }
-        if (currsize > i - 1) {
-            return select(i, currnode);
+        WAVLNode rightChild = currNode.getRight();
+        currNode.setSize(currNode.getRight().getLeft().getSubtreeSize() + currNode.getLeft().getSubtreeSize() + 1);
+        rightChild.setSize(rightChild.getRight().getSubtreeSize() + currNode.getSubtreeSize() + 1);
+        if (augmentation != null) {
+            updateAggregate(currNode, currNode.getLeft(), rightChild.getLeft());
+            updateAggregate(rightChild, currNode, rightChild.getRight());
         }
-        return select(i - currsize - 1, node.getRight());
     }
 
     /**
-     * public interface IWAVLNode
-     * ! Do not delete or modify this - otherwise all tests will fail !
+     * public WAVLNode rightDoubleRotate(WAVLNode currNode)
+     * <p>
+     * returns the new root of the sub-tree after the rotations.
+     * b in slide 27 in the WAVL slideshow
+     * <p>
+     * Complexity: O(1)
      */
-    public interface IWAVLNode {
-        public int getKey(); //returns node's key (for virtuval node return -1)
+    public WAVLNode rightDoubleRotate(WAVLNode currNode) {
+        WAVLNode toPromote = currNode.getRight().getLeft();
+        rightRotate(currNode.getRight());
+        promotion(toPromote);
+        leftRotate(currNode);
+        //demotion(currNode);
+        //if currNode was the root, replace it with toPromote
+        if (currNode == root) {
+            this.root = toPromote;
+        }
+        return toPromote;
+    }
 
-        public String getValue(); //returns node's value [info] (for virtuval node return null)
+    /*
+     * public WAVLNode leftRotate(WAVLNode currNode)
+     *
+     * in a left rotation, currnode becomes the left child of its right (former) child and is demoted
+     * and currNode's parent should be the parent of RightChild
+     *
+     * Complexity: O(1)
+     */
+    public WAVLNode leftRotate(WAVLNode currNode) {
+        WAVLNode RightChild = currNode.getRight(); // save right child
+        //update tree sizes
+        leftUpdateSizes(currNode);
+        // Change the right child of the leftChild to be mynode's child.
+        currNode.setRight(RightChild.getLeft());
+        WAVLNode currNodeParent = currNode.getParent();//keep the parent
+        int leftOrRight = currNode.relationWithParent();
+        if (RightChild.hasLeftChild()) {
+            RightChild.getLeft().setParent(currNode);
+        }
 
-        public IWAVLNode getLeft(); //returns left child (if there is no left child return null)
+        // changing the ranks
+        currNode.setRank(currNode.getRank() - 1);//demote currnode
 
-        public IWAVLNode getRight(); //returns right child (if there is no right child return null)
+        // Changing leftChild's parent to be mynode's parent
+        RightChild.setParent(currNode.getParent());
 
-        public boolean isRealNode(); // Returns True if this is a non-virtual WAVL node (i.e not a virtual leaf or a sentinal)
+        // Changing currNode to be the Left child of RightChild
+        RightChild.setLeft(currNode);
 
-        public int getSubtreeSize(); // Returns the number of real nodes in this node's subtree (Should be implemented in O(1))
+        // currnode becomes the right child of his left (former) child
+        currNode.setParent(RightChild);
+        //update so that currNode parent will point to leftChild
+        if (leftOrRight == 0) {
+            currNodeParent.setLeft(RightChild);
+        } else if (leftOrRight == 1) {
+            currNodeParent.setRight(RightChild);
+        }
+        //if currNode was the root, change the tree's root to it's leftCHild
+        if (currNode == root) {
+            this.root = RightChild;
+        }
+        return RightChild;
     }
 
     /**
-     * public class WAVLNode
+     * public WAVLNode rightDoubleRotate(WAVLNode currNode)
      * <p>
-     * If you wish to implement classes other than WAVLTree
-     * (for example WAVLNode), do it in this file, not in
-     * another file.
-     * This class can and must be modified.
-     * (It must implement IWAVLNode)
-     */
-    public class WAVLNode implements IWAVLNode {
-        private WAVLNode parent;
+     * returns the new root of the sub-tree after the rotations.
+     * b in slide 27 in the WAVL slideshow
+     * <p>
+     * Complexity: O(1)
+     */
+    public WAVLNode leftDoubleRotate(WAVLNode currNode) {
+        WAVLNode toPromote = currNode.getLeft().getRight();
+        leftRotate(currNode.getLeft());
+        promotion(toPromote);
+        rightRotate(currNode);
+        //if currNode was the root, replace it with toPromote
+        if (currNode == root) {
+            this.root = toPromote;
+        }
+        return toPromote;
+    }
+
+    /**
+     * public void demotion(WAVLNode mynode)
+     * <p>
+     * Decreases the rank of mynode by 1
+     * <p>
+     * Complexity: O(1)
+     */
+    public void demotion(WAVLNode mynode) {
+        mynode.decreaseRank();
+    }
+
+    /**
+     * public void promotion(WAVLNode mynode)
+     * <p>
+     * increases the rank of mynode by 1
+     * <p>
+     * Complexity: O(1)
+     */
+    public void promotion(WAVLNode mynode) {
+        mynode.increaseRank();
+    }
+
+    /**
+     * public int checkInsertCase(WAVLNode mynode)
+     * <p>
+     * checks if current sub-tree is balanced after the insertion and returns which case is needed
+     *
+     * @pre - mynode != null
+     * <p>
+     * Complexity: O(1)
+     **/
+    public int checkInsertCase(WAVLNode mynode) {
+        //0 if there's no problem
+        //1 if (0,1) or (1,0)
+        //2 if currNode is (0,2) and their left child is (1,2) or (2,2)
+        //3 if currNode is (0,2) and their left child is (2,1)
+        //4 if currNode is (2,0) and their right child is (1,2)
+        //5 if currNode is (2,0) and their right child is (2,1) or (2,2)
+        //(the cases are decided by RankRules, shared with the other trees)
+        int leftDiff = getLeftRankDiff(mynode);
+        int rightDiff = getRightRankDiff(mynode);
+        int j = RankRules.insertCase(leftDiff, rightDiff);
+        if (j == RankRules.DEEPER) {
+            //check the 0-child's inner child
+            j = leftDiff == 0 ? RankRules.insertRotationCase(true, getRightRankDiff(mynode.getLeft()))
+                    : RankRules.insertRotationCase(false, getLeftRankDiff(mynode.getRight()));
+        }
+        return j;
+    }
+
+    /**
+     * public int insert(int k, String i)
+     * <p>
+     * inserts an item with key k and info i to the WAVL tree.
+     * the tree must remain valid (keep its invariants).
+     * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+     * returns -1 if an item with key k already exists in the tree.
+     * <p>
+     * Complexity: O(logn)
+     */
+    public int insert(int k, String i) {
+
+        WAVLNode newNode = new WAVLNode(k, i);
+        //if the tree is empty add new node as a root
+        if (this.size() == 0) {
+            this.root = newNode;
+            this.min = newNode;
+            this.max = newNode;
+            this.size++;
+            if (augmentation != null) {
+                updateAggregate(newNode, VIRTUAL_NODE, VIRTUAL_NODE);
+            }
+            if (metrics != null) {
+                metrics.inserts++;
+            }
+            return 0;
+        }
+        //if the key already exists, return -1
+        else {
+            //inserts the node in the correct position
+            int isfound = treeInsert(root, newNode);
+            if (isfound == -1) {
+                return -1;
+            }
+        }
+        return insertFixup(newNode);
+    }
+
+    /**
+     * private int insertFixup(WAVLNode newNode)
+     * <p>
+     * Updates min, max, the sizes and the ranks after newNode was linked into the tree as a leaf.
+     * returns the number of rebalancing operations.
+     * <p>
+     * Complexity: O(logn)
+     */
+    private int insertFixup(WAVLNode newNode) {
+        if (min.getKey() > newNode.getKey()) {
+            this.min = newNode;
+        }
+        if (max.getKey() < newNode.getKey()) {
+            this.max = newNode;
+        }
+
+        if (augmentation != null) {
+            updateAggregate(newNode, VIRTUAL_NODE, VIRTUAL_NODE);
+        }
+        //changes sizes of subtrees (or leave that to the end of the batch)
+        if (staleSizes == null) {
+            adjustSizes(newNode);
+        } else {
+            staleSizes.add(newNode.getParent());
+        }
+        int corrections = insertRebalance(newNode.getParent());
+        this.size++;
+        if (metrics != null) {
+            metrics.inserts++;
+        }
+        if (lazySizes) {
+            boundStaleSizes();
+        }
+
+        //should return the numbers of changes to the tree
+        return corrections;
+    }
+
+    /**
+     * private int insertRebalance(WAVLNode currNode)
+     * <p>
+     * Runs the insertion rebalancing loop starting at currNode, the parent of a node that may be a 0-child.
+     * returns the number of rebalancing operations.
+     * #pre the only rank rule broken in the tree, if any, is a 0-difference below currNode
+     * <p>
+     * Complexity: O(logn)
+     */
+    private int insertRebalance(WAVLNode currNode) {
+        int j = checkInsertCase(currNode);
+        int corrections = 0;
+        while (j > 0 && (currNode != null)) {
+            if (metrics != null) {
+                metrics.recordInsertCase(j);
+            }
+            corrections += RankRules.insertCost(j);
+            switch (j) {
+                //to-do update the root after rotations
+                //1 if (0,1) or (1,0), promote  node and go to parent
+                case 1:
+                    promotion(currNode);
+                    currNode = currNode.getParent();
+                    break;
+
+                //2 if currNode is (0,2) and their left child is (1,2)
+                case 2:
+                    currNode = rightRotate(currNode);
+                    currNode = currNode.getParent();
+                    break;
+
+                //3 if currNode is (0,2) and their left child is (2,1)
+                case 3:
+                    currNode = leftDoubleRotate(currNode);
+                    break;
+
+                //4 if currNode is (2,0) and their right child is (1,2)
+                case 4:
+                    currNode = rightDoubleRotate(currNode);
+                    break;
+
+                //5 if currNode is (2,0) and their right child is (2,1)
+                case 5:
+                    currNode = leftRotate(currNode);
+                    currNode = currNode.getParent();
+                    break;
+            }
+            if (currNode != null) {
+                j = checkInsertCase(currNode);
+            }
+
+
+        }
+        return corrections;
+    }
+
+    /**
+     * public int adjustSizes(WAVLNode newNode)
+     * <p>
+     * adds 1 to the size of each node on the path from the parent of the
+     * new added node to the root of the tree. returns the number of nodes updated.
+     * <p>
+     * Complexity: O(logn)
+     */
+    public int adjustSizes(WAVLNode newNode) {
+        WAVLNode currNode = newNode.getParent();
+        int numOfIncreases = 0;
+        while (currNode != null) {
+            currNode.increaseSize();
+            if (augmentation != null) {
+                updateAggregate(currNode, currNode.getLeft(), currNode.getRight());
+            }
+            currNode = currNode.getParent();
+            numOfIncreases++;
+        }
+        return numOfIncreases;
+    }
+
+    /**
+     * public int shrinkSizes(WAVLNode currNode)
+     * <p>
+     * subtracts 1 from the size of each node on the path from currNode
+     * to the root of the tree. returns the number of nodes updated.
+     * <p>
+     * Complexity: O(logn)
+     */
+    public int shrinkSizes(WAVLNode currNode) {
+        int numOfDecreases = 0;
+        while (currNode != null) {
+            currNode.decreaseSize();
+            if (augmentation != null) {
+                updateAggregate(currNode, currNode.getLeft(), currNode.getRight());
+            }
+            currNode = currNode.getParent();
+            numOfDecreases++;
+        }
+        return numOfDecreases;
+    }
+
+    /**
+     * public int treeInsert(WAVLNode currNode,WAVLNode newNode)
+     * <p>
+     * Inserts newNode as a child of currNode
+     * <p>
+     * Complexity: O(logn)
+     */
+    public int treeInsert(WAVLNode currNode, WAVLNode newNode) {
+        WAVLNode position = treePosition(currNode, newNode.getKey());
+        if (newNode.getKey() == position.getKey()) {
+            return -1;
+        }
+        newNode.setParent(position);
+        if (newNode.getKey() < position.getKey()) {
+            position.setLeft(newNode);
+        } else {
+            position.setRight(newNode);
+        }
+        return 0;
+    }
+
+    /**
+     * public WAVLNode treePosition(WAVLNode currNode, int key)
+     * <p>
+     * Returns the position to insert currNode
+     * <p>
+     * Complexity: O(logn)
+     */
+    public WAVLNode treePosition(WAVLNode currNode, int key) {
+        WAVLNode position = currNode;
+        while (currNode.isRealNode()) {
+            position = currNode;
+            if (key == currNode.getKey()) {
+                return currNode;
+            } else if (key < currNode.getKey()) {
+                currNode = currNode.getLeft();
+            } else {
+                currNode = currNode.getRight();
+            }
+        }
+        return position;
+    }
+
+    /**
+     * public int delete(int k)
+     * <p>
+     * deletes an item with key k from the binary tree, if it is there;
+     * the tree must remain valid (keep its invariants).
+     * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+     * returns -1 if an item with key k was not found in the tree.
+     * <p>
+     * Complexity: O(logn)
+     */
+    public int delete(int k) {
+        if (root == null) {
+            return -1;
+        }
+        WAVLNode node = findKey(root, k);
+        if (node == null) {
+            return -1;
+        }
+        return deleteNode(node);
+    }
+
+    /**
+     * private int deleteNode(WAVLNode node)
+     * <p>
+     * Unlinks node from the tree and rebalances it.
+     * returns the number of rebalancing operations.
+     * <p>
+     * Complexity: O(logn)
+     */
+    private int deleteNode(WAVLNode node) {
+        if (metrics != null) {
+            metrics.deletes++;
+        }
+        if (size() == 1) {
+            root = null;
+            min = null;
+            max = null;
+            size--;
+            return 0;
+        }
+        if (node == min) {
+            min = successor(node);
+        }
+        if (node == max) {
+            max = predecessor(node);
+        }
+        WAVLNode nodeToBalance;
+        if (node.hasLeftChild() && node.hasRightChild()) {
+            // If node has two children, move its successor (which has no left child) into its place
+            // so that node can be unlinked without touching any other node's key or info.
+            WAVLNode successorNode = node.getRight();
+            while (successorNode.hasLeftChild()) {
+                successorNode = successorNode.getLeft();
+            }
+            if (successorNode.getParent() == node) {
+                nodeToBalance = successorNode;
+            } else {
+                nodeToBalance = successorNode.getParent();
+                nodeToBalance.setLeft(successorNode.getRight());
+                if (successorNode.hasRightChild()) {
+                    successorNode.getRight().setParent(nodeToBalance);
+                }
+                successorNode.setRight(node.getRight());
+                node.getRight().setParent(successorNode);
+            }
+            successorNode.setLeft(node.getLeft());
+            node.getLeft().setParent(successorNode);
+            successorNode.setRank(node.getRank());
+            successorNode.setSize(node.getSubtreeSize());
+            successorNode.setParent(node.getParent());
+            replaceChild(node, successorNode);
+            if (staleSizes != null) {
+                staleSizes.add(successorNode);
+            }
+        } else {
+            // If node has at most one child, connect its parent to that child (or to the virtual leaf)
+            nodeToBalance = node.getParent();
+            WAVLNode child = node.hasLeftChild() ? node.getLeft() : node.getRight();
+            if (child.isRealNode()) {
+                child.setParent(nodeToBalance);
+            }
+            replaceChild(node, child);
+        }
+        if (staleSizes == null) {
+            shrinkSizes(nodeToBalance);
+        } else if (nodeToBalance != null) {
+            staleSizes.add(nodeToBalance);
+        }
+        size--;
+
+        //Re-balance stage
+        int rebalanceOperations = 0;
+        node = nodeToBalance;
+        int deleteCase = deletionCase(node);
+        while (deleteCase != 0) {
+            if (metrics != null) {
+                metrics.recordDeletionCase(deleteCase);
+            }
+            rebalanceOperations += RankRules.deletionCost(deleteCase);
+            switch (deleteCase) {
+                case 1:
+                    demotion(node);
+                    node = node.getParent();
+                    break;
+                case 2:
+                    demotion(node);
+                    demotion(node.getRight());
+                    node = node.getParent();
+                    break;
+                case 3:
+                    demotion(node);
+                    demotion(node.getLeft());
+                    node = node.getParent();
+                    break;
+                case 4:
+                    promotion(leftRotate(node));
+                    break;
+                case 5:
+                    promotion(rightRotate(node));
+                    break;
+                case 6:
+                    promotion(rightRotate(node.getRight()));
+                    promotion(leftRotate(node));
+                    break;
+                case 7:
+                    promotion(leftRotate(node.getLeft()));
+                    promotion(rightRotate(node));
+                    break;
+            }
+            deleteCase = deletionCase(node);
+        }
+        if (lazySizes) {
+            boundStaleSizes();
+        }
+        return rebalanceOperations;
+    }
+
+    /**
+     * public int insertAll(int[] keys, String[] values)
+     * <p>
+     * inserts the items (keys[j], values[j]) to the WAVL tree, as if insert were called for each j in order:
+     * a key that is already in the tree, or appeared earlier in the batch, is skipped.
+     * The batch is sorted first and each key is looked up starting from the node of the previous key
+     * instead of from the root. Subtree sizes are fixed once, at the end, for the nodes the batch touched.
+     * A batch at least as large as the tree is merged with it and the tree is rebuilt instead.
+     * returns the total number of rebalancing operations. A rebuild does no rotations, so for it this is
+     * the number of promotions and demotions that take every kept node from its old rank, and every new
+     * node from rank 0, to its rank in the rebuilt tree.
+     * <p>
+     * Complexity: O(m logm + m log(n/m + 1)) amortized for a batch of m keys, O(n + m logm) if rebuilt
+     */
+    public int insertAll(int[] keys, String[] values) {
+        if (keys.length != values.length) {
+            throw new IllegalArgumentException("got " + keys.length + " keys but " + values.length + " values");
+        }
+        long[] order = sortedOrder(keys);
+        if (order.length >= this.size()) {
+            return mergeInsert(order, values);
+        }
+        int corrections = 0;
+        boolean ownBatch = staleSizes == null;
+        if (ownBatch) {
+            staleSizes = new ArrayList<>();
+        }
+        try {
+            WAVLNode finger = null;
+            for (int j = 0; j < order.length; j++) {
+                int k = (int) (order[j] >> 32);
+                if (j > 0 && k == (int) (order[j - 1] >> 32)) {
+                    continue;
+                }
+                WAVLNode start = finger == null ? root : climbTowards(finger, k);
+                WAVLNode newNode = new WAVLNode(k, values[(int) order[j]]);
+                if (treeInsert(start, newNode) == -1) {
+                    continue;
+                }
+                corrections += insertFixup(newNode);
+                finger = newNode;
+            }
+        } finally {
+            if (ownBatch) {
+                finishBatch();
+            }
+        }
+        return corrections;
+    }
+
+    /**
+     * public int deleteAll(int[] keys)
+     * <p>
+     * deletes the items with the given keys from the WAVL tree, as if delete were called for each of them;
+     * keys that are not in the tree are skipped.
+     * The keys are sorted first and each one is looked up starting from the successor of the previous one
+     * instead of from the root. Subtree sizes are fixed once, at the end, for the nodes the batch touched.
+     * A batch at least as large as the tree filters it and rebuilds it instead.
+     * returns the total number of rebalancing operations; for a rebuild, the number of promotions and demotions
+     * that take every kept node from its old rank to its rank in the rebuilt tree (as in insertAll).
+     * <p>
+     * Complexity: O(m logm + m log(n/m + 1)) amortized for a batch of m keys, O(n + m logm) if rebuilt
+     */
+    public int deleteAll(int[] keys) {
+        int[] sorted = keys.clone();
+        Arrays.sort(sorted);
+        if (sorted.length >= this.size()) {
+            return mergeDelete(sorted);
+        }
+        int rebalanceOperations = 0;
+        boolean ownBatch = staleSizes == null;
+        if (ownBatch) {
+            staleSizes = new ArrayList<>();
+        }
+        try {
+            WAVLNode finger = null;
+            for (int j = 0; j < sorted.length; j++) {
+                int k = sorted[j];
+                if (j > 0 && k == sorted[j - 1]) {
+                    continue;
+                }
+                WAVLNode start = finger == null ? root : climbTowards(finger, k);
+                WAVLNode node = findKey(start, k);
+                if (node == null) {
+                    continue;
+                }
+                WAVLNode next = successor(node);
+                rebalanceOperations += deleteNode(node);
+                finger = next;
+            }
+        } finally {
+            if (ownBatch) {
+                finishBatch();
+            }
+        }
+        return rebalanceOperations;
+    }
+
+    /**
+     * private static long[] sortedOrder(int[] keys)
+     * <p>
+     * Returns keys[j] << 32 | j for every j, sorted: by key, and by position for equal keys.
+     * <p>
+     * Complexity: O(m logm)
+     */
+    private static long[] sortedOrder(int[] keys) {
+        long[] order = new long[keys.length];
+        for (int j = 0; j < keys.length; j++) {
+            order[j] = ((long) keys[j] << 32) | j;
+        }
+        Arrays.sort(order);
+        return order;
+    }
+
+    /**
+     * private int mergeInsert(long[] order, String[] values)
+     * <p>
+     * Merges the sorted batch into the items of the tree (existing keys win) and rebuilds the tree.
+     * Returns the rank changes the rebuild implies (see rankChanges).
+     * <p>
+     * Complexity: O(n + m)
+     */
+    private int mergeInsert(long[] order, String[] values) {
+        int[] oldKeys = keysToArray();
+        String[] oldInfos = infoToArray();
+        int[] oldRanks = ranksToArray();
+        int[] keys = new int[oldKeys.length + order.length];
+        String[] infos = new String[keys.length];
+        int[] from = new int[keys.length];
+        int count = 0;
+        int i = 0;
+        for (int j = 0; j < order.length; j++) {
+            int k = (int) (order[j] >> 32);
+            if (j > 0 && k == (int) (order[j - 1] >> 32)) {
+                continue;
+            }
+            while (i < oldKeys.length && oldKeys[i] <= k) {
+                keys[count] = oldKeys[i];
+                from[count] = i;
+                infos[count++] = oldInfos[i++];
+            }
+            if (count == 0 || keys[count - 1] != k) {
+                keys[count] = k;
+                from[count] = -1;
+                infos[count++] = values[(int) order[j]];
+            }
+        }
+        while (i < oldKeys.length) {
+            keys[count] = oldKeys[i];
+            from[count] = i;
+            infos[count++] = oldInfos[i++];
+        }
+        rebuild(keys, infos, count);
+        return rankChanges(oldRanks, from);
+    }
+
+    /**
+     * private int mergeDelete(int[] sorted)
+     * <p>
+     * Drops the sorted keys from the items of the tree and rebuilds the tree.
+     * Returns the rank changes the rebuild implies (see rankChanges).
+     * <p>
+     * Complexity: O(n + m)
+     */
+    private int mergeDelete(int[] sorted) {
+        int[] keys = keysToArray();
+        String[] infos = infoToArray();
+        int[] oldRanks = ranksToArray();
+        int[] from = new int[keys.length];
+        int count = 0;
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
+            while (j < sorted.length && sorted[j] < keys[i]) {
+                j++;
+            }
+            if (j == sorted.length || sorted[j] != keys[i]) {
+                keys[count] = keys[i];
+                from[count] = i;
+                infos[count++] = infos[i];
+            }
+        }
+        rebuild(keys, infos, count);
+        return rankChanges(oldRanks, from);
+    }
+
+    /**
+     * private int[] ranksToArray()
+     * <p>
+     * Returns the ranks of the nodes of the tree, in increasing order of their keys.
+     * <p>
+     * Complexity: O(n)
+     */
+    private int[] ranksToArray() {
+        int[] ranks = new int[this.size];
+        WAVLNode node = this.min;
+        for (int j = 0; j < ranks.length; j++) {
+            ranks[j] = node.getRank();
+            node = successor(node);
+        }
+        return ranks;
+    }
+
+    /**
+     * private int rankChanges(int[] oldRanks, int[] from)
+     * <p>
+     * #pre the tree was just rebuilt; the j'th smallest node came from the node of rank oldRanks[from[j]]
+     * of the old tree, or is new if from[j] is -1
+     * #post Returns the promotions and demotions that would take each node from its old rank (rank 0, the
+     * rank of a new leaf, for a new node) to its rank in the rebuilt tree, that is the sum of the differences.
+     * <p>
+     * Complexity: O(n)
+     */
+    private int rankChanges(int[] oldRanks, int[] from) {
+        int changes = 0;
+        WAVLNode node = this.min;
+        for (int j = 0; j < this.size; j++) {
+            int oldRank = from[j] < 0 ? 0 : oldRanks[from[j]];
+            changes += Math.abs(node.getRank() - oldRank);
+            node = successor(node);
+        }
+        return changes;
+    }
+
+    /**
+     * private static WAVLNode climbTowards(WAVLNode finger, int k)
+     * <p>
+     * #post Returns the lowest ancestor of finger (or finger itself) whose subtree is where k belongs,
+     * so a search for k can start there instead of at the root.
+     * <p>
+     * Complexity: O(log d), where d is the number of keys between finger's key and k
+     */
+    private static WAVLNode climbTowards(WAVLNode finger, int k) {
+        // For k >= finger's key, every key in finger's subtree range is above some key smaller than k,
+        // so we only have to climb until the range's upper bound (a parent we are the left child of) passes k.
+        // For k < finger's key it is the mirror image.
+        if (k >= finger.getKey()) {
+            while (finger.hasParent() && finger.getParent().getKey() <= k) {
+                finger = finger.getParent();
+            }
+        } else {
+            while (finger.hasParent() && finger.getParent().getKey() >= k) {
+                finger = finger.getParent();
+            }
+        }
+        return finger;
+    }
+
+    /**
+     * private void finishBatch()
+     * <p>
+     * Ends a batch: marks every node in staleSizes and all of its ancestors (stopping at nodes already marked,
+     * so each ancestor is visited once), then recomputes the sizes of the marked nodes bottom-up.
+     * <p>
+     * Complexity: O(number of marked nodes)
+     */
+    private void finishBatch() {
+        for (WAVLNode node : staleSizes) {
+            while (node != null && node.getSubtreeSize() >= 0) {
+                node.setSize(-1);
+                node = node.getParent();
+            }
+        }
+        staleSizes = null;
+        if (root != null) {
+            recomputeSizes(root);
+        }
+    }
+
+    /**
+     * public void setLazySizes(boolean lazy)
+     * <p>
+     * Turns lazy sizes mode on or off. In lazy mode insert and delete (and their finger and batch versions)
+     * do not walk to the root to fix the subtree sizes; like a batch, they only note which nodes changed,
+     * and the sizes are recomputed, once for all of those nodes, by the next query that needs them
+     * (select, selectNode, rank, floorRank, ceilingRank, countRange, rangeKeys, rangeValues, spliterator,
+     * join, split and the set operations). That leaves only the amortized O(1) rebalancing per update.
+     * size() is always exact, but getSubtreeSize() of a node may be out of date while updates are pending.
+     * Turning the mode off recomputes the pending sizes. Trees made by join, split and the set operations
+     * start with the mode off.
+     * <p>
+     * Complexity: O(1) to turn on, O(number of nodes with out-of-date sizes) to turn off
+     */
+    public void setLazySizes(boolean lazy) {
+        if (lazy && !lazySizes) {
+            lazySizes = true;
+            staleSizes = new ArrayList<>();
+        } else if (!lazy && lazySizes) {
+            lazySizes = false;
+            finishBatch();
+        }
+    }
+
+    public boolean isLazySizes() {
+        return lazySizes;
+    }
+
+    /**
+     * private void flushSizes()
+     * <p>
+     * In lazy sizes mode, recomputes the subtree sizes changed since the last flush. Otherwise does nothing.
+     * <p>
+     * Complexity: O(number of nodes with out-of-date sizes)
+     */
+    private void flushSizes() {
+        if (lazySizes && !staleSizes.isEmpty()) {
+            finishBatch();
+            staleSizes = new ArrayList<>();
+        }
+    }
+
+    /**
+     * private void boundStaleSizes()
+     * <p>
+     * In lazy sizes mode, flushes once staleSizes holds more entries than the tree has nodes, so its memory
+     * stays O(n); the flush costs O(n) and comes after at least n entries, so it adds O(1) amortized per entry.
+     * <p>
+     * Complexity: O(1) amortized
+     */
+    private void boundStaleSizes() {
+        if (staleSizes.size() > Math.max(LAZY_FLUSH_MIN, this.size)) {
+            flushSizes();
+        }
+    }
+
+    /**
+     * private int recomputeSizes(WAVLNode node)
+     * <p>
+     * Recomputes the size (and aggregate) of every marked (size -1) node in node's subtree and returns node's size.
+     * <p>
+     * Complexity: O(number of marked nodes in the subtree)
+     */
+    private int recomputeSizes(WAVLNode node) {
+        if (node.getSubtreeSize() >= 0) {
+            return node.getSubtreeSize();
+        }
+        int newSize = recomputeSizes(node.getLeft()) + recomputeSizes(node.getRight()) + 1;
+        node.setSize(newSize);
+        if (augmentation != null) {
+            updateAggregate(node, node.getLeft(), node.getRight());
+        }
+        return newSize;
+    }
+
+    /**
+     * private static WAVLNode findKey(WAVLNode node, int k)
+     * <p>
+     * #pre node != null
+     * #post Returns the node containing the key k or null if no such node exists, starting with node.
+     * <p>
+     * Complexity O(logn)
+     */
+    private static WAVLNode findKey(WAVLNode node, int k) {
+        while (node.isRealNode()) {
+            int nodeKey = node.getKey();
+            if (nodeKey == k) {
+                return node;
+            }
+            node = k < nodeKey ? node.getLeft() : node.getRight();
+        }
+        return null;
+    }
+
+    /**
+     * private WAVLNode searchKey(WAVLNode node, int k)
+     * <p>
+     * Same as findKey, for the lookups counted by the metrics (search, containsKey and fingerSearch):
+     * while metrics are enabled, a copy of the loop also counts the nodes it visits and records the path length.
+     * <p>
+     * Complexity O(logn)
+     */
+    private WAVLNode searchKey(WAVLNode node, int k) {
+        if (metrics == null) {
+            return findKey(node, k);
+        }
+        int pathLength = 0;
+        WAVLNode found = null;
+        while (node.isRealNode()) {
+            pathLength++;
+            int nodeKey = node.getKey();
+            if (nodeKey == k) {
+                found = node;
+                break;
+            }
+            node = k < nodeKey ? node.getLeft() : node.getRight();
+        }
+        metrics.recordSearch(pathLength);
+        return found;
+    }
+
+    /**
+     * private void replaceChild(WAVLNode node, WAVLNode replacement)
+     * <p>
+     * #pre replacement's own parent pointer is already set (unless it is virtual)
+     * #post node's parent (or the tree's root, if node is the root) points to replacement instead of node.
+     * <p>
+     * Complexity O(1)
+     */
+    private void replaceChild(WAVLNode node, WAVLNode replacement) {
+        int leftOrRight = node.relationWithParent();
+        if (leftOrRight == 0) {
+            node.getParent().setLeft(replacement);
+        } else if (leftOrRight == 1) {
+            node.getParent().setRight(replacement);
+        } else {
+            this.root = replacement.isRealNode() ? replacement : null;
+        }
+    }
+
+    /**
+     * private static WAVLNode predecessor(WAVLNode node)
+     * #pre node != null
+     * #post Returns the node with the largest key which is smaller then node.getKey().
+     * #post Returns null if no such node exists (i.e This node is the minimum of the tree).
+     * <p>
+     * Complexity: O(logn)
+     */
+    private static WAVLNode predecessor(WAVLNode node) {
+        if (!node.getLeft().isRealNode()) {
+            boolean hasParent = node.getParent() != null;
+            boolean isRightChild = node.isRightChild();
+            if (hasParent && isRightChild) {
+                return node.getParent();
+            } else if (hasParent) {
+                while (node.isLeftChild()) {
+                    node = node.getParent();
+                }
+                return node.getParent();
+            } else {
+                return null;
+            }
+        } else {
+            node = node.getLeft();
+            while (node.hasRightChild()) {
+                node = node.getRight();
+            }
+            return node;
+        }
+    }
+
+    /**
+     * private int deletionCase(WAVLNode node)
+     * <p>
+     * #post Returns the deletion case of the node (decided by RankRules)
+     * 0   - No further changes should be made.
+     * 1   - Demotion required.
+     * 2/3 - Double demotion required.
+     * 4/5 - Rotation required. left/right
+     * 6/7 - Double rotation required, right-left/left-right
+     * <p>
+     * Complexity O(1)
+     */
+    private int deletionCase(WAVLNode node) {
+        if (node == null) return 0;
+        int leftDiff = getLeftRankDiff(node);
+        int rightDiff = getRightRankDiff(node);
+        boolean leaf = !node.getLeft().isRealNode() && !node.getRight().isRealNode();
+        int deleteCase = RankRules.deletionCase(leaf, leftDiff, rightDiff);
+        if (deleteCase == RankRules.DEEPER) {
+            // a 3-child whose sibling is a 1-child: the sibling's children decide
+            WAVLNode sibling = leftDiff == 3 ? node.getRight() : node.getLeft();
+            deleteCase = RankRules.deletionSiblingCase(leftDiff == 3, getLeftRankDiff(sibling), getRightRankDiff(sibling));
+        }
+        return deleteCase;
+    }
+
+    /**
+     * public String min()
+     * <p>
+     * Returns the info of the item with the smallest key in the tree,
+     * or null if the tree is empty
+     * <p>
+     * Complexity O(1)
+     */
+    public String min() {
+        if (this.empty()) {
+            return null;
+        }
+        return this.min.getValue();
+    }
+
+
+    /**
+     * public String max()
+     * <p>
+     * Returns the info of the item with the largest key in the tree,
+     * or null if the tree is empty
+     * <p>
+     * Complexity O(1)
+     */
+    public String max() {
+        if (this.empty()) {
+            return null;
+        }
+        return this.max.getValue();
+    }
+
+    /**
+     * public int[] keysToArray()
+     * <p>
+     * Returns a sorted array which contains all keys in the tree,
+     * or an empty array if the tree is empty.
+     * <p>
+     * Complexity O(n)
+     */
+    public int[] keysToArray() {
+        int[] arr = new int[this.size()]; // size of the array is the tree's size
+        //in-order walk
+        WAVLNode currnode = this.min;
+
+        for (int i = 0; i < this.size(); i++) {
+            arr[i] = currnode.getKey();
+            currnode = successor(currnode);
+        }
+
+        return arr;
+    }
+
+    /**
+     * public WAVLNode successor(WAVLNode currnode )
+     * <p>
+     * #pre node != null
+     * #post Returns the node with the smallest key which is larger then node.getKey().
+     * #post Returns null if no such node exists (i.e This node is the maximum of the tree).
+     * <p>
+     * Complexity O(logn)
+     */
+    public WAVLNode successor(WAVLNode currnode) {
+        if (currnode == max) {
+            return null;
+        }
+        if (currnode.getRight().isRealNode()) {
+            currnode = currnode.getRight();
+            while (currnode.getLeft().isRealNode()) {
+                currnode = currnode.getLeft();
+            }
+        } else {
+            while (currnode.isRightChild()) {
+                currnode = currnode.getParent();
+            }
+            currnode = currnode.getParent();
+        }
+        return currnode;
+    }
+
+    /**
+     * public String[] infoToArray()
+     * <p>
+     * Returns an array which contains all info in the tree,
+     * sorted by their respective keys,
+     * or an empty array if the tree is empty.
+     * <p>
+     * Complexity: O(logn)
+     */
+    public String[] infoToArray() {
+        String[] arr = new String[this.size()]; // size of the array is the tree's size
+        //in-order walk
+        WAVLNode currnode = this.min;
+
+        for (int i = 0; i < this.size(); i++) {
+            arr[i] = currnode.getValue();
+            currnode = successor(currnode);
+        }
+
+        return arr;
+    }
+
+    /**
+     * public FrozenWAVLTree freeze()
+     * <p>
+     * Returns an immutable copy of the tree laid out for lookups (see FrozenWAVLTree).
+     * Later changes to this tree do not affect it.
+     * <p>
+     * Complexity: O(n)
+     */
+    public FrozenWAVLTree freeze() {
+        return new FrozenWAVLTree(this);
+    }
+
+    /**
+     * public int size()
+     * <p>
+     * Returns the number of nodes in the tree.
+     * <p>
+     * Complexity: O(1)
+     */
+    public int size() {
+        if (this.root == null) {
+            return 0;
+        }
+        return this.size; // to be replaced by student code
+    }
+
+    /**
+     * public int getRoot()
+     * <p>
+     * Returns the root WAVL node, or null if the tree is empty
+     * <p>
+     * precondition: none
+     * postcondition: none
+     * <p>
+     * Complexity: O(1)
+     */
+    public IWAVLNode getRoot() {
+
+        return this.root;
+    }
+
+    /**
+     * public Metrics enableMetrics()
+     * <p>
+     * Starts counting the work done by the tree (if it is not counting already) and returns the counters.
+     * <p>
+     * Complexity: O(1)
+     */
+    public Metrics enableMetrics() {
+        if (this.metrics == null) {
+            this.metrics = new Metrics(this);
+        }
+        return this.metrics;
+    }
+
+    /**
+     * public void disableMetrics()
+     * <p>
+     * Stops counting; the Metrics returned earlier keep their last values.
+     * <p>
+     * Complexity: O(1)
+     */
+    public void disableMetrics() {
+        this.metrics = null;
+    }
+
+    /**
+     * public Metrics getMetrics()
+     * <p>
+     * Returns the counters of the tree, or null if metrics are disabled.
+     * <p>
+     * Complexity: O(1)
+     */
+    public Metrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * public int select(int i)
+     * <p>
+     * Returns the value of the i'th smallest key (return -1 if tree is empty)
+     * Example 1: select(1) returns the value of the node with minimal key
+     * Example 2: select(size()) returns the value of the node with maximal key
+     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
+     * <p>
+     * precondition: size() >= i > 0
+     * postcondition: none
+     * <p>
+     * Complexity O(logn)
+     */
+    public String select(int i) {
+        IWAVLNode node = selectNode(i);
+        if (node == null) {
+            return "-1";
+        }
+        return node.getValue();
+    }
+
+    /**
+     * public IWAVLNode selectNode(int i)
+     * <p>
+     * Returns the node of the i'th smallest key, so both its key and its value can be read,
+     * or null if there is no such node (i < 1 or i > size()). The node is returned as an IWAVLNode,
+     * which cannot change the tree.
+     * <p>
+     * Complexity O(logn)
+     */
+    public IWAVLNode selectNode(int i) {
+        if (this.size() < i || i < 1) {
+            return null;
+        }
+        flushSizes();
+        return nodeAt(i);
+    }
+
+    /**
+     * private WAVLNode nodeAt(int i)
+     * <p>
+     * #pre 1 <= i <= size(), and no subtree sizes are pending (see flushSizes)
+     * #post Returns the node with the i'th smallest key. Does not change the tree,
+     * so several threads may call it at once.
+     * <p>
+     * Complexity O(logn)
+     */
+    private WAVLNode nodeAt(int i) {
+        WAVLNode node = this.root;
+        while (true) {
+            int leftSize = node.getLeft().getSubtreeSize();
+            if (leftSize == i - 1) {
+                return node;
+            }
+            if (leftSize > i - 1) {
+                node = node.getLeft();
+            } else {
+                i = i - leftSize - 1;
+                node = node.getRight();
+            }
+        }
+    }
+
+    /**
+     * public int rank(int k)
+     * <p>
+     * Returns the position of key k among the keys of the tree, the inverse of select:
+     * select(rank(k)) is the info of k. Returns -1 if k is not in the tree.
+     * <p>
+     * Complexity O(logn)
+     */
+    public int rank(int k) {
+        flushSizes();
+        int count = 0;
+        WAVLNode node = this.root;
+        while (node != null && node.isRealNode()) {
+            int nodeKey = node.getKey();
+            if (nodeKey == k) {
+                return count + node.getLeft().getSubtreeSize() + 1;
+            }
+            if (nodeKey < k) {
+                count += node.getLeft().getSubtreeSize() + 1;
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * public int floorRank(int k)
+     * <p>
+     * Returns the position of the largest key smaller than or equal to k,
+     * or 0 if all keys are larger than k.
+     * <p>
+     * Complexity O(logn)
+     */
+    public int floorRank(int k) {
+        return countBelow(k, true);
+    }
+
+    /**
+     * public int ceilingRank(int k)
+     * <p>
+     * Returns the position of the smallest key larger than or equal to k,
+     * or size() + 1 if all keys are smaller than k.
+     * <p>
+     * Complexity O(logn)
+     */
+    public int ceilingRank(int k) {
+        return countBelow(k, false) + 1;
+    }
+
+    /**
+     * public String select(int i, IWAVLNode node)
+     * <p>
+     * Returns the value of the i'th smallest key in node's subtree(return -1 if tree is empty)
+     * Example 1: select(1) returns the value of the node with minimal key
+     * Example 2: select(size()) returns the value of the node with maximal key
+     * Example 3: select(2) returns the value 2nd smallest minimal node, i.e the value of the node minimal node's successor
+     * <p>
+     * precondition: node.getSubtreeSize() >= i > 0
+     * postcondition: none
+     * <p>
+     * Complexity O(logn)
+     */
+    public String select(int i, IWAVLNode node) {
+        if (this.size() < i || this.size() == 0) {
+            return "-1";
+        }
+        flushSizes();
+        while (true) {
+            int currsize = node.getLeft().getSubtreeSize();
+            if (currsize == i - 1) {
+                return node.getValue();
+            }
+            if (currsize > i - 1) {
+                node = node.getLeft();
+            } else {
+                i = i - currsize - 1;
+                node = node.getRight();
+            }
+        }
+    }
+
+    /**
+     * public int countRange(int lo, int hi)
+     * <p>
+     * Returns the number of keys k in the tree with lo <= k <= hi (0 if lo > hi).
+     * <p>
+     * Complexity O(logn)
+     */
+    public int countRange(int lo, int hi) {
+        if (lo > hi) {
+            return 0;
+        }
+        return countBelow(hi, true) - countBelow(lo, false);
+    }
+
+    /**
+     * public int[] rangeKeys(int lo, int hi)
+     * <p>
+     * Returns a sorted array of the keys k in the tree with lo <= k <= hi.
+     * <p>
+     * Complexity O(logn + k), for k keys in the range
+     */
+    public int[] rangeKeys(int lo, int hi) {
+        int[] arr = new int[countRange(lo, hi)];
+        WAVLNode currnode = ceilingNode(lo);
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = currnode.getKey();
+            currnode = successor(currnode);
+        }
+        return arr;
+    }
+
+    /**
+     * public String[] rangeValues(int lo, int hi)
+     * <p>
+     * Returns the infos of the keys k in the tree with lo <= k <= hi, sorted by their keys.
+     * <p>
+     * Complexity O(logn + k), for k keys in the range
+     */
+    public String[] rangeValues(int lo, int hi) {
+        String[] arr = new String[countRange(lo, hi)];
+        WAVLNode currnode = ceilingNode(lo);
+        for (int i = 0; i < arr.length; i++) {
+            arr[i] = currnode.getValue();
+            currnode = successor(currnode);
+        }
+        return arr;
+    }
+
+    /**
+     * public void forEachInRange(int lo, int hi, EntryConsumer consumer)
+     * <p>
+     * Calls consumer with every item whose key k satisfies lo <= k <= hi, in increasing key order.
+     * The tree must not be changed by the consumer.
+     * <p>
+     * Complexity O(logn + k), for k keys in the range
+     */
+    public void forEachInRange(int lo, int hi, EntryConsumer consumer) {
+        if (lo > hi) {
+            return;
+        }
+        WAVLNode currnode = ceilingNode(lo);
+        while (currnode != null && currnode.getKey() <= hi) {
+            consumer.accept(currnode.getKey(), currnode.getValue());
+            currnode = successor(currnode);
+        }
+    }
+
+    /**
+     * public void setAugmentation(Augmentation<?> augmentation)
+     * <p>
+     * Makes every node keep the aggregate (see Augmentation) of the items in its subtree, or stops
+     * keeping aggregates if augmentation is null. The aggregates are maintained wherever subtree sizes
+     * are: along the insert and delete paths and in rotations (or, in batches and lazy sizes mode,
+     * when the sizes are recomputed). Trees made by join, split and the set operations start without one.
+     * <p>
+     * Complexity: O(n)
+     */
+    @SuppressWarnings("unchecked")
+    public void setAugmentation(Augmentation<?> augmentation) {
+        flushSizes();
+        this.augmentation = (Augmentation<Object>) augmentation;
+        if (root != null) {
+            computeAggregates(root);
+        }
+    }
+
+    /**
+     * public <A> A aggregate()
+     * <p>
+     * Returns the aggregate of all items in the tree (the identity if it is empty).
+     * A must be the type of the augmentation set with setAugmentation.
+     * <p>
+     * Complexity: O(1), after pending lazy sizes are recomputed
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregate() {
+        requireAugmentation();
+        flushSizes();
+        return (A) aggregateOf(rootOrVirtual());
+    }
+
+    /**
+     * public <A> A aggregateRange(int lo, int hi)
+     * <p>
+     * Returns the aggregate of the items whose keys k satisfy lo <= k <= hi, in key order
+     * (the identity if there are none). A must be the type of the augmentation set with setAugmentation.
+     * Goes down to the node where the paths to lo and hi part, then along both paths,
+     * combining whole subtrees that lie inside the range.
+     * <p>
+     * Complexity: O(logn)
+     */
+    @SuppressWarnings("unchecked")
+    public <A> A aggregateRange(int lo, int hi) {
+        requireAugmentation();
+        flushSizes();
+        WAVLNode split = rootOrVirtual();
+        while (split.isRealNode()) {
+            if (split.getKey() < lo) {
+                split = split.getRight();
+            } else if (split.getKey() > hi) {
+                split = split.getLeft();
+            } else {
+                break;
+            }
+        }
+        if (!split.isRealNode()) {
+            return (A) augmentation.identity();
+        }
+        Object leftPart = augmentation.identity();
+        for (WAVLNode node = split.getLeft(); node.isRealNode(); ) {
+            if (node.getKey() >= lo) {
+                Object inRange = augmentation.combine(lift(node), aggregateOf(node.getRight()));
+                leftPart = augmentation.combine(inRange, leftPart);
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        Object rightPart = augmentation.identity();
+        for (WAVLNode node = split.getRight(); node.isRealNode(); ) {
+            if (node.getKey() <= hi) {
+                Object inRange = augmentation.combine(aggregateOf(node.getLeft()), lift(node));
+                rightPart = augmentation.combine(rightPart, inRange);
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return (A) augmentation.combine(augmentation.combine(leftPart, lift(split)), rightPart);
+    }
+
+    private void requireAugmentation() {
+        if (augmentation == null) {
+            throw new IllegalStateException("no augmentation is set (see setAugmentation)");
+        }
+    }
+
+    private Object lift(WAVLNode node) {
+        return augmentation.lift(node.getKey(), node.getValue());
+    }
+
+    /**
+     * private Object aggregateOf(WAVLNode node)
+     * <p>
+     * #pre augmentation != null
+     * #post Returns node's aggregate, or the identity for the virtual node.
+     * <p>
+     * Complexity: O(1)
+     */
+    private Object aggregateOf(WAVLNode node) {
+        return node.isRealNode() ? node.aggregate : augmentation.identity();
+    }
+
+    /**
+     * private void updateAggregate(WAVLNode node, WAVLNode left, WAVLNode right)
+     * <p>
+     * #pre augmentation != null, and the aggregates of left and right are up to date
+     * #post node's aggregate is that of a subtree with children left and right
+     * (which rotations pass before they relink the nodes).
+     * <p>
+     * Complexity: O(1)
+     */
+    private void updateAggregate(WAVLNode node, WAVLNode left, WAVLNode right) {
+        node.aggregate = augmentation.combine(augmentation.combine(aggregateOf(left), lift(node)), aggregateOf(right));
+    }
+
+    /**
+     * private void computeAggregates(WAVLNode node)
+     * <p>
+     * Recomputes the aggregates of node's whole subtree bottom-up (or clears them if there is no augmentation).
+     * <p>
+     * Complexity: O(size of the subtree)
+     */
+    private void computeAggregates(WAVLNode node) {
+        if (!node.isRealNode()) {
+            return;
+        }
+        computeAggregates(node.getLeft());
+        computeAggregates(node.getRight());
+        if (augmentation == null) {
+            node.aggregate = null;
+        } else {
+            updateAggregate(node, node.getLeft(), node.getRight());
+        }
+    }
+
+    /**
+     * private int countBelow(int k, boolean inclusive)
+     * <p>
+     * Returns the number of keys in the tree smaller than k (or smaller than or equal to k, if inclusive),
+     * adding up the sizes of the left subtrees along one root-to-leaf descent.
+     * <p>
+     * Complexity O(logn)
+     */
+    private int countBelow(int k, boolean inclusive) {
+        flushSizes();
+        int count = 0;
+        WAVLNode node = this.root;
+        while (node != null && node.isRealNode()) {
+            int nodeKey = node.getKey();
+            if (nodeKey < k || (inclusive && nodeKey == k)) {
+                count += node.getLeft().getSubtreeSize() + 1;
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * public IWAVLNode floorEntry(int k) / ceilingEntry(int k) / lowerEntry(int k) / higherEntry(int k)
+     * <p>
+     * Returns the node with the largest key <= k / smallest key >= k / largest key < k / smallest key > k,
+     * or null if there is no such node. As in selectNode, the node is returned read-only.
+     * <p>
+     * Complexity O(logn)
+     */
+    public IWAVLNode floorEntry(int k) {
+        return floorNode(k);
+    }
+
+    public IWAVLNode ceilingEntry(int k) {
+        return ceilingNode(k);
+    }
+
+    public IWAVLNode lowerEntry(int k) {
+        return k == Integer.MIN_VALUE ? null : floorNode(k - 1);
+    }
+
+    public IWAVLNode higherEntry(int k) {
+        return k == Integer.MAX_VALUE ? null : ceilingNode(k + 1);
+    }
+
+    /**
+     * public Integer floorKey(int k) / ceilingKey(int k) / lowerKey(int k) / higherKey(int k)
+     * <p>
+     * Returns the key of the matching entry (see floorEntry), or null if there is none.
+     * <p>
+     * Complexity O(logn)
+     */
+    public Integer floorKey(int k) {
+        return keyOf(floorEntry(k));
+    }
+
+    public Integer ceilingKey(int k) {
+        return keyOf(ceilingEntry(k));
+    }
+
+    public Integer lowerKey(int k) {
+        return keyOf(lowerEntry(k));
+    }
+
+    public Integer higherKey(int k) {
+        return keyOf(higherEntry(k));
+    }
+
+    private static Integer keyOf(IWAVLNode node) {
+        return node == null ? null : node.getKey();
+    }
+
+    /**
+     * private WAVLNode floorNode(int k)
+     * <p>
+     * Returns the node with the largest key smaller than or equal to k, or null if there is none.
+     * <p>
+     * Complexity O(logn)
+     */
+    private WAVLNode floorNode(int k) {
+        WAVLNode candidate = null;
+        WAVLNode node = this.root;
+        while (node != null && node.isRealNode()) {
+            int nodeKey = node.getKey();
+            if (nodeKey == k) {
+                return node;
+            }
+            if (nodeKey < k) {
+                candidate = node;
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * private WAVLNode ceilingNode(int k)
+     * <p>
+     * Returns the node with the smallest key larger than or equal to k, or null if there is none.
+     * <p>
+     * Complexity O(logn)
+     */
+    private WAVLNode ceilingNode(int k) {
+        WAVLNode candidate = null;
+        WAVLNode node = this.root;
+        while (node != null && node.isRealNode()) {
+            int nodeKey = node.getKey();
+            if (nodeKey == k) {
+                return node;
+            }
+            if (nodeKey > k) {
+                candidate = node;
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        return candidate;
+    }
+
+    /**
+     * public Cursor cursor()
+     * <p>
+     * Returns a new cursor over the tree, positioned on the item with the smallest key.
+     * <p>
+     * Complexity O(1)
+     */
+    public Cursor cursor() {
+        Cursor cursor = new Cursor();
+        cursor.first();
+        return cursor;
+    }
+
+    /**
+     * public Spliterator<WAVLNode> spliterator()
+     * <p>
+     * Returns a spliterator over the nodes of the tree in increasing key order, for use with
+     * StreamSupport.stream(tree.spliterator(), parallel). It splits its range of positions in half,
+     * using the subtree sizes to find where each half starts, so parallel streams divide the work evenly.
+     * The tree must not be changed while the spliterator is in use. In lazy sizes mode the pending sizes
+     * are recomputed here, on the calling thread, so the parts only read the tree.
+     * <p>
+     * Complexity O(n) for a full traversal
+     */
+    public Spliterator<WAVLNode> spliterator() {
+        flushSizes();
+        return new NodeSpliterator(1, this.size() + 1);
+    }
+
+    /**
+     * public class Cursor
+     * <p>
+     * Walks the tree in key order in either direction without allocating anything per step.
+     * A cursor is either positioned on an item (valid() is true) or has run past one of the ends;
+     * seek, first and last reposition it, so one cursor can be reused for many scans.
+     * Each step is a successor/predecessor step, which is amortized O(1) over a scan.
+     * The tree must not be changed while the cursor is in use.
+     */
+    public class Cursor {
+        private WAVLNode current;
+
+        /**
+         * public boolean seek(int k)
+         * <p>
+         * Positions the cursor on the smallest key larger than or equal to k.
+         * returns true iff there is such a key.
+         * <p>
+         * Complexity O(logn)
+         */
+        public boolean seek(int k) {
+            current = ceilingNode(k);
+            return current != null;
+        }
+
+        public boolean first() {
+            current = min;
+            return current != null;
+        }
+
+        public boolean last() {
+            current = max;
+            return current != null;
+        }
+
+        /**
+         * public boolean next() / public boolean prev()
+         * <p>
+         * Moves the cursor to the next larger / smaller key.
+         * returns true iff the cursor is still positioned on an item.
+         * <p>
+         * Complexity O(1) amortized
+         */
+        public boolean next() {
+            if (current != null) {
+                current = successor(current);
+            }
+            return current != null;
+        }
+
+        public boolean prev() {
+            if (current != null) {
+                current = predecessor(current);
+            }
+            return current != null;
+        }
+
+        public boolean valid() {
+            return current != null;
+        }
+
+        /**
+         * public int key() / public String value()
+         * <p>
+         * #pre valid()
+         * Return the key / info of the item the cursor is on.
+         */
+        public int key() {
+            return current.getKey();
+        }
+
+        public String value() {
+            return current.getValue();
+        }
+    }
+
+    /**
+     * private class NodeSpliterator
+     * <p>
+     * Covers the nodes at positions from (inclusive) to to (exclusive), as numbered by select.
+     * Its first node is looked up lazily, and the rest are reached with successor.
+     */
+    private class NodeSpliterator implements Spliterator<WAVLNode> {
+        private int from;
+        private final int to;
+        private WAVLNode next; // node at position from, once looked up
+
+        NodeSpliterator(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public boolean tryAdvance(Consumer<? super WAVLNode> action) {
+            if (from >= to) {
+                return false;
+            }
+            if (next == null) {
+                next = nodeAt(from);
+            }
+            WAVLNode node = next;
+            next = successor(node);
+            from++;
+            action.accept(node);
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super WAVLNode> action) {
+            if (from >= to) {
+                return;
+            }
+            WAVLNode node = next == null ? nodeAt(from) : next;
+            for (; from < to; from++) {
+                action.accept(node);
+                node = successor(node);
+            }
+            next = node;
+        }
+
+        public Spliterator<WAVLNode> trySplit() {
+            if (next != null || to - from < 2) {
+                return null;
+            }
+            int middle = (from + to) >>> 1;
+            NodeSpliterator prefix = new NodeSpliterator(from, middle);
+            from = middle;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return to - from;
+        }
+
+        public int characteristics() {
+            return ORDERED | DISTINCT | SIZED | SUBSIZED | NONNULL;
+        }
+    }
+
+    /**
+     * private static class SetOperation
+     * <p>
+     * Fork-join task computing the union, intersection or difference of two detached subtrees a and b.
+     * The root of a picks the split key; the left halves are forked while the right halves are combined
+     * in the current thread. Small pairs of subtrees are combined without forking.
+     */
+    private static class SetOperation extends RecursiveTask<WAVLNode> {
+        private static final long serialVersionUID = 1L;
+
+        static final int UNION = 0;
+        static final int INTERSECTION = 1;
+        static final int DIFFERENCE = 2;
+
+        // below this many nodes in both subtrees together, forking costs more than it saves
+        private static final int FORK_THRESHOLD = 1 << 13;
+
+        private final int kind;
+        private final WAVLNode a;
+        private final WAVLNode b;
+
+        SetOperation(int kind, WAVLNode a, WAVLNode b) {
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+        }
+
+        protected WAVLNode compute() {
+            return combine(kind, a, b);
+        }
+
+        /**
+         * private static WAVLNode combine(int kind, WAVLNode a, WAVLNode b)
+         * <p>
+         * Returns the root of the combined subtree of a and b; the nodes of a and b are reused or dropped.
+         * #pre a and b are virtual or roots
+         * <p>
+         * Complexity: O(m log(n/m + 1))
+         */
+        private static WAVLNode combine(int kind, WAVLNode a, WAVLNode b) {
+            if (!a.isRealNode()) {
+                return kind == UNION ? b : VIRTUAL_NODE;
+            }
+            if (!b.isRealNode()) {
+                return kind == INTERSECTION ? VIRTUAL_NODE : a;
+            }
+            boolean fork = a.getSubtreeSize() + b.getSubtreeSize() >= FORK_THRESHOLD;
+            WAVLNode[] parts = splitNodes(b, a.getKey());
+            WAVLNode left = a.getLeft();
+            WAVLNode right = a.getRight();
+            if (left.isRealNode()) {
+                left.setParent(null);
+            }
+            if (right.isRealNode()) {
+                right.setParent(null);
+            }
+            WAVLNode newLeft;
+            WAVLNode newRight;
+            if (fork) {
+                SetOperation leftTask = new SetOperation(kind, left, parts[0]);
+                leftTask.fork();
+                newRight = combine(kind, right, parts[2]);
+                newLeft = leftTask.join();
+            } else {
+                newLeft = combine(kind, left, parts[0]);
+                newRight = combine(kind, right, parts[2]);
+            }
+            // a's root stays for a union, for an intersection if b has its key, for a difference if not
+            boolean keep = kind == UNION || (kind == INTERSECTION) == (parts[1] != null);
+            return keep ? joinNodes(newLeft, a, newRight) : concat(newLeft, newRight);
+        }
+    }
+
+    /**
+     * public interface EntryConsumer
+     * <p>
+     * Receives the items of the tree one by one (see forEachInRange).
+     */
+    public interface EntryConsumer {
+        public void accept(int key, String info);
+    }
+
+    /**
+     * public interface LongEntryConsumer<V> / LongLongConsumer
+     * <p>
+     * Receive the items of a LongWAVLMap / LongLongWAVLMap one by one (see forEach), without boxing the keys.
+     */
+    public interface LongEntryConsumer<V> {
+        public void accept(long key, V value);
+    }
+
+    public interface LongLongConsumer {
+        public void accept(long key, long value);
+    }
+
+    /**
+     * public interface Augmentation<A>
+     * <p>
+     * A monoid over the items of a tree, kept for every subtree by setAugmentation: lift maps an item to a value,
+     * combine must be associative with identity as its neutral element. Aggregates are combined in key order,
+     * so combine does not have to be commutative. The static methods build the common ones.
+     */
+    public interface Augmentation<A> {
+        public A identity();
+
+        public A lift(int key, String info);
+
+        public A combine(A left, A right);
+
+        /**
+         * Sum of value(info) over the items (0 for none).
+         */
+        public static Augmentation<Long> sum(ToLongFunction<String> value) {
+            return new Augmentation<Long>() {
+                public Long identity() {
+                    return 0L;
+                }
+
+                public Long lift(int key, String info) {
+                    return value.applyAsLong(info);
+                }
+
+                public Long combine(Long left, Long right) {
+                    return left + right;
+                }
+            };
+        }
+
+        /**
+         * Smallest value(info) over the items (Long.MAX_VALUE for none).
+         */
+        public static Augmentation<Long> min(ToLongFunction<String> value) {
+            return new Augmentation<Long>() {
+                public Long identity() {
+                    return Long.MAX_VALUE;
+                }
+
+                public Long lift(int key, String info) {
+                    return value.applyAsLong(info);
+                }
+
+                public Long combine(Long left, Long right) {
+                    return Math.min(left, right);
+                }
+            };
+        }
+
+        /**
+         * Largest value(info) over the items (Long.MIN_VALUE for none).
+         */
+        public static Augmentation<Long> max(ToLongFunction<String> value) {
+            return new Augmentation<Long>() {
+                public Long identity() {
+                    return Long.MIN_VALUE;
+                }
+
+                public Long lift(int key, String info) {
+                    return value.applyAsLong(info);
+                }
+
+                public Long combine(Long left, Long right) {
+                    return Math.max(left, right);
+                }
+            };
+        }
+
+        /**
+         * Number of items whose info satisfies condition.
+         */
+        public static Augmentation<Integer> count(Predicate<String> condition) {
+            return new Augmentation<Integer>() {
+                public Integer identity() {
+                    return 0;
+                }
+
+                public Integer lift(int key, String info) {
+                    return condition.test(info) ? 1 : 0;
+                }
+
+                public Integer combine(Integer left, Integer right) {
+                    return left + right;
+                }
+            };
+        }
+    }
+
+    /**
+     * private static final class RankRules
+     * <p>
+     * The rebalancing cases of a WAVL tree, decided from rank differences alone, and the number of
+     * rebalancing operations each case counts. WAVLTree, ArrayWAVLTree, MappedWAVLTree, PersistentWAVLTree
+     * and AbstractWAVLMap store their nodes differently and apply the cases themselves, but all of them ask
+     * these methods which case applies, so a case is defined (and fixed) in one place.
+     * <p>
+     * Insertion cases, for a node whose child may have become a 0-child:
+     * 0 - no problem; 1 - (0,1) or (1,0), promote and go to the parent;
+     * 2 - (0,2) and the inner child of the 0-child is not a 1-child, rotate right;
+     * 3 - (0,2) and the inner child of the 0-child is a 1-child, double rotate (left-right);
+     * 4 - (2,0) and the inner child of the 0-child is a 1-child, double rotate (right-left);
+     * 5 - (2,0) and the inner child of the 0-child is not a 1-child, rotate left.
+     * (The inner child of a left 0-child is its right child and the other way around. A (2,2) 0-child never
+     * comes from insert, only from join, and takes a single rotation.)
+     * <p>
+     * Deletion cases, for a node whose child may have become a 3-child (or a leaf that may be (2,2)):
+     * 0 - no problem; 1 - demote and go to the parent;
+     * 2/3 - the sibling of the left/right 3-child is (2,2), demote the node and the sibling;
+     * 4/5 - the outer child of the sibling of the left/right 3-child is a 1-child, rotate left/right;
+     * 6/7 - otherwise, double rotate right-left/left-right.
+     */
+    private static final class RankRules {
+        // returned by insertCase and deletionCase when the case depends on the ranks one level further down
+        static final int DEEPER = -2;
+
+        private static final int[] INSERT_COSTS = {0, 1, 2, 5, 5, 2};
+        private static final int[] DELETION_COSTS = {0, 1, 2, 2, 1, 1, 2, 2};
+
+        private RankRules() {
+        }
+
+        /**
+         * static int insertCase(int leftDiff, int rightDiff)
+         * <p>
+         * Returns the insertion case of a node with the given rank differences to its children, or DEEPER
+         * for a 0-child whose sibling is a 2-child (see insertRotationCase), or -1 if no case applies.
+         */
+        static int insertCase(int leftDiff, int rightDiff) {
+            if (leftDiff != 0 && rightDiff != 0) {
+                return 0;
+            }
+            if (leftDiff == 1 || rightDiff == 1) {
+                return 1;
+            }
+            if (leftDiff == 2 || rightDiff == 2) {
+                return DEEPER;
+            }
+            return -1;
+        }
+
+        /**
+         * static int insertRotationCase(boolean zeroChildIsLeft, int innerDiff)
+         * <p>
+         * Returns the insertion case (2 to 5) after insertCase returned DEEPER, given which child is the 0-child
+         * and the rank difference between that 0-child and its inner child.
+         */
+        static int insertRotationCase(boolean zeroChildIsLeft, int innerDiff) {
+            if (zeroChildIsLeft) {
+                return innerDiff == 1 ? 3 : 2;
+            }
+            return innerDiff == 1 ? 4 : 5;
+        }
+
+        /**
+         * static int deletionCase(boolean leaf, int leftDiff, int rightDiff)
+         * <p>
+         * Returns the deletion case of a node with the given rank differences to its children, or DEEPER
+         * for a 3-child whose sibling is a 1-child (see deletionSiblingCase).
+         */
+        static int deletionCase(boolean leaf, int leftDiff, int rightDiff) {
+            if (leaf && leftDiff == 2 && rightDiff == 2) {
+                return 1;
+            }
+            if (leftDiff != 3 && rightDiff != 3) {
+                return 0;
+            }
+            if (leftDiff == 2 || rightDiff == 2) {
+                return 1;
+            }
+            return DEEPER;
+        }
+
+        /**
+         * static int deletionSiblingCase(boolean threeChildIsLeft, int siblingLeftDiff, int siblingRightDiff)
+         * <p>
+         * Returns the deletion case (2 to 7) after deletionCase returned DEEPER, given which child is the
+         * 3-child and the rank differences between its sibling and the sibling's children.
+         */
+        static int deletionSiblingCase(boolean threeChildIsLeft, int siblingLeftDiff, int siblingRightDiff) {
+            if (siblingLeftDiff == 2 && siblingRightDiff == 2) {
+                return threeChildIsLeft ? 2 : 3;
+            }
+            if (threeChildIsLeft) {
+                return siblingRightDiff == 1 ? 4 : 6;
+            }
+            return siblingLeftDiff == 1 ? 5 : 7;
+        }
+
+        /**
+         * static int insertCost(int j) / deletionCost(int deleteCase)
+         * <p>
+         * Returns the number of rebalancing operations insert and delete count for one step of the given case:
+         * a promotion or demotion counts 1, a rotation 2 (with its demotion) on insert and 1 on delete.
+         */
+        static int insertCost(int j) {
+            return INSERT_COSTS[j];
+        }
+
+        static int deletionCost(int deleteCase) {
+            return DELETION_COSTS[deleteCase];
+        }
+    }
+
+    /**
+     * public interface IWAVLNode
+     * ! Do not delete or modify this - otherwise all tests will fail !
+     */
+    public interface IWAVLNode {
+        public int getKey(); //returns node's key (for virtuval node return -1)
+
+        public String getValue(); //returns node's value [info] (for virtuval node return null)
+
+        public IWAVLNode getLeft(); //returns left child (if there is no left child return null)
+
+        public IWAVLNode getRight(); //returns right child (if there is no right child return null)
+
+        public boolean isRealNode(); // Returns True if this is a non-virtual WAVL node (i.e not a virtual leaf or a sentinal)
+
+        public int getSubtreeSize(); // Returns the number of real nodes in this node's subtree (Should be implemented in O(1))
+    }
+
+    /**
+     * public class WAVLNode
+     * <p>
+     * If you wish to implement classes other than WAVLTree
+     * (for example WAVLNode), do it in this file, not in
+     * another file.
+     * This class can and must be modified.
+     * (It must implement IWAVLNode)
+     */
+    public static class WAVLNode implements IWAVLNode {
+        private WAVLNode parent;
         private WAVLNode left;
         private WAVLNode right;
         private int key;
         private String info;
         private int rank;
         private int size;
+        private Object aggregate; // of the subtree, while the tree has an augmentation
+
+        //constructors (WAVLNode)
+        public WAVLNode(WAVLNode parent, WAVLNode left, WAVLNode right, int key, String info, int rank) {
+            this.parent = parent;
+            this.left = left;
+            this.right = right;
+            this.key = key;
+            this.info = info;
+            this.rank = rank;
+        }
+
+        public WAVLNode(int key, String info) {
+            this.key = key;
+            this.info = info;
+            this.left = VIRTUAL_NODE;
+            this.right = VIRTUAL_NODE;
+            this.size = 1;
+            //parent should be null and rank 0
+        }
+
+        /**
+         * Getters and setters
+         * <p>
+         * Complexity: O(1)
+         */
+        public int getKey() {
+            return this.key;
+        }
+
+        public String getValue() {
+            return this.info;
+        }
+
+        public WAVLNode getLeft() {
+            return this.left;
+        }
+
+        public WAVLNode getRight() {
+            return this.right;
+        }
+
+        public int getRank() {
+            return this.rank;
+        }
+
+        public WAVLNode getParent() {
+            return this.parent;
+        }
+
+        public int getSubtreeSize() {
+            return this.size;
+        }
+
+        public void setParent(WAVLNode myparent) {
+            this.parent = myparent;
+        }
+
+        public void setLeft(WAVLNode newLeft) {
+            this.left = newLeft;
+        }
+
+        public void setRight(WAVLNode newRight) {
+            this.right = newRight;
+        }
+
+        public void setRank(int newRank) {
+            this.rank = newRank;
+        }
+
+        public void setSize(int newSize) {
+            this.size = newSize;
+        }
+
+        public void setKey(int key) {
+            this.key = key;
+        }
+
+        public void setInfo(String info) {
+            this.info = info;
+        }
+
+        /**
+         * public boolean isRealNode()
+         * <p>
+         * returns true if this is a real node, false if it is the virtual node
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean isRealNode() {
+            return this != VIRTUAL_NODE;
+        }
+
+        /**
+         * public void increaseSize()
+         * <p>
+         * increases the size of this node by 1
+         * <p>
+         * Complexity: O(1)
+         */
+        public void increaseSize() {
+            this.size = this.size + 1;
+        }
+
+        /**
+         * public void decreaseSize()
+         * <p>
+         * decreases the size of this node by 1
+         * <p>
+         * Complexity: O(1)
+         */
+        public void decreaseSize() {
+            this.size = this.size - 1;
+        }
+
+        /**
+         * public void increaseRank()
+         * <p>
+         * increases the rank of this node by 1
+         * <p>
+         * Complexity: O(1)
+         */
+        public void increaseRank() {
+            this.rank = this.rank + 1;
+        }
+
+        /**
+         * public void decreaseRank()
+         * <p>
+         * decreases the rank of this node by 1
+         * <p>
+         * Complexity: O(1)
+         */
+        public void decreaseRank() {
+            this.rank = this.rank - 1;
+        }
+
+        /**
+         * public boolean hasRightChild()
+         * <p>
+         * returns true iff this node has a real right child
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean hasRightChild() {
+            return (this.right != VIRTUAL_NODE);
+        }
+
+        /**
+         * public boolean hasLeftChild()
+         * <p>
+         * returns true iff this node has a real left child
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean hasLeftChild() {
+            return (this.left != VIRTUAL_NODE);
+        }
+
+        /**
+         * public boolean hasParent()
+         * <p>
+         * returns true iff this node has a parent
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean hasParent() {
+            return (this.parent != null);
+        }
+
+        /**
+         * public void addVirtualNodes()
+         * <p>
+         * points any missing child of this node at the shared virtual node
+         * <p>
+         * Complexity: O(1)
+         */
+        public void addVirtualNodes() {
+            if (this.left == null) {
+                this.left = VIRTUAL_NODE;
+            }
+            if (this.right == null) {
+                this.right = VIRTUAL_NODE;
+            }
+        }
+
+        /**
+         * public int relationWithParent()
+         * <p>
+         * returns -1 if this node has no parent
+         * returns 0 if this node is a left child
+         * returns 1 if this node is a right child
+         * <p>
+         * Complexity: O(1)
+         */
+        public int relationWithParent() {
+            if (parent == null) {
+                return -1;
+            }
+            return parent.relationWithChild(this);
+        }
+
+        /**
+         * public int relationWithChild(WAVLNode node)
+         * <p>
+         * returns 0 if node is a left child
+         * returns 1 if node is a right child
+         * returns -1 otherwise
+         * <p>
+         * Complexity: O(1)
+         */
+        public int relationWithChild(WAVLNode node) {
+            if (node == null) {
+                return -1;
+            } else if (node == left) {
+                return 0;
+            } else if (node == right) {
+                return 1;
+            } else {
+                return -1;
+            }
+        }
+
+        /**
+         * public boolean isRightChild()
+         * <p>
+         * returns true iff this node is a right child
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean isRightChild() {
+            if (this.parent == null) {
+                return false;
+            }
+            return this.parent.getRight() == this;
+        }
+
+        /**
+         * public boolean isLefttChild()
+         * <p>
+         * returns true iff this node is a left child
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean isLeftChild() {
+            if (this.parent == null) {
+                return false;
+            }
+            return this.parent.left == this;
+        }
+    }
+
+    /**
+     * public static class ArrayWAVLTree
+     * <p>
+     * A WAVL tree with the same operations and rebalancing as WAVLTree, whose nodes
+     * live in parallel arrays instead of WAVLNode objects. A node is an index into the
+     * arrays; index 0 (NIL) plays the part of the virtual node (rank -1, size 0) and of
+     * the missing parent of the root. Slots freed by delete are kept on a free list
+     * (linked through the parents array) and reused by later inserts.
+     */
+    public static class ArrayWAVLTree {
+        private static final int NIL = 0;
+
+        private int[] keys;
+        private int[] ranks;
+        private int[] sizes;
+        private int[] lefts;
+        private int[] rights;
+        private int[] parents;
+        private String[] infos;
+        private int root = NIL;
+        private int min = NIL;
+        private int max = NIL;
+        private int size;
+        private int freeHead = NIL; // first released slot, or NIL
+        private int nextUnused = 1; // first slot that was never allocated
+
+        //constructors (ArrayWAVLTree)
+        public ArrayWAVLTree(int capacity) {
+            int length = Math.max(capacity, 1) + 1;
+            this.keys = new int[length];
+            this.ranks = new int[length];
+            this.sizes = new int[length];
+            this.lefts = new int[length];
+            this.rights = new int[length];
+            this.parents = new int[length];
+            this.infos = new String[length];
+            this.keys[NIL] = -1;
+            this.ranks[NIL] = -1;
+        }
+
+        public ArrayWAVLTree() {
+            this(16);
+        }
+
+        /**
+         * public boolean empty()
+         * <p>
+         * returns true if and only if the tree is empty
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean empty() {
+            return this.size == 0;
+        }
+
+        /**
+         * public int size()
+         * <p>
+         * Returns the number of nodes in the tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        public int size() {
+            return this.size;
+        }
+
+        /**
+         * public String search(int k)
+         * <p>
+         * returns the info of an item with key k if it exists in the tree
+         * otherwise, returns null
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            int currNode = root;
+            while (currNode != NIL) {
+                int currKey = keys[currNode];
+                if (k == currKey) {
+                    return infos[currNode];
+                }
+                currNode = k < currKey ? lefts[currNode] : rights[currNode];
+            }
+            return null;
+        }
+
+        /**
+         * public String min()
+         * <p>
+         * Returns the info of the item with the smallest key in the tree,
+         * or null if the tree is empty
+         * <p>
+         * Complexity O(1)
+         */
+        public String min() {
+            return infos[min];
+        }
+
+        /**
+         * public String max()
+         * <p>
+         * Returns the info of the item with the largest key in the tree,
+         * or null if the tree is empty
+         * <p>
+         * Complexity O(1)
+         */
+        public String max() {
+            return infos[max];
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Returns the value of the i'th smallest key (return -1 if tree is empty)
+         * <p>
+         * precondition: size() >= i > 0
+         * <p>
+         * Complexity O(logn)
+         */
+        public String select(int i) {
+            if (this.size < i || this.size == 0) {
+                return "-1";
+            }
+            int currNode = root;
+            while (true) {
+                int leftSize = sizes[lefts[currNode]];
+                if (leftSize == i - 1) {
+                    return infos[currNode];
+                }
+                if (leftSize > i - 1) {
+                    currNode = lefts[currNode];
+                } else {
+                    i = i - leftSize - 1;
+                    currNode = rights[currNode];
+                }
+            }
+        }
+
+        /**
+         * public int[] keysToArray()
+         * <p>
+         * Returns a sorted array which contains all keys in the tree,
+         * or an empty array if the tree is empty.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            int[] arr = new int[this.size];
+            int currNode = min;
+            for (int i = 0; i < this.size; i++) {
+                arr[i] = keys[currNode];
+                currNode = successor(currNode);
+            }
+            return arr;
+        }
+
+        /**
+         * public String[] infoToArray()
+         * <p>
+         * Returns an array which contains all info in the tree,
+         * sorted by their respective keys,
+         * or an empty array if the tree is empty.
+         * <p>
+         * Complexity: O(n)
+         */
+        public String[] infoToArray() {
+            String[] arr = new String[this.size];
+            int currNode = min;
+            for (int i = 0; i < this.size; i++) {
+                arr[i] = infos[currNode];
+                currNode = successor(currNode);
+            }
+            return arr;
+        }
+
+        /**
+         * public int insert(int k, String i)
+         * <p>
+         * inserts an item with key k and info i to the tree, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+         * returns -1 if an item with key k already exists in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int insert(int k, String i) {
+            if (root == NIL) {
+                int newNode = allocate(k, i);
+                root = newNode;
+                min = newNode;
+                max = newNode;
+                size++;
+                return 0;
+            }
+            int position = treePosition(k);
+            if (keys[position] == k) {
+                return -1;
+            }
+            int newNode = allocate(k, i);
+            parents[newNode] = position;
+            if (k < keys[position]) {
+                lefts[position] = newNode;
+            } else {
+                rights[position] = newNode;
+            }
+            if (k < keys[min]) {
+                min = newNode;
+            }
+            if (k > keys[max]) {
+                max = newNode;
+            }
+            for (int currNode = position; currNode != NIL; currNode = parents[currNode]) {
+                sizes[currNode]++;
+            }
+
+            //rebalancing, with the same cases as WAVLTree.checkInsertCase
+            int currNode = position;
+            int j = checkInsertCase(currNode);
+            int corrections = 0;
+            while (j > 0 && currNode != NIL) {
+                corrections += RankRules.insertCost(j);
+                switch (j) {
+                    case 1:
+                        ranks[currNode]++;
+                        currNode = parents[currNode];
+                        break;
+                    case 2:
+                        currNode = parents[rightRotate(currNode)];
+                        break;
+                    case 3:
+                        currNode = leftDoubleRotate(currNode);
+                        break;
+                    case 4:
+                        currNode = rightDoubleRotate(currNode);
+                        break;
+                    case 5:
+                        currNode = parents[leftRotate(currNode)];
+                        break;
+                }
+                if (currNode != NIL) {
+                    j = checkInsertCase(currNode);
+                }
+            }
+            size++;
+            return corrections;
+        }
+
+        /**
+         * public int delete(int k)
+         * <p>
+         * deletes an item with key k from the tree, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+         * returns -1 if an item with key k was not found in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int delete(int k) {
+            int node = treePosition(k);
+            if (node == NIL || keys[node] != k) {
+                return -1;
+            }
+            if (node == min) {
+                min = successor(node);
+            }
+            if (node == max) {
+                max = predecessor(node);
+            }
+            int nodeToBalance;
+            if (lefts[node] != NIL && rights[node] != NIL) {
+                // move the successor (which has no left child) into node's place
+                int successorNode = rights[node];
+                while (lefts[successorNode] != NIL) {
+                    successorNode = lefts[successorNode];
+                }
+                if (parents[successorNode] == node) {
+                    nodeToBalance = successorNode;
+                } else {
+                    nodeToBalance = parents[successorNode];
+                    int successorChild = rights[successorNode];
+                    lefts[nodeToBalance] = successorChild;
+                    if (successorChild != NIL) {
+                        parents[successorChild] = nodeToBalance;
+                    }
+                    rights[successorNode] = rights[node];
+                    parents[rights[node]] = successorNode;
+                }
+                lefts[successorNode] = lefts[node];
+                parents[lefts[node]] = successorNode;
+                ranks[successorNode] = ranks[node];
+                sizes[successorNode] = sizes[node];
+                parents[successorNode] = parents[node];
+                replaceChild(node, successorNode);
+            } else {
+                nodeToBalance = parents[node];
+                int child = lefts[node] != NIL ? lefts[node] : rights[node];
+                if (child != NIL) {
+                    parents[child] = nodeToBalance;
+                }
+                replaceChild(node, child);
+            }
+            for (int currNode = nodeToBalance; currNode != NIL; currNode = parents[currNode]) {
+                sizes[currNode]--;
+            }
+            release(node);
+            size--;
+
+            //rebalancing, with the same cases as WAVLTree.deletionCase
+            int rebalanceOperations = 0;
+            node = nodeToBalance;
+            int deleteCase = deletionCase(node);
+            while (deleteCase != 0) {
+                rebalanceOperations += RankRules.deletionCost(deleteCase);
+                switch (deleteCase) {
+                    case 1:
+                        ranks[node]--;
+                        node = parents[node];
+                        break;
+                    case 2:
+                        ranks[node]--;
+                        ranks[rights[node]]--;
+                        node = parents[node];
+                        break;
+                    case 3:
+                        ranks[node]--;
+                        ranks[lefts[node]]--;
+                        node = parents[node];
+                        break;
+                    case 4:
+                        ranks[leftRotate(node)]++;
+                        break;
+                    case 5:
+                        ranks[rightRotate(node)]++;
+                        break;
+                    case 6:
+                        ranks[rightRotate(rights[node])]++;
+                        ranks[leftRotate(node)]++;
+                        break;
+                    case 7:
+                        ranks[leftRotate(lefts[node])]++;
+                        ranks[rightRotate(node)]++;
+                        break;
+                }
+                deleteCase = deletionCase(node);
+            }
+            return rebalanceOperations;
+        }
+
+        /**
+         * private int allocate(int k, String i)
+         * <p>
+         * Returns a fresh leaf slot holding k and i, taken from the free list
+         * or, if it is empty, from the end of the arrays (which grow as needed).
+         * <p>
+         * Complexity: O(1) amortized
+         */
+        private int allocate(int k, String i) {
+            int node;
+            if (freeHead != NIL) {
+                node = freeHead;
+                freeHead = parents[node];
+            } else {
+                if (nextUnused == keys.length) {
+                    grow();
+                }
+                node = nextUnused++;
+            }
+            keys[node] = k;
+            infos[node] = i;
+            ranks[node] = 0;
+            sizes[node] = 1;
+            lefts[node] = NIL;
+            rights[node] = NIL;
+            parents[node] = NIL;
+            return node;
+        }
+
+        /**
+         * private void release(int node)
+         * <p>
+         * Puts the slot of a deleted node on the free list.
+         * <p>
+         * Complexity: O(1)
+         */
+        private void release(int node) {
+            infos[node] = null;
+            parents[node] = freeHead;
+            freeHead = node;
+        }
+
+        /**
+         * private void grow()
+         * <p>
+         * Doubles the capacity of all node arrays.
+         * <p>
+         * Complexity: O(n)
+         */
+        private void grow() {
+            int length = keys.length * 2;
+            keys = Arrays.copyOf(keys, length);
+            ranks = Arrays.copyOf(ranks, length);
+            sizes = Arrays.copyOf(sizes, length);
+            lefts = Arrays.copyOf(lefts, length);
+            rights = Arrays.copyOf(rights, length);
+            parents = Arrays.copyOf(parents, length);
+            infos = Arrays.copyOf(infos, length);
+        }
+
+        /**
+         * private int treePosition(int key)
+         * <p>
+         * Returns the node holding key, or the node under which key would be inserted
+         * (NIL if the tree is empty).
+         * <p>
+         * Complexity: O(logn)
+         */
+        private int treePosition(int key) {
+            int position = NIL;
+            int currNode = root;
+            while (currNode != NIL) {
+                position = currNode;
+                int currKey = keys[currNode];
+                if (key == currKey) {
+                    return currNode;
+                }
+                currNode = key < currKey ? lefts[currNode] : rights[currNode];
+            }
+            return position;
+        }
+
+        private int getLeftRankDiff(int node) {
+            return node == NIL ? 1 : ranks[node] - ranks[lefts[node]];
+        }
+
+        private int getRightRankDiff(int node) {
+            return node == NIL ? 1 : ranks[node] - ranks[rights[node]];
+        }
+
+        /**
+         * private int checkInsertCase(int node)
+         * <p>
+         * Same cases as WAVLTree.checkInsertCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int checkInsertCase(int node) {
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int j = RankRules.insertCase(leftDiff, rightDiff);
+            if (j == RankRules.DEEPER) {
+                j = leftDiff == 0 ? RankRules.insertRotationCase(true, getRightRankDiff(lefts[node]))
+                        : RankRules.insertRotationCase(false, getLeftRankDiff(rights[node]));
+            }
+            return j;
+        }
+
+        /**
+         * private int deletionCase(int node)
+         * <p>
+         * Same cases as WAVLTree.deletionCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int deletionCase(int node) {
+            if (node == NIL) {
+                return 0;
+            }
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int deleteCase = RankRules.deletionCase(lefts[node] == NIL && rights[node] == NIL, leftDiff, rightDiff);
+            if (deleteCase == RankRules.DEEPER) {
+                int sibling = leftDiff == 3 ? rights[node] : lefts[node];
+                deleteCase = RankRules.deletionSiblingCase(leftDiff == 3, getLeftRankDiff(sibling), getRightRankDiff(sibling));
+            }
+            return deleteCase;
+        }
+
+        /**
+         * private int rightRotate(int node)
+         * <p>
+         * node becomes the right child of its left child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int rightRotate(int node) {
+            int leftChild = lefts[node];
+            int middle = rights[leftChild];
+            sizes[leftChild] = sizes[node];
+            sizes[node] = sizes[middle] + sizes[rights[node]] + 1;
+            lefts[node] = middle;
+            if (middle != NIL) {
+                parents[middle] = node;
+            }
+            ranks[node]--;
+            parents[leftChild] = parents[node];
+            replaceChild(node, leftChild);
+            rights[leftChild] = node;
+            parents[node] = leftChild;
+            return leftChild;
+        }
+
+        /**
+         * private int leftRotate(int node)
+         * <p>
+         * node becomes the left child of its right child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int leftRotate(int node) {
+            int rightChild = rights[node];
+            int middle = lefts[rightChild];
+            sizes[rightChild] = sizes[node];
+            sizes[node] = sizes[middle] + sizes[lefts[node]] + 1;
+            rights[node] = middle;
+            if (middle != NIL) {
+                parents[middle] = node;
+            }
+            ranks[node]--;
+            parents[rightChild] = parents[node];
+            replaceChild(node, rightChild);
+            lefts[rightChild] = node;
+            parents[node] = rightChild;
+            return rightChild;
+        }
+
+        private int rightDoubleRotate(int node) {
+            int toPromote = lefts[rights[node]];
+            rightRotate(rights[node]);
+            ranks[toPromote]++;
+            leftRotate(node);
+            return toPromote;
+        }
+
+        private int leftDoubleRotate(int node) {
+            int toPromote = rights[lefts[node]];
+            leftRotate(lefts[node]);
+            ranks[toPromote]++;
+            rightRotate(node);
+            return toPromote;
+        }
+
+        /**
+         * private void replaceChild(int node, int replacement)
+         * <p>
+         * node's parent (or the tree's root, if node is the root) points to replacement instead of node.
+         * <p>
+         * Complexity: O(1)
+         */
+        private void replaceChild(int node, int replacement) {
+            int parent = parents[node];
+            if (parent == NIL) {
+                root = replacement;
+            } else if (lefts[parent] == node) {
+                lefts[parent] = replacement;
+            } else {
+                rights[parent] = replacement;
+            }
+        }
+
+        private int successor(int node) {
+            if (rights[node] != NIL) {
+                node = rights[node];
+                while (lefts[node] != NIL) {
+                    node = lefts[node];
+                }
+                return node;
+            }
+            int parent = parents[node];
+            while (parent != NIL && rights[parent] == node) {
+                node = parent;
+                parent = parents[node];
+            }
+            return parent;
+        }
+
+        private int predecessor(int node) {
+            if (lefts[node] != NIL) {
+                node = lefts[node];
+                while (rights[node] != NIL) {
+                    node = rights[node];
+                }
+                return node;
+            }
+            int parent = parents[node];
+            while (parent != NIL && lefts[parent] == node) {
+                node = parent;
+                parent = parents[node];
+            }
+            return parent;
+        }
+    }
+
+    /**
+     * public static class MappedWAVLTree
+     * <p>
+     * A WAVL tree with the same operations and rebalancing as ArrayWAVLTree, whose nodes
+     * and values are kept in memory-mapped files instead of the Java heap, so the tree can
+     * outgrow the heap and be reopened later without re-inserting anything.
+     * <p>
+     * The node file starts with a header (root, min, max, size, free list, ...) followed by
+     * fixed-size node records; record 0 is the virtual node. Each record points at a
+     * length-prefixed UTF-8 value in a second file next to it (path + ".values").
+     * Space taken by values of deleted items is not reclaimed.
+     */
+    public static class MappedWAVLTree implements Closeable {
+        private static final int NIL = 0;
+        private static final int MAGIC = 0x5741564C; // "WAVL"
+        private static final int VERSION = 1;
+
+        // header layout
+        private static final int HEADER_BYTES = 64;
+        private static final long MAGIC_POS = 0;
+        private static final long VERSION_POS = 4;
+        private static final long ROOT_POS = 8;
+        private static final long MIN_POS = 12;
+        private static final long MAX_POS = 16;
+        private static final long SIZE_POS = 20;
+        private static final long FREE_HEAD_POS = 24;
+        private static final long NEXT_UNUSED_POS = 28;
+        private static final long VALUE_END_POS = 32;
+
+        // node record layout
+        private static final int NODE_BYTES = 32;
+        private static final int KEY = 0;
+        private static final int RANK = 4;
+        private static final int SIZE = 8;
+        private static final int LEFT = 12;
+        private static final int RIGHT = 16;
+        private static final int PARENT = 20;
+        private static final int VALUE = 24;
+
+        private final MappedRegion nodes;
+        private final MappedRegion values;
+
+        //constructors (MappedWAVLTree)
+        public MappedWAVLTree(Path path) throws IOException {
+            this.nodes = new MappedRegion(path, HEADER_BYTES + 16 * NODE_BYTES);
+            this.values = new MappedRegion(path.resolveSibling(path.getFileName() + ".values"), 4096);
+            if (nodes.getInt(MAGIC_POS) == 0) {
+                nodes.putInt(MAGIC_POS, MAGIC);
+                nodes.putInt(VERSION_POS, VERSION);
+                nodes.putInt(NEXT_UNUSED_POS, 1);
+                setKey(NIL, -1);
+                setRank(NIL, -1);
+                setValueRef(NIL, -1);
+            } else if (nodes.getInt(MAGIC_POS) != MAGIC || nodes.getInt(VERSION_POS) != VERSION) {
+                close();
+                throw new IOException(path + " is not a WAVL tree file");
+            }
+        }
+
+        /**
+         * public boolean empty()
+         * <p>
+         * returns true if and only if the tree is empty
+         * <p>
+         * Complexity: O(1)
+         */
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /**
+         * public int size()
+         * <p>
+         * Returns the number of nodes in the tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        public int size() {
+            return nodes.getInt(SIZE_POS);
+        }
+
+        /**
+         * public String search(int k)
+         * <p>
+         * returns the info of an item with key k if it exists in the tree
+         * otherwise, returns null
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            int currNode = root();
+            while (currNode != NIL) {
+                int currKey = key(currNode);
+                if (k == currKey) {
+                    return value(currNode);
+                }
+                currNode = k < currKey ? left(currNode) : right(currNode);
+            }
+            return null;
+        }
+
+        /**
+         * public String min()
+         * <p>
+         * Returns the info of the item with the smallest key in the tree,
+         * or null if the tree is empty
+         * <p>
+         * Complexity O(1)
+         */
+        public String min() {
+            return value(nodes.getInt(MIN_POS));
+        }
+
+        /**
+         * public String max()
+         * <p>
+         * Returns the info of the item with the largest key in the tree,
+         * or null if the tree is empty
+         * <p>
+         * Complexity O(1)
+         */
+        public String max() {
+            return value(nodes.getInt(MAX_POS));
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Returns the value of the i'th smallest key (return -1 if tree is empty)
+         * <p>
+         * precondition: size() >= i > 0
+         * <p>
+         * Complexity O(logn)
+         */
+        public String select(int i) {
+            if (size() < i || size() == 0) {
+                return "-1";
+            }
+            int currNode = root();
+            while (true) {
+                int leftSize = size(left(currNode));
+                if (leftSize == i - 1) {
+                    return value(currNode);
+                }
+                if (leftSize > i - 1) {
+                    currNode = left(currNode);
+                } else {
+                    i = i - leftSize - 1;
+                    currNode = right(currNode);
+                }
+            }
+        }
+
+        /**
+         * public int[] keysToArray()
+         * <p>
+         * Returns a sorted array which contains all keys in the tree,
+         * or an empty array if the tree is empty.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            int[] arr = new int[size()];
+            int currNode = nodes.getInt(MIN_POS);
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = key(currNode);
+                currNode = successor(currNode);
+            }
+            return arr;
+        }
+
+        /**
+         * public String[] infoToArray()
+         * <p>
+         * Returns an array which contains all info in the tree,
+         * sorted by their respective keys,
+         * or an empty array if the tree is empty.
+         * <p>
+         * Complexity: O(n)
+         */
+        public String[] infoToArray() {
+            String[] arr = new String[size()];
+            int currNode = nodes.getInt(MIN_POS);
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = value(currNode);
+                currNode = successor(currNode);
+            }
+            return arr;
+        }
+
+        /**
+         * public int insert(int k, String i)
+         * <p>
+         * inserts an item with key k and info i to the tree, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations, or 0 if no rebalancing operations were necessary.
+         * returns -1 if an item with key k already exists in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int insert(int k, String i) {
+            int position = treePosition(k);
+            if (position != NIL && key(position) == k) {
+                return -1;
+            }
+            int newNode = allocate(k, i);
+            if (position == NIL) {
+                setRoot(newNode);
+                nodes.putInt(MIN_POS, newNode);
+                nodes.putInt(MAX_POS, newNode);
+                nodes.putInt(SIZE_POS, 1);
+                return 0;
+            }
+            setParent(newNode, position);
+            if (k < key(position)) {
+                setLeft(position, newNode);
+            } else {
+                setRight(position, newNode);
+            }
+            if (k < key(nodes.getInt(MIN_POS))) {
+                nodes.putInt(MIN_POS, newNode);
+            }
+            if (k > key(nodes.getInt(MAX_POS))) {
+                nodes.putInt(MAX_POS, newNode);
+            }
+            for (int currNode = position; currNode != NIL; currNode = parent(currNode)) {
+                setSize(currNode, size(currNode) + 1);
+            }
+
+            //rebalancing, with the same cases as WAVLTree.checkInsertCase
+            int currNode = position;
+            int j = checkInsertCase(currNode);
+            int corrections = 0;
+            while (j > 0 && currNode != NIL) {
+                corrections += RankRules.insertCost(j);
+                switch (j) {
+                    case 1:
+                        promotion(currNode);
+                        currNode = parent(currNode);
+                        break;
+                    case 2:
+                        currNode = parent(rightRotate(currNode));
+                        break;
+                    case 3:
+                        currNode = leftDoubleRotate(currNode);
+                        break;
+                    case 4:
+                        currNode = rightDoubleRotate(currNode);
+                        break;
+                    case 5:
+                        currNode = parent(leftRotate(currNode));
+                        break;
+                }
+                if (currNode != NIL) {
+                    j = checkInsertCase(currNode);
+                }
+            }
+            nodes.putInt(SIZE_POS, size() + 1);
+            return corrections;
+        }
+
+        /**
+         * public int delete(int k)
+         * <p>
+         * deletes an item with key k from the tree, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations, or 0 if no rebalancing operations were needed.
+         * returns -1 if an item with key k was not found in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int delete(int k) {
+            int node = treePosition(k);
+            if (node == NIL || key(node) != k) {
+                return -1;
+            }
+            if (node == nodes.getInt(MIN_POS)) {
+                nodes.putInt(MIN_POS, successor(node));
+            }
+            if (node == nodes.getInt(MAX_POS)) {
+                nodes.putInt(MAX_POS, predecessor(node));
+            }
+            int nodeToBalance;
+            if (left(node) != NIL && right(node) != NIL) {
+                // move the successor (which has no left child) into node's place
+                int successorNode = right(node);
+                while (left(successorNode) != NIL) {
+                    successorNode = left(successorNode);
+                }
+                if (parent(successorNode) == node) {
+                    nodeToBalance = successorNode;
+                } else {
+                    nodeToBalance = parent(successorNode);
+                    int successorChild = right(successorNode);
+                    setLeft(nodeToBalance, successorChild);
+                    if (successorChild != NIL) {
+                        setParent(successorChild, nodeToBalance);
+                    }
+                    setRight(successorNode, right(node));
+                    setParent(right(node), successorNode);
+                }
+                setLeft(successorNode, left(node));
+                setParent(left(node), successorNode);
+                setRank(successorNode, rank(node));
+                setSize(successorNode, size(node));
+                setParent(successorNode, parent(node));
+                replaceChild(node, successorNode);
+            } else {
+                nodeToBalance = parent(node);
+                int child = left(node) != NIL ? left(node) : right(node);
+                if (child != NIL) {
+                    setParent(child, nodeToBalance);
+                }
+                replaceChild(node, child);
+            }
+            for (int currNode = nodeToBalance; currNode != NIL; currNode = parent(currNode)) {
+                setSize(currNode, size(currNode) - 1);
+            }
+            release(node);
+            nodes.putInt(SIZE_POS, size() - 1);
+
+            //rebalancing, with the same cases as WAVLTree.deletionCase
+            int rebalanceOperations = 0;
+            node = nodeToBalance;
+            int deleteCase = deletionCase(node);
+            while (deleteCase != 0) {
+                rebalanceOperations += RankRules.deletionCost(deleteCase);
+                switch (deleteCase) {
+                    case 1:
+                        demotion(node);
+                        node = parent(node);
+                        break;
+                    case 2:
+                        demotion(node);
+                        demotion(right(node));
+                        node = parent(node);
+                        break;
+                    case 3:
+                        demotion(node);
+                        demotion(left(node));
+                        node = parent(node);
+                        break;
+                    case 4:
+                        promotion(leftRotate(node));
+                        break;
+                    case 5:
+                        promotion(rightRotate(node));
+                        break;
+                    case 6:
+                        promotion(rightRotate(right(node)));
+                        promotion(leftRotate(node));
+                        break;
+                    case 7:
+                        promotion(leftRotate(left(node)));
+                        promotion(rightRotate(node));
+                        break;
+                }
+                deleteCase = deletionCase(node);
+            }
+            return rebalanceOperations;
+        }
+
+        /**
+         * public void force()
+         * <p>
+         * Writes all changes made so far to the underlying files.
+         */
+        public void force() {
+            nodes.force();
+            values.force();
+        }
+
+        /**
+         * public void close()
+         * <p>
+         * Closes the underlying files. The mappings stay valid until they are garbage collected,
+         * but the tree must not be used afterwards.
+         */
+        public void close() throws IOException {
+            try {
+                nodes.close();
+            } finally {
+                values.close();
+            }
+        }
+
+        /**
+         * private int rightRotate(int node)
+         * <p>
+         * node becomes the right child of its left child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int rightRotate(int node) {
+            int leftChild = left(node);
+            int middle = right(leftChild);
+            setSize(leftChild, size(node));
+            setSize(node, size(middle) + size(right(node)) + 1);
+            setLeft(node, middle);
+            if (middle != NIL) {
+                setParent(middle, node);
+            }
+            demotion(node);
+            setParent(leftChild, parent(node));
+            replaceChild(node, leftChild);
+            setRight(leftChild, node);
+            setParent(node, leftChild);
+            return leftChild;
+        }
+
+        /**
+         * private int leftRotate(int node)
+         * <p>
+         * node becomes the left child of its right child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int leftRotate(int node) {
+            int rightChild = right(node);
+            int middle = left(rightChild);
+            setSize(rightChild, size(node));
+            setSize(node, size(middle) + size(left(node)) + 1);
+            setRight(node, middle);
+            if (middle != NIL) {
+                setParent(middle, node);
+            }
+            demotion(node);
+            setParent(rightChild, parent(node));
+            replaceChild(node, rightChild);
+            setLeft(rightChild, node);
+            setParent(node, rightChild);
+            return rightChild;
+        }
+
+        private int rightDoubleRotate(int node) {
+            int toPromote = left(right(node));
+            rightRotate(right(node));
+            promotion(toPromote);
+            leftRotate(node);
+            return toPromote;
+        }
+
+        private int leftDoubleRotate(int node) {
+            int toPromote = right(left(node));
+            leftRotate(left(node));
+            promotion(toPromote);
+            rightRotate(node);
+            return toPromote;
+        }
+
+        private void promotion(int node) {
+            setRank(node, rank(node) + 1);
+        }
+
+        private void demotion(int node) {
+            setRank(node, rank(node) - 1);
+        }
+
+        private int getLeftRankDiff(int node) {
+            return node == NIL ? 1 : rank(node) - rank(left(node));
+        }
+
+        private int getRightRankDiff(int node) {
+            return node == NIL ? 1 : rank(node) - rank(right(node));
+        }
+
+        /**
+         * private int checkInsertCase(int node)
+         * <p>
+         * Same cases as WAVLTree.checkInsertCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int checkInsertCase(int node) {
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int j = RankRules.insertCase(leftDiff, rightDiff);
+            if (j == RankRules.DEEPER) {
+                j = leftDiff == 0 ? RankRules.insertRotationCase(true, getRightRankDiff(left(node)))
+                        : RankRules.insertRotationCase(false, getLeftRankDiff(right(node)));
+            }
+            return j;
+        }
+
+        /**
+         * private int deletionCase(int node)
+         * <p>
+         * Same cases as WAVLTree.deletionCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private int deletionCase(int node) {
+            if (node == NIL) {
+                return 0;
+            }
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int deleteCase = RankRules.deletionCase(left(node) == NIL && right(node) == NIL, leftDiff, rightDiff);
+            if (deleteCase == RankRules.DEEPER) {
+                int sibling = leftDiff == 3 ? right(node) : left(node);
+                deleteCase = RankRules.deletionSiblingCase(leftDiff == 3, getLeftRankDiff(sibling), getRightRankDiff(sibling));
+            }
+            return deleteCase;
+        }
+
+        private int treePosition(int key) {
+            int position = NIL;
+            int currNode = root();
+            while (currNode != NIL) {
+                position = currNode;
+                int currKey = key(currNode);
+                if (key == currKey) {
+                    return currNode;
+                }
+                currNode = key < currKey ? left(currNode) : right(currNode);
+            }
+            return position;
+        }
+
+        private void replaceChild(int node, int replacement) {
+            int parent = parent(node);
+            if (parent == NIL) {
+                setRoot(replacement);
+            } else if (left(parent) == node) {
+                setLeft(parent, replacement);
+            } else {
+                setRight(parent, replacement);
+            }
+        }
+
+        private int successor(int node) {
+            if (right(node) != NIL) {
+                node = right(node);
+                while (left(node) != NIL) {
+                    node = left(node);
+                }
+                return node;
+            }
+            int parent = parent(node);
+            while (parent != NIL && right(parent) == node) {
+                node = parent;
+                parent = parent(node);
+            }
+            return parent;
+        }
+
+        private int predecessor(int node) {
+            if (left(node) != NIL) {
+                node = left(node);
+                while (right(node) != NIL) {
+                    node = right(node);
+                }
+                return node;
+            }
+            int parent = parent(node);
+            while (parent != NIL && left(parent) == node) {
+                node = parent;
+                parent = parent(node);
+            }
+            return parent;
+        }
+
+        /**
+         * private int allocate(int k, String i)
+         * <p>
+         * Returns a fresh leaf record holding k and i, taken from the free list
+         * or, if it is empty, from the end of the node file (which grows as needed).
+         * <p>
+         * Complexity: O(1) amortized
+         */
+        private int allocate(int k, String i) {
+            int node = nodes.getInt(FREE_HEAD_POS);
+            if (node != NIL) {
+                nodes.putInt(FREE_HEAD_POS, parent(node));
+            } else {
+                node = nodes.getInt(NEXT_UNUSED_POS);
+                nodes.ensureCapacity(position(node + 1));
+                nodes.putInt(NEXT_UNUSED_POS, node + 1);
+            }
+            setKey(node, k);
+            setRank(node, 0);
+            setSize(node, 1);
+            setLeft(node, NIL);
+            setRight(node, NIL);
+            setParent(node, NIL);
+            setValueRef(node, storeValue(i));
+            return node;
+        }
+
+        private void release(int node) {
+            setParent(node, nodes.getInt(FREE_HEAD_POS));
+            nodes.putInt(FREE_HEAD_POS, node);
+        }
+
+        /**
+         * private long storeValue(String info)
+         * <p>
+         * Appends info to the value file and returns its offset, or -1 for null.
+         * A value never crosses a mapping chunk boundary.
+         */
+        private long storeValue(String info) {
+            if (info == null) {
+                return -1;
+            }
+            byte[] bytes = info.getBytes(StandardCharsets.UTF_8);
+            long length = 4 + (long) bytes.length;
+            if (length > MappedRegion.CHUNK_BYTES) {
+                throw new IllegalArgumentException("value too large: " + bytes.length + " bytes");
+            }
+            long offset = nodes.getLong(VALUE_END_POS);
+            if (offset / MappedRegion.CHUNK_BYTES != (offset + length - 1) / MappedRegion.CHUNK_BYTES) {
+                offset = (offset / MappedRegion.CHUNK_BYTES + 1) * MappedRegion.CHUNK_BYTES;
+            }
+            values.ensureCapacity(offset + length);
+            values.putInt(offset, bytes.length);
+            values.putBytes(offset + 4, bytes);
+            nodes.putLong(VALUE_END_POS, offset + length);
+            return offset;
+        }
+
+        private String value(int node) {
+            long offset = nodes.getLong(position(node) + VALUE);
+            if (offset < 0) {
+                return null;
+            }
+            byte[] bytes = new byte[values.getInt(offset)];
+            values.getBytes(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Accessors for the node records
+         * <p>
+         * Complexity: O(1)
+         */
+        private static long position(int node) {
+            return HEADER_BYTES + (long) node * NODE_BYTES;
+        }
+
+        private int root() {
+            return nodes.getInt(ROOT_POS);
+        }
+
+        private void setRoot(int node) {
+            nodes.putInt(ROOT_POS, node);
+        }
+
+        private int key(int node) {
+            return nodes.getInt(position(node) + KEY);
+        }
+
+        private void setKey(int node, int key) {
+            nodes.putInt(position(node) + KEY, key);
+        }
+
+        private int rank(int node) {
+            return nodes.getInt(position(node) + RANK);
+        }
+
+        private void setRank(int node, int rank) {
+            nodes.putInt(position(node) + RANK, rank);
+        }
+
+        private int size(int node) {
+            return nodes.getInt(position(node) + SIZE);
+        }
+
+        private void setSize(int node, int size) {
+            nodes.putInt(position(node) + SIZE, size);
+        }
+
+        private int left(int node) {
+            return nodes.getInt(position(node) + LEFT);
+        }
+
+        private void setLeft(int node, int left) {
+            nodes.putInt(position(node) + LEFT, left);
+        }
+
+        private int right(int node) {
+            return nodes.getInt(position(node) + RIGHT);
+        }
+
+        private void setRight(int node, int right) {
+            nodes.putInt(position(node) + RIGHT, right);
+        }
+
+        private int parent(int node) {
+            return nodes.getInt(position(node) + PARENT);
+        }
+
+        private void setParent(int node, int parent) {
+            nodes.putInt(position(node) + PARENT, parent);
+        }
+
+        private void setValueRef(int node, long offset) {
+            nodes.putLong(position(node) + VALUE, offset);
+        }
+
+        /**
+         * private static class MappedRegion
+         * <p>
+         * A growable file mapped into memory as a list of chunks of at most CHUNK_BYTES,
+         * so it can be larger than a single MappedByteBuffer allows. Callers make sure
+         * that no field crosses a chunk boundary.
+         */
+        private static final class MappedRegion implements Closeable {
+            static final long CHUNK_BYTES = 1L << 30;
+
+            private final FileChannel channel;
+            private final ArrayList<MappedByteBuffer> chunks = new ArrayList<>();
+            private long capacity;
+
+            MappedRegion(Path path, long initialCapacity) throws IOException {
+                this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                map(Math.max(channel.size(), initialCapacity));
+            }
+
+            /**
+             * Makes sure the first bytes bytes of the file are mapped, at least doubling the mapping when it grows.
+             */
+            void ensureCapacity(long bytes) {
+                if (bytes <= capacity) {
+                    return;
+                }
+                try {
+                    map(Math.max(bytes, capacity * 2));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            /**
+             * Maps the file up to length bytes, remapping the last chunk if it was only partially mapped.
+             */
+            private void map(long length) throws IOException {
+                int fullChunks = (int) (capacity / CHUNK_BYTES);
+                while (chunks.size() > fullChunks) {
+                    chunks.remove(chunks.size() - 1);
+                }
+                for (long pos = fullChunks * CHUNK_BYTES; pos < length; pos += CHUNK_BYTES) {
+                    chunks.add(channel.map(FileChannel.MapMode.READ_WRITE, pos, Math.min(CHUNK_BYTES, length - pos)));
+                }
+                capacity = length;
+            }
+
+            private MappedByteBuffer chunk(long pos) {
+                return chunks.get((int) (pos / CHUNK_BYTES));
+            }
+
+            int getInt(long pos) {
+                return chunk(pos).getInt((int) (pos % CHUNK_BYTES));
+            }
+
+            void putInt(long pos, int value) {
+                chunk(pos).putInt((int) (pos % CHUNK_BYTES), value);
+            }
+
+            long getLong(long pos) {
+                return chunk(pos).getLong((int) (pos % CHUNK_BYTES));
+            }
+
+            void putLong(long pos, long value) {
+                chunk(pos).putLong((int) (pos % CHUNK_BYTES), value);
+            }
+
+            void getBytes(long pos, byte[] dst) {
+                chunk(pos).get((int) (pos % CHUNK_BYTES), dst);
+            }
+
+            void putBytes(long pos, byte[] src) {
+                chunk(pos).put((int) (pos % CHUNK_BYTES), src);
+            }
+
+            void force() {
+                for (MappedByteBuffer chunk : chunks) {
+                    chunk.force();
+                }
+            }
+
+            public void close() throws IOException {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * public static class ConcurrentWAVLTree
+     * <p>
+     * A thread-safe WAVLTree. Writers (insert, delete and the batch versions) are serialized by
+     * a StampedLock. Point reads (search, containsKey, select, min, max, size) first run optimistically
+     * without taking the lock, which lets them scale across cores, and only use their result if no
+     * writer ran meanwhile. A read that loses to a writer waits for it to finish (spinning briefly, then
+     * yielding) and tries again, up to OPTIMISTIC_ATTEMPTS times; only then does it take the read lock.
+     * So reads are not lock-free: under a steady stream of writes a read still blocks behind them.
+     * <p>
+     * An optimistic read may walk the tree in the middle of a rotation, so it bounds the number of steps
+     * it takes (a valid WAVL tree is never deeper than 2log(n)) and never trusts what it saw, or an
+     * exception it hit, unless the lock's validation succeeds.
+     * <p>
+     * The wrapped tree is taken out of lazy sizes mode (see setLazySizes): optimistic selects read subtree
+     * sizes directly, and flushing pending sizes would change the tree under a shared read lock.
+     */
+    public static class ConcurrentWAVLTree {
+        private static final int MAX_DEPTH = 128;
+        private static final int OPTIMISTIC_ATTEMPTS = 4; // optimistic tries of a read before it takes the read lock
+        private static final int WRITER_SPINS = 64; // spins while a writer holds the lock, then the thread yields
+
+        private final WAVLTree tree;
+        private final StampedLock lock = new StampedLock();
+
+        //constructors (ConcurrentWAVLTree)
+        public ConcurrentWAVLTree(WAVLTree tree) {
+            this.tree = tree; // tree must not be used directly anymore
+            tree.setLazySizes(false); // sizes must be exact at the end of every write
+        }
+
+        public ConcurrentWAVLTree() {
+            this(new WAVLTree());
+        }
+
+        /**
+         * public String search(int k)
+         * <p>
+         * Same as WAVLTree.search, safe to call concurrently.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    try {
+                        WAVLNode node = findBounded(tree.root, k);
+                        String value = node == null ? null : node.getValue();
+                        if (lock.validate(stamp)) {
+                            return value;
+                        }
+                    } catch (RuntimeException e) {
+                        if (lock.validate(stamp)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.search(k);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public boolean containsKey(int k)
+         * <p>
+         * Same as WAVLTree.containsKey, safe to call concurrently.
+         * <p>
+         * Complexity O(logn)
+         */
+        public boolean containsKey(int k) {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    try {
+                        boolean found = findBounded(tree.root, k) != null;
+                        if (lock.validate(stamp)) {
+                            return found;
+                        }
+                    } catch (RuntimeException e) {
+                        if (lock.validate(stamp)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.containsKey(k);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Same as WAVLTree.select, safe to call concurrently.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String select(int i) {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    try {
+                        String value = selectBounded(tree.root, tree.size, i);
+                        if (lock.validate(stamp)) {
+                            return value;
+                        }
+                    } catch (RuntimeException e) {
+                        if (lock.validate(stamp)) {
+                            throw e;
+                        }
+                    }
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.select(i);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public String min()
+         * <p>
+         * Same as WAVLTree.min, safe to call concurrently.
+         * <p>
+         * Complexity O(1)
+         */
+        public String min() {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                WAVLNode node = tree.min;
+                String value = node == null ? null : node.getValue();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.min();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public String max()
+         * <p>
+         * Same as WAVLTree.max, safe to call concurrently.
+         * <p>
+         * Complexity O(1)
+         */
+        public String max() {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                WAVLNode node = tree.max;
+                String value = node == null ? null : node.getValue();
+                if (lock.validate(stamp)) {
+                    return value;
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.max();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public int size()
+         * <p>
+         * Same as WAVLTree.size, safe to call concurrently.
+         * <p>
+         * Complexity O(1)
+         */
+        public int size() {
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+                if (attempt > 0) {
+                    awaitWriter();
+                }
+                long stamp = lock.tryOptimisticRead();
+                int currSize = tree.size();
+                if (lock.validate(stamp)) {
+                    return currSize;
+                }
+            }
+            long stamp = lock.readLock();
+            try {
+                return tree.size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /**
+         * public int[] keysToArray() / public String[] infoToArray()
+         * <p>
+         * Same as in WAVLTree; these walk the whole tree, so they take the read lock right away.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            long stamp = lock.readLock();
+            try {
+                return tree.keysToArray();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        public String[] infoToArray() {
+            long stamp = lock.readLock();
+            try {
+                return tree.infoToArray();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        /**
+         * public int insert(int k, String i) / public int delete(int k)
+         * <p>
+         * Same as in WAVLTree, under the write lock.
+         * <p>
+         * Complexity O(logn)
+         */
+        public int insert(int k, String i) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.insert(k, i);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public int delete(int k) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.delete(k);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public int insertAll(int[] keys, String[] values) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.insertAll(keys, values);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        public int deleteAll(int[] keys) {
+            long stamp = lock.writeLock();
+            try {
+                return tree.deleteAll(keys);
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * private void awaitWriter()
+         * <p>
+         * Called between optimistic attempts of a read: spins while a writer holds the lock, for at most
+         * WRITER_SPINS spins, and yields the processor if the writer is still there.
+         */
+        private void awaitWriter() {
+            for (int spin = 0; spin < WRITER_SPINS && lock.isWriteLocked(); spin++) {
+                Thread.onSpinWait();
+            }
+            if (lock.isWriteLocked()) {
+                Thread.yield();
+            }
+        }
+
+        /**
+         * private static WAVLNode findBounded(WAVLNode node, int k)
+         * <p>
+         * Like findKey, but may be called on a tree that is being changed: gives up (returns null)
+         * after MAX_DEPTH steps instead of looping forever.
+         * <p>
+         * Complexity O(logn)
+         */
+        private static WAVLNode findBounded(WAVLNode node, int k) {
+            for (int depth = 0; node != null && node.isRealNode() && depth < MAX_DEPTH; depth++) {
+                int nodeKey = node.getKey();
+                if (nodeKey == k) {
+                    return node;
+                }
+                node = k < nodeKey ? node.getLeft() : node.getRight();
+            }
+            return null;
+        }
+
+        /**
+         * private static String selectBounded(WAVLNode node, int size, int i)
+         * <p>
+         * Like WAVLTree.select, but may be called on a tree that is being changed: gives up (returns null)
+         * after MAX_DEPTH steps instead of looping forever.
+         * <p>
+         * Complexity O(logn)
+         */
+        private static String selectBounded(WAVLNode node, int size, int i) {
+            if (size < i || i < 1) {
+                return "-1";
+            }
+            for (int depth = 0; node.isRealNode() && depth < MAX_DEPTH; depth++) {
+                int leftSize = node.getLeft().getSubtreeSize();
+                if (leftSize == i - 1) {
+                    return node.getValue();
+                }
+                if (leftSize > i - 1) {
+                    node = node.getLeft();
+                } else {
+                    i = i - leftSize - 1;
+                    node = node.getRight();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * public static class JournaledWAVLTree
+     * <p>
+     * A thread-safe WAVLTree whose inserts and deletes are recorded in an append-only journal file,
+     * so the tree can be rebuilt after a crash by replaying it, optionally on top of a snapshot
+     * (see WAVLTree.saveSnapshot and checkpoint). Each record is its length, the CRC32C of its body,
+     * and a body of the operation, the key and (for inserts) a length-prefixed UTF-8 info.
+     * Inserts and deletes that do not change the tree are not recorded.
+     * <p>
+     * The durability level decides when insert and delete return:
+     * SYNC writes and forces every record before returning; GROUP_COMMIT returns once a background
+     * thread has forced the record, and that thread waits up to the commit window after the first pending
+     * record so that the records of concurrent callers are forced together; ASYNC returns right away and
+     * the background thread forces the journal every commit window, so a crash may lose the last window.
+     * <p>
+     * Replaying a whole journal over a snapshot taken in the middle of it gives the same tree as replaying
+     * it from the start (for each key, what happened since its last recorded delete decides), so a crash
+     * between writing the snapshot and truncating the journal in checkpoint loses nothing.
+     * A torn record at the end of the journal (from a crash in the middle of a write) is dropped on replay.
+     */
+    public static class JournaledWAVLTree implements Closeable {
+        private static final int MAGIC = 0x5741564A; // "WAVJ"
+        private static final int VERSION = 1;
+        private static final int HEADER_BYTES = 8;
+        private static final int RECORD_HEADER_BYTES = 8;
+        private static final byte INSERT = 1;
+        private static final byte DELETE = 2;
+        private static final long DEFAULT_WINDOW_MICROS = 1000;
+
+        public enum Durability {
+            SYNC, GROUP_COMMIT, ASYNC
+        }
+
+        private final WAVLTree tree;
+        private final FileChannel channel;
+        private final Durability durability;
+        private final long windowNanos;
+        private final Thread flusher;
+        private final CRC32C crc = new CRC32C();
+        private ByteBuffer pending = ByteBuffer.allocate(1 << 16); // records not yet written
+        private ByteBuffer writing = ByteBuffer.allocate(1 << 16); // records being written by the flusher
+        private long appended; // records added to pending so far
+        private long durable; // records forced to disk so far
+        private boolean flushing;
+        private boolean closed;
+        private IOException failure;
+
+        //constructors (JournaledWAVLTree)
+        public JournaledWAVLTree(Path journal, Durability durability) throws IOException {
+            this(journal, null, durability, DEFAULT_WINDOW_MICROS);
+        }
+
+        /**
+         * public JournaledWAVLTree(Path journal, Path snapshot, Durability durability, long windowMicros)
+         * <p>
+         * Opens (or creates) the journal, loads the snapshot if snapshot is not null and the file exists
+         * (otherwise starts from an empty tree), and replays the journal on top of it.
+         * windowMicros is the commit window of GROUP_COMMIT and ASYNC; SYNC ignores it.
+         * <p>
+         * Complexity: O(size of the snapshot + m*log(n)) for a journal of m records
+         */
+        public JournaledWAVLTree(Path journal, Path snapshot, Durability durability, long windowMicros) throws IOException {
+            if (windowMicros < 0) {
+                throw new IllegalArgumentException("negative commit window");
+            }
+            this.durability = durability;
+            this.windowNanos = windowMicros * 1000;
+            this.tree = snapshot != null && Files.exists(snapshot) ? WAVLTree.loadSnapshot(snapshot) : new WAVLTree();
+            this.channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                if (isTornHeader()) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                    header.putInt(MAGIC).putInt(VERSION).flip();
+                    channel.truncate(0);
+                    writeFully(channel, header);
+                    channel.force(true);
+                    forceDirectory(journal.toAbsolutePath().getParent()); // the journal may be new
+                } else {
+                    replay(journal);
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            if (durability == Durability.SYNC) {
+                this.flusher = null;
+            } else {
+                this.flusher = new Thread(this::flushLoop, "WAVL journal flusher");
+                this.flusher.setDaemon(true);
+                this.flusher.start();
+            }
+        }
+
+        /**
+         * public String search(int k) / containsKey(int k) / select(int i) / size() / keysToArray() / infoToArray()
+         * <p>
+         * Same as in WAVLTree, safe to call concurrently.
+         */
+        public synchronized String search(int k) {
+            return tree.search(k);
+        }
+
+        public synchronized boolean containsKey(int k) {
+            return tree.containsKey(k);
+        }
+
+        public synchronized String select(int i) {
+            return tree.select(i);
+        }
+
+        public synchronized int size() {
+            return tree.size();
+        }
+
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        public synchronized int[] keysToArray() {
+            return tree.keysToArray();
+        }
+
+        public synchronized String[] infoToArray() {
+            return tree.infoToArray();
+        }
+
+        /**
+         * public int insert(int k, String i) / public int delete(int k)
+         * <p>
+         * Same as in WAVLTree, and records the change in the journal. Returns once the change is
+         * as durable as the durability level promises (for a call that changes nothing, once every change
+         * it could have observed is). Throws UncheckedIOException if the journal could not be written;
+         * after that the tree may hold changes that are not in the journal, and every later change fails.
+         * <p>
+         * Complexity O(logn), plus the wait for the disk
+         */
+        public int insert(int k, String i) {
+            long sequence;
+            int result;
+            synchronized (this) {
+                ensureWritable();
+                result = tree.insert(k, i);
+                sequence = result == -1 ? appended : append(INSERT, k, i);
+            }
+            awaitDurable(sequence);
+            return result;
+        }
+
+        public int delete(int k) {
+            long sequence;
+            int result;
+            synchronized (this) {
+                ensureWritable();
+                result = tree.delete(k);
+                sequence = result == -1 ? appended : append(DELETE, k, null);
+            }
+            awaitDurable(sequence);
+            return result;
+        }
+
+        /**
+         * public void sync()
+         * <p>
+         * Returns once every change made so far is forced to disk, whatever the durability level.
+         */
+        public synchronized void sync() throws IOException {
+            long sequence = appended;
+            waitFor(sequence);
+            if (durable < sequence) {
+                flushPending();
+            }
+        }
+
+        /**
+         * public void checkpoint(Path snapshot)
+         * <p>
+         * Saves the tree to snapshot (see WAVLTree.saveSnapshot) and empties the journal, so that the next
+         * start only loads the snapshot. Pass the same snapshot path to the constructor to reopen.
+         * The journal is truncated only after saveSnapshot returns, that is once the snapshot is renamed into
+         * place and its directory forced; if saving fails the journal is left as it was.
+         * Changes wait until the checkpoint is done.
+         * <p>
+         * Complexity: O(n)
+         */
+        public synchronized void checkpoint(Path snapshot) throws IOException {
+            ensureWritable();
+            sync();
+            tree.saveSnapshot(snapshot); // durable, directory entry included, when it returns
+            channel.truncate(HEADER_BYTES);
+            channel.force(true);
+        }
+
+        /**
+         * public void close()
+         * <p>
+         * Forces the remaining records to disk (also with ASYNC), stops the background thread
+         * and closes the journal. The tree cannot be changed afterwards.
+         */
+        public void close() throws IOException {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            if (flusher != null) {
+                boolean interrupted = false;
+                while (flusher.isAlive()) {
+                    try {
+                        flusher.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                try {
+                    if (failure == null && durable < appended) {
+                        flushPending();
+                    }
+                } finally {
+                    channel.close();
+                }
+            }
+        }
+
+        private void ensureWritable() {
+            if (closed) {
+                throw new IllegalStateException("journal is closed");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("journal could not be written", failure);
+            }
+        }
+
+        /**
+         * private long append(byte op, int k, String info)
+         * <p>
+         * #pre the caller holds this object's lock
+         * #post The record of the operation is added to pending (and, with SYNC, forced to disk).
+         * Returns the sequence number of the record.
+         * <p>
+         * Complexity: O(length of info)
+         */
+        private long append(byte op, int k, String info) {
+            int start = pending.position();
+            pending = ensureRoom(pending, RECORD_HEADER_BYTES + 5);
+            pending.position(start + RECORD_HEADER_BYTES);
+            pending.put(op).putInt(k);
+            if (op == INSERT) {
+                byte[] bytes = info == null ? null : info.getBytes(StandardCharsets.UTF_8);
+                pending = putVarint(pending, bytes == null ? 0 : bytes.length + 1L);
+                if (bytes != null) {
+                    pending = ensureRoom(pending, bytes.length);
+                    pending.put(bytes);
+                }
+            }
+            int end = pending.position();
+            ByteBuffer body = pending.duplicate();
+            body.position(start + RECORD_HEADER_BYTES).limit(end);
+            crc.reset();
+            crc.update(body);
+            pending.putInt(start, end - start - RECORD_HEADER_BYTES).putInt(start + 4, (int) crc.getValue());
+            appended++;
+            if (durability == Durability.SYNC) {
+                try {
+                    flushPending();
+                } catch (IOException e) {
+                    failure = e;
+                    throw new UncheckedIOException("journal could not be written", e);
+                }
+            } else if (start == 0) {
+                notifyAll(); // wakes the flusher
+            }
+            return appended;
+        }
+
+        /**
+         * private void flushPending()
+         * <p>
+         * #pre the caller holds this object's lock and the flusher is not writing
+         * #post pending is written and forced to disk.
+         */
+        private void flushPending() throws IOException {
+            pending.flip();
+            writeFully(channel, pending);
+            pending.clear();
+            channel.force(false);
+            durable = appended;
+        }
+
+        /**
+         * private void awaitDurable(long sequence)
+         * <p>
+         * Waits (with GROUP_COMMIT) until record sequence is forced to disk.
+         */
+        private void awaitDurable(long sequence) {
+            if (durability != Durability.GROUP_COMMIT) {
+                return;
+            }
+            synchronized (this) {
+                boolean interrupted = false;
+                while (durable < sequence && failure == null) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+                if (durable < sequence && failure != null) {
+                    throw new UncheckedIOException("journal could not be written", failure);
+                }
+            }
+        }
+
+        /**
+         * private void waitFor(long sequence)
+         * <p>
+         * #pre the caller holds this object's lock
+         * #post The flusher is idle, and has written record sequence unless it stopped.
+         */
+        private void waitFor(long sequence) throws IOException {
+            boolean interrupted = false;
+            while (flushing || (durable < sequence && flusher != null && flusher.isAlive() && failure == null)) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * private void flushLoop()
+         * <p>
+         * The background thread of GROUP_COMMIT and ASYNC: waits for a pending record, waits the commit
+         * window to collect more, then swaps the buffers and writes and forces the batch without holding
+         * the lock, so callers keep appending meanwhile. Stops after close, once nothing is pending,
+         * or on the first I/O error. With GROUP_COMMIT, callers wait on it, so it only stops after close
+         * once everything appended before is written.
+         */
+        private void flushLoop() {
+            while (true) {
+                boolean gather;
+                synchronized (this) {
+                    while (pending.position() == 0 && !closed) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            // only close stops the flusher, callers may be waiting for it
+                        }
+                    }
+                    if (pending.position() == 0) {
+                        return;
+                    }
+                    gather = !closed;
+                }
+                if (windowNanos > 0 && gather) {
+                    LockSupport.parkNanos(windowNanos);
+                }
+                long batchEnd;
+                synchronized (this) {
+                    ByteBuffer full = pending;
+                    pending = writing;
+                    writing = full;
+                    batchEnd = appended;
+                    flushing = true;
+                }
+                IOException error = null;
+                try {
+                    writing.flip();
+                    writeFully(channel, writing);
+                    channel.force(false);
+                } catch (IOException e) {
+                    error = e;
+                }
+                writing.clear();
+                synchronized (this) {
+                    flushing = false;
+                    if (error == null) {
+                        durable = batchEnd;
+                    } else {
+                        failure = error;
+                    }
+                    notifyAll();
+                    if (error != null) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * private boolean isTornHeader()
+         * <p>
+         * Returns true if the journal is shorter than its header and holds a prefix of it (nothing, if it was
+         * just created, or part of the header, if a crash interrupted writing it). Such a journal has no records,
+         * so the header is written again.
+         */
+        private boolean isTornHeader() throws IOException {
+            long length = channel.size();
+            if (length >= HEADER_BYTES) {
+                return false;
+            }
+            ByteBuffer expected = ByteBuffer.allocate(HEADER_BYTES);
+            expected.putInt(MAGIC).putInt(VERSION).flip();
+            ByteBuffer found = readFully(channel.position(0), ByteBuffer.allocate((int) length));
+            expected.limit((int) length);
+            return found.equals(expected);
+        }
+
+        /**
+         * private void replay(Path journal)
+         * <p>
+         * #pre the channel is open and not empty
+         * #post The records of the journal are applied to the tree in order. A torn or corrupt record ends
+         * the replay and the journal is truncated before it. Throws IOException if the file is not a journal.
+         * <p>
+         * Complexity: O(m*log(n)) for m records
+         */
+        private void replay(Path journal) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            buffer.limit(0);
+            channel.position(0);
+            buffer = fill(buffer, HEADER_BYTES);
+            if (buffer == null || buffer.getInt() != MAGIC) {
+                throw new IOException(journal + " is not a WAVL tree journal");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException(journal + " has journal version " + version + ", expected " + VERSION);
+            }
+            long position = HEADER_BYTES;
+            boolean lazy = tree.isLazySizes();
+            tree.setLazySizes(true); // sizes are recomputed once at the end instead of on every record
+            try {
+                while ((buffer = fill(buffer, RECORD_HEADER_BYTES)) != null) {
+                    int length = buffer.getInt(buffer.position());
+                    int checksum = buffer.getInt(buffer.position() + 4);
+                    if (length < 5 || length > channel.size() - position - RECORD_HEADER_BYTES) {
+                        break;
+                    }
+                    buffer = fill(buffer, RECORD_HEADER_BYTES + length);
+                    if (buffer == null) {
+                        break;
+                    }
+                    ByteBuffer body = buffer.duplicate();
+                    body.position(buffer.position() + RECORD_HEADER_BYTES).limit(buffer.position() + RECORD_HEADER_BYTES + length);
+                    crc.reset();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != checksum || !apply(body)) {
+                        break;
+                    }
+                    buffer.position(buffer.position() + RECORD_HEADER_BYTES + length);
+                    position += RECORD_HEADER_BYTES + length;
+                }
+            } finally {
+                tree.setLazySizes(lazy);
+            }
+            if (channel.size() > position) {
+                channel.truncate(position);
+                channel.force(true);
+            }
+            channel.position(position);
+        }
+
+        /**
+         * private boolean apply(ByteBuffer body)
+         * <p>
+         * Applies one journal record to the tree. Returns false if the record is malformed.
+         */
+        private boolean apply(ByteBuffer body) {
+            try {
+                byte op = body.get();
+                int k = body.getInt();
+                if (op == DELETE && !body.hasRemaining()) {
+                    tree.delete(k);
+                    return true;
+                }
+                if (op != INSERT) {
+                    return false;
+                }
+                long infoLength = getVarint(body);
+                if (infoLength == 0 ? body.hasRemaining() : infoLength - 1 != body.remaining()) {
+                    return false;
+                }
+                String info = infoLength == 0 ? null
+                        : new String(body.array(), body.position(), (int) (infoLength - 1), StandardCharsets.UTF_8);
+                tree.insert(k, info);
+                return true;
+            } catch (RuntimeException e) {
+                return false;
+            }
+        }
+
+        /**
+         * private ByteBuffer fill(ByteBuffer buffer, int bytes)
+         * <p>
+         * Makes at least bytes bytes readable in buffer, reading more of the journal (into a larger buffer
+         * if needed). Returns the buffer, or null if the journal ends first.
+         */
+        private ByteBuffer fill(ByteBuffer buffer, int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return buffer;
+            }
+            if (buffer.capacity() < bytes) {
+                buffer = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, bytes)).put(buffer);
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    return null;
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * public static class ShardedWAVLTree
+     * <p>
+     * A thread-safe WAVLTree split by key range into shards, each an independent tree with its own
+     * StampedLock, so writers to different shards run in parallel. Shard j holds the keys from its lower
+     * bound up to the next shard's lower bound; the first shard starts at Integer.MIN_VALUE.
+     * <p>
+     * Point operations lock only their shard. Queries over the whole tree (size, select, min, max) first
+     * read every shard optimistically, as ConcurrentWAVLTree does, and only take the read locks of all shards
+     * (in key order) if a writer interfered; select finds its shard by prefix sums of the shard sizes.
+     * So these answers are exact at one moment, as if the tree were a single one.
+     * <p>
+     * The shards are split and merged automatically. Whenever a shard grows past maxShardSize, or takes
+     * HOT_WINDOW writes since the last check, the writer that noticed checks all shards: a shard is split
+     * at its median key if it is oversized or took more than HOT_SHARE times its fair share of the writes
+     * since the last check (while there are fewer than maxShards), and two neighbouring shards that each took
+     * less than 1 / HOT_SHARE of their fair share are merged if together they hold less than maxShardSize / 4 items.
+     * The halves of a split share the writes of the shard they replace, and the fair share is recomputed
+     * for the new number of shards before merging, so a split is never undone by the same check.
+     * A split or merge locks only the shards it replaces; an operation that finds its shard retired
+     * starts over with the new layout.
+     */
+    public static class ShardedWAVLTree {
+        private static final int DEFAULT_SHARDS = 16;
+        private static final int DEFAULT_MAX_SHARD_SIZE = 1 << 20;
+        private static final int DEFAULT_MAX_SHARDS = 256;
+        private static final int HOT_WINDOW = 1 << 16;
+        private static final int HOT_SHARE = 2;
+        private static final int MIN_SPLIT_SIZE = 1024; // smaller hot shards are not worth splitting
+
+        private final int maxShardSize;
+        private final int maxShards;
+        private final ReentrantLock maintenance = new ReentrantLock();
+        private volatile Layout layout;
+
+        /**
+         * private static final class Shard
+         * <p>
+         * One range of keys. retired is set, under the write lock, once the shard is replaced by a split
+         * or merge. writes counts the changes made to it, checkedWrites its value at the last check.
+         */
+        private static final class Shard {
+            private final int low;
+            private final WAVLTree tree;
+            private final StampedLock lock = new StampedLock();
+            private boolean retired;
+            private volatile long writes;
+            private long checkedWrites;
+
+            private Shard(int low, WAVLTree tree) {
+                this.low = low;
+                this.tree = tree;
+            }
+        }
+
+        /**
+         * private static final class Layout
+         * <p>
+         * The shards in key order with their lower bounds. Never changed; splits and merges publish a new one.
+         */
+        private static final class Layout {
+            private final int[] lows;
+            private final Shard[] shards;
+
+            private Layout(Shard[] shards) {
+                this.shards = shards;
+                this.lows = new int[shards.length];
+                for (int j = 0; j < shards.length; j++) {
+                    lows[j] = shards[j].low;
+                }
+            }
+
+            /**
+             * private Shard shardFor(int k)
+             * <p>
+             * Returns the shard whose range holds k, by binary search over the lower bounds.
+             * <p>
+             * Complexity: O(log(number of shards))
+             */
+            private Shard shardFor(int k) {
+                int lo = 0;
+                int hi = lows.length - 1;
+                while (lo < hi) {
+                    int mid = (lo + hi + 1) >>> 1;
+                    if (lows[mid] <= k) {
+                        lo = mid;
+                    } else {
+                        hi = mid - 1;
+                    }
+                }
+                return shards[lo];
+            }
+        }
+
+        /**
+         * private interface ShardQuery<T>
+         * <p>
+         * A query over all shards of a layout, see readAll. It may run while the shards are being changed,
+         * so it has to stay bounded on a broken tree.
+         */
+        private interface ShardQuery<T> {
+            T run(Shard[] shards);
+        }
+
+        //constructors (ShardedWAVLTree)
+        public ShardedWAVLTree() {
+            this(DEFAULT_SHARDS, DEFAULT_MAX_SHARD_SIZE, DEFAULT_MAX_SHARDS);
+        }
+
+        /**
+         * public ShardedWAVLTree(int shards, int maxShardSize, int maxShards)
+         * <p>
+         * Starts with shards empty shards of equal key ranges.
+         */
+        public ShardedWAVLTree(int shards, int maxShardSize, int maxShards) {
+            if (shards < 1 || maxShards < shards || maxShardSize < 2) {
+                throw new IllegalArgumentException("need 1 <= shards <= maxShards and maxShardSize >= 2");
+            }
+            this.maxShardSize = maxShardSize;
+            this.maxShards = maxShards;
+            Shard[] initial = new Shard[shards];
+            long width = (1L << 32) / shards;
+            for (int j = 0; j < shards; j++) {
+                initial[j] = new Shard((int) (Integer.MIN_VALUE + j * width), new WAVLTree());
+            }
+            this.layout = new Layout(initial);
+        }
+
+        /**
+         * public int getShardCount()
+         * <p>
+         * Returns the current number of shards.
+         */
+        public int getShardCount() {
+            return layout.shards.length;
+        }
+
+        /**
+         * public String search(int k) / public boolean containsKey(int k)
+         * <p>
+         * Same as in WAVLTree, safe to call concurrently. Runs optimistically on k's shard
+         * and falls back to its read lock.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            while (true) {
+                Shard shard = layout.shardFor(k);
+                long stamp = shard.lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    try {
+                        WAVLNode node = ConcurrentWAVLTree.findBounded(shard.tree.root, k);
+                        String value = node == null ? null : node.getValue();
+                        boolean retired = shard.retired;
+                        if (shard.lock.validate(stamp)) {
+                            if (retired) {
+                                continue;
+                            }
+                            return value;
+                        }
+                    } catch (RuntimeException e) {
+                        if (shard.lock.validate(stamp) && !shard.retired) {
+                            throw e;
+                        }
+                    }
+                }
+                stamp = shard.lock.readLock();
+                try {
+                    if (!shard.retired) {
+                        return shard.tree.search(k);
+                    }
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+        }
+
+        public boolean containsKey(int k) {
+            while (true) {
+                Shard shard = layout.shardFor(k);
+                long stamp = shard.lock.readLock();
+                try {
+                    if (!shard.retired) {
+                        return shard.tree.containsKey(k);
+                    }
+                } finally {
+                    shard.lock.unlockRead(stamp);
+                }
+            }
+        }
+
+        /**
+         * public int insert(int k, String i) / public int delete(int k)
+         * <p>
+         * Same as in WAVLTree, under the write lock of k's shard only. May then split or merge shards.
+         * <p>
+         * Complexity O(logn), plus O(number of shards) when the shards are checked
+         */
+        public int insert(int k, String i) {
+            while (true) {
+                Shard shard = layout.shardFor(k);
+                int result;
+                boolean check;
+                long stamp = shard.lock.writeLock();
+                try {
+                    if (shard.retired) {
+                        continue;
+                    }
+                    result = shard.tree.insert(k, i);
+                    check = countWrite(shard);
+                } finally {
+                    shard.lock.unlockWrite(stamp);
+                }
+                if (check) {
+                    rebalanceShards();
+                }
+                return result;
+            }
+        }
+
+        public int delete(int k) {
+            while (true) {
+                Shard shard = layout.shardFor(k);
+                int result;
+                boolean check;
+                long stamp = shard.lock.writeLock();
+                try {
+                    if (shard.retired) {
+                        continue;
+                    }
+                    result = shard.tree.delete(k);
+                    check = countWrite(shard);
+                } finally {
+                    shard.lock.unlockWrite(stamp);
+                }
+                if (check) {
+                    rebalanceShards();
+                }
+                return result;
+            }
+        }
+
+        /**
+         * public int size()
+         * <p>
+         * Returns the number of items in all shards at one moment.
+         * <p>
+         * Complexity O(number of shards)
+         */
+        public int size() {
+            return readAll(shards -> {
+                int total = 0;
+                for (Shard shard : shards) {
+                    total += shard.tree.size;
+                }
+                return total;
+            });
+        }
+
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Same as WAVLTree.select over the whole key space: walks the prefix sums of the shard sizes to the
+         * shard holding the i'th smallest key, then selects inside it.
+         * <p>
+         * Complexity O(number of shards + logn)
+         */
+        public String select(int i) {
+            return readAll(shards -> {
+                int before = 0;
+                for (Shard shard : shards) {
+                    int shardSize = shard.tree.size;
+                    if (i - before <= shardSize) {
+                        return i <= before ? "-1" : ConcurrentWAVLTree.selectBounded(shard.tree.rootOrVirtual(), shardSize, i - before);
+                    }
+                    before += shardSize;
+                }
+                return "-1";
+            });
+        }
+
+        /**
+         * public String min() / public String max()
+         * <p>
+         * Same as in WAVLTree: the info of the first item of the first non-empty shard / the last item
+         * of the last non-empty shard.
+         * <p>
+         * Complexity O(number of shards)
+         */
+        public String min() {
+            return readAll(shards -> {
+                for (Shard shard : shards) {
+                    WAVLNode node = shard.tree.min;
+                    if (node != null) {
+                        return node.getValue();
+                    }
+                }
+                return null;
+            });
+        }
+
+        public String max() {
+            return readAll(shards -> {
+                for (int j = shards.length - 1; j >= 0; j--) {
+                    WAVLNode node = shards[j].tree.max;
+                    if (node != null) {
+                        return node.getValue();
+                    }
+                }
+                return null;
+            });
+        }
+
+        /**
+         * public int[] keysToArray() / public String[] infoToArray()
+         * <p>
+         * Same as in WAVLTree: the shards' arrays one after the other, read under the read locks of all shards.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            return lockAll(shards -> {
+                int total = 0;
+                for (Shard shard : shards) {
+                    total += shard.tree.size();
+                }
+                int[] arr = new int[total];
+                int offset = 0;
+                for (Shard shard : shards) {
+                    int[] part = shard.tree.keysToArray();
+                    System.arraycopy(part, 0, arr, offset, part.length);
+                    offset += part.length;
+                }
+                return arr;
+            });
+        }
+
+        public String[] infoToArray() {
+            return lockAll(shards -> {
+                int total = 0;
+                for (Shard shard : shards) {
+                    total += shard.tree.size();
+                }
+                String[] arr = new String[total];
+                int offset = 0;
+                for (Shard shard : shards) {
+                    String[] part = shard.tree.infoToArray();
+                    System.arraycopy(part, 0, arr, offset, part.length);
+                    offset += part.length;
+                }
+                return arr;
+            });
+        }
+
+        /**
+         * private <T> T readAll(ShardQuery<T> query)
+         * <p>
+         * Runs query over all shards with optimistic reads and returns its result if no shard was
+         * written to, split or merged meanwhile; otherwise runs it again with lockAll.
+         * <p>
+         * Complexity O(number of shards) plus the query
+         */
+        private <T> T readAll(ShardQuery<T> query) {
+            Layout current = layout;
+            Shard[] shards = current.shards;
+            long[] stamps = new long[shards.length];
+            for (int j = 0; j < shards.length; j++) {
+                stamps[j] = shards[j].lock.tryOptimisticRead();
+                if (stamps[j] == 0) {
+                    return lockAll(query);
+                }
+            }
+            T result;
+            try {
+                result = query.run(shards);
+            } catch (RuntimeException e) {
+                if (validateAll(shards, stamps) && current == layout) {
+                    throw e;
+                }
+                return lockAll(query);
+            }
+            if (validateAll(shards, stamps) && current == layout) {
+                return result;
+            }
+            return lockAll(query);
+        }
+
+        private static boolean validateAll(Shard[] shards, long[] stamps) {
+            for (int j = 0; j < shards.length; j++) {
+                if (!shards[j].lock.validate(stamps[j]) || shards[j].retired) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * private <T> T lockAll(ShardQuery<T> query)
+         * <p>
+         * Runs query with the read locks of all shards, taken in key order (as splits and merges take
+         * their write locks, so they cannot deadlock). Starts over if a shard turns out to be retired.
+         */
+        private <T> T lockAll(ShardQuery<T> query) {
+            while (true) {
+                Shard[] shards = layout.shards;
+                long[] stamps = new long[shards.length];
+                int locked = 0;
+                try {
+                    boolean retired = false;
+                    for (; locked < shards.length; locked++) {
+                        stamps[locked] = shards[locked].lock.readLock();
+                        retired |= shards[locked].retired;
+                    }
+                    if (!retired) {
+                        return query.run(shards);
+                    }
+                } finally {
+                    for (int j = 0; j < locked; j++) {
+                        shards[j].lock.unlockRead(stamps[j]);
+                    }
+                }
+            }
+        }
+
+        /**
+         * private boolean countWrite(Shard shard)
+         * <p>
+         * #pre the caller holds shard's write lock
+         * #post Counts one write to shard. Returns true if the shards should be checked for a split or merge.
+         */
+        private boolean countWrite(Shard shard) {
+            shard.writes++;
+            return shard.tree.size() > maxShardSize || shard.writes - shard.checkedWrites >= HOT_WINDOW;
+        }
+
+        /**
+         * private void rebalanceShards()
+         * <p>
+         * Checks all shards, splitting oversized or hot ones and merging small cold neighbours
+         * (see the class comment). Only one thread checks at a time; others skip the check.
+         * The sizes and counters are read without locks, which is enough for this decision.
+         * <p>
+         * Complexity O(number of shards * logn)
+         */
+        private void rebalanceShards() {
+            if (!maintenance.tryLock()) {
+                return;
+            }
+            try {
+                Shard[] shards = layout.shards;
+                long total = 0;
+                for (Shard shard : shards) {
+                    total += shard.writes - shard.checkedWrites;
+                }
+                long fairShare = Math.max(1, total / shards.length);
+                for (Shard shard : shards) {
+                    long recent = shard.writes - shard.checkedWrites;
+                    int shardSize = shard.tree.size;
+                    boolean oversized = shardSize > maxShardSize;
+                    boolean hot = recent > HOT_SHARE * fairShare && shardSize >= MIN_SPLIT_SIZE;
+                    if ((oversized || hot) && layout.shards.length < maxShards) {
+                        splitShard(shard);
+                    }
+                }
+                shards = layout.shards;
+                fairShare = Math.max(1, total / shards.length);
+                for (int j = 0; j + 1 < shards.length; ) {
+                    Shard left = shards[j];
+                    Shard right = shards[j + 1];
+                    boolean cold = (left.writes - left.checkedWrites) * HOT_SHARE < fairShare
+                            && (right.writes - right.checkedWrites) * HOT_SHARE < fairShare;
+                    if (cold && (long) left.tree.size + right.tree.size < maxShardSize / 4) {
+                        mergeShards(left, right);
+                        shards = layout.shards;
+                    } else {
+                        j++;
+                    }
+                }
+                for (Shard shard : layout.shards) {
+                    shard.checkedWrites = shard.writes;
+                }
+            } finally {
+                maintenance.unlock();
+            }
+        }
+
+        /**
+         * private void splitShard(Shard shard)
+         * <p>
+         * #pre the caller holds the maintenance lock
+         * #post shard is replaced by two shards split at its median key (if it still holds at least 2 items),
+         * which share the writes it took since the last check.
+         * <p>
+         * Complexity O(logn + number of shards)
+         */
+        private void splitShard(Shard shard) {
+            long stamp = shard.lock.writeLock();
+            try {
+                if (shard.retired || shard.tree.size() < 2) {
+                    return;
+                }
+                int median = shard.tree.selectNode(shard.tree.size() / 2 + 1).getKey();
+                WAVLTree[] parts = shard.tree.split(median);
+                Shard lower = new Shard(shard.low, parts[0]);
+                Shard upper = new Shard(median, parts[1]);
+                long recent = shard.writes - shard.checkedWrites;
+                lower.writes = recent / 2; // the halves inherit the writes, so this check does not merge them back
+                upper.writes = recent - recent / 2;
+                replace(shard, shard, lower, upper);
+            } finally {
+                shard.lock.unlockWrite(stamp);
+            }
+        }
+
+        /**
+         * private void mergeShards(Shard left, Shard right)
+         * <p>
+         * #pre the caller holds the maintenance lock; left and right are neighbours in the layout
+         * #post left and right are replaced by one shard holding the items of both.
+         * <p>
+         * Complexity O(logn + number of shards)
+         */
+        private void mergeShards(Shard left, Shard right) {
+            long leftStamp = left.lock.writeLock();
+            long rightStamp = right.lock.writeLock();
+            try {
+                left.tree.flushSizes();
+                right.tree.flushSizes();
+                WAVLTree merged = fromRoot(concat(left.tree.rootOrVirtual(), right.tree.rootOrVirtual()));
+                left.tree.rebuild(null, null, 0);
+                right.tree.rebuild(null, null, 0);
+                Shard shard = new Shard(left.low, merged);
+                shard.writes = left.writes - left.checkedWrites + right.writes - right.checkedWrites;
+                replace(left, right, shard);
+            } finally {
+                right.lock.unlockWrite(rightStamp);
+                left.lock.unlockWrite(leftStamp);
+            }
+        }
+
+        /**
+         * private void replace(Shard first, Shard last, Shard... replacements)
+         * <p>
+         * #pre the caller holds the maintenance lock and the write locks of the shards from first to last
+         * #post Those shards are retired and a layout with replacements in their place is published.
+         * Operations waiting for their locks then see them retired and start over with the new layout.
+         */
+        private void replace(Shard first, Shard last, Shard... replacements) {
+            Shard[] old = layout.shards;
+            int from = 0;
+            while (old[from] != first) {
+                from++;
+            }
+            int to = from;
+            while (old[to] != last) {
+                to++;
+            }
+            Shard[] shards = new Shard[old.length - (to - from + 1) + replacements.length];
+            System.arraycopy(old, 0, shards, 0, from);
+            System.arraycopy(replacements, 0, shards, from, replacements.length);
+            System.arraycopy(old, to + 1, shards, from + replacements.length, old.length - to - 1);
+            for (int j = from; j <= to; j++) {
+                old[j].retired = true;
+            }
+            layout = new Layout(shards);
+        }
+    }
+
+    /**
+     * public static class CombiningWAVLTree
+     * <p>
+     * A thread-safe WAVLTree using flat combining: a caller publishes its insert, delete or search as a request
+     * and the thread that holds the combiner lock applies every published request in one pass over the tree,
+     * sorted by key so that each request is found from the node of the previous one (as insertAll does)
+     * instead of from the root, and subtree sizes are fixed once per pass. The other callers just wait for
+     * their results, so the tree is touched by one thread at a time without every caller taking a lock.
+     * A combiner makes at most MAX_PASSES passes and then hands the lock over to the newest waiter,
+     * so under steady load no caller is kept combining for others indefinitely.
+     * <p>
+     * Requests are pushed on a lock-free stack rather than kept in per-thread slots, so any number of
+     * short-lived (for example virtual) threads can use the tree without registering. Waiting uses
+     * ReentrantLock and LockSupport.park, which do not pin a virtual thread to its carrier.
+     * All requests of one pass are pending at the same time, so applying them in key order is a valid order.
+     */
+    public static class CombiningWAVLTree {
+        private static final int SEARCH = 0;
+        private static final int INSERT = 1;
+        private static final int DELETE = 2;
+        private static final int MAX_PASSES = 4; // a combiner then hands over, so no caller combines for long
+
+        private final WAVLTree tree;
+        private final ReentrantLock combiner = new ReentrantLock();
+        private final AtomicReference<Request> pending = new AtomicReference<>();
+
+        /**
+         * private static final class Request
+         * <p>
+         * One published operation, linked to the requests published before it. done is set after result
+         * (or value, for a search, or failure, if the pass threw) is, so a waiter that sees done also sees the result.
+         */
+        private static final class Request {
+            private final int op;
+            private final int key;
+            private final String info;
+            private final Thread thread = Thread.currentThread();
+            private Request next;
+            private int result;
+            private String value;
+            private Throwable failure;
+            private volatile boolean done;
+
+            private Request(int op, int key, String info) {
+                this.op = op;
+                this.key = key;
+                this.info = info;
+            }
+        }
+
+        //constructors (CombiningWAVLTree)
+        public CombiningWAVLTree(WAVLTree tree) {
+            this.tree = tree; // tree must not be used directly anymore
+        }
+
+        public CombiningWAVLTree() {
+            this(new WAVLTree());
+        }
+
+        /**
+         * public String search(int k) / public int insert(int k, String i) / public int delete(int k)
+         * <p>
+         * Same as in WAVLTree, safe to call concurrently.
+         * <p>
+         * Complexity O(logn), amortized over a pass as in insertAll
+         */
+        public String search(int k) {
+            return submit(new Request(SEARCH, k, null)).value;
+        }
+
+        public int insert(int k, String i) {
+            return submit(new Request(INSERT, k, i)).result;
+        }
+
+        public int delete(int k) {
+            return submit(new Request(DELETE, k, null)).result;
+        }
+
+        /**
+         * public int size() / select(int i) / keysToArray() / infoToArray()
+         * <p>
+         * Same as in WAVLTree, run by the caller while it holds the combiner lock.
+         */
+        public int size() {
+            combiner.lock();
+            try {
+                return tree.size();
+            } finally {
+                releaseCombiner();
+            }
+        }
+
+        public boolean empty() {
+            return size() == 0;
+        }
+
+        public String select(int i) {
+            combiner.lock();
+            try {
+                return tree.select(i);
+            } finally {
+                releaseCombiner();
+            }
+        }
+
+        public int[] keysToArray() {
+            combiner.lock();
+            try {
+                return tree.keysToArray();
+            } finally {
+                releaseCombiner();
+            }
+        }
+
+        public String[] infoToArray() {
+            combiner.lock();
+            try {
+                return tree.infoToArray();
+            } finally {
+                releaseCombiner();
+            }
+        }
+
+        /**
+         * private Request submit(Request request)
+         * <p>
+         * Publishes request and waits until some combiner, possibly this thread, has applied it.
+         * If the pass that applied it threw, the same exception is thrown here, in every waiter of that pass
+         * (a checked one, which apply does not throw, would be wrapped in a RuntimeException).
+         */
+        private Request submit(Request request) {
+            Request head;
+            do {
+                head = pending.get();
+                request.next = head;
+            } while (!pending.compareAndSet(head, request));
+            while (!request.done) {
+                if (combiner.tryLock()) {
+                    try {
+                        combine();
+                    } finally {
+                        releaseCombiner();
+                    }
+                } else {
+                    LockSupport.park(this);
+                }
+            }
+            if (request.failure instanceof RuntimeException) {
+                throw (RuntimeException) request.failure;
+            }
+            if (request.failure instanceof Error) {
+                throw (Error) request.failure;
+            }
+            if (request.failure != null) {
+                throw new RuntimeException(request.failure);
+            }
+            return request;
+        }
+
+        /**
+         * private void releaseCombiner()
+         * <p>
+         * #pre the caller holds the combiner lock
+         * #post The lock is released. If requests were published after the last pass, the thread of the newest
+         * one is woken to combine them: it may have found the lock taken and parked just before the release.
+         */
+        private void releaseCombiner() {
+            combiner.unlock();
+            Request head = pending.get();
+            if (head != null) {
+                LockSupport.unpark(head.thread);
+            }
+        }
+
+        /**
+         * private void combine()
+         * <p>
+         * #pre the caller holds the combiner lock
+         * #post The requests published so far are applied and their waiters woken, in at most MAX_PASSES passes
+         * (the first one holds the caller's own request). Requests published after the last pass are left for
+         * the next combiner, which releaseCombiner wakes.
+         * If applying a pass throws, every request of that pass gets the exception as its failure (the tree may
+         * hold some of the pass's changes) and combining goes on with the next pass.
+         * <p>
+         * Complexity: O(m logm + m log(n/m + 1)) amortized for m requests, as in insertAll
+         */
+        private void combine() {
+            for (int pass = 0; pass < MAX_PASSES; pass++) {
+                Request batch = pending.getAndSet(null);
+                if (batch == null) {
+                    return;
+                }
+                int count = 0;
+                for (Request r = batch; r != null; r = r.next) {
+                    count++;
+                }
+                Request[] requests = new Request[count];
+                int[] keys = new int[count];
+                count = 0;
+                for (Request r = batch; r != null; r = r.next) {
+                    requests[count] = r;
+                    keys[count++] = r.key;
+                }
+                long[] order = sortedOrder(keys);
+                try {
+                    apply(requests, order);
+                } catch (Throwable t) {
+                    for (Request r : requests) {
+                        r.failure = t;
+                    }
+                } finally {
+                    for (Request r : requests) {
+                        r.done = true;
+                        if (r.thread != Thread.currentThread()) {
+                            LockSupport.unpark(r.thread);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * private void apply(Request[] requests, long[] order)
+         * <p>
+         * #pre the caller holds the combiner lock; order is sortedOrder of the requests' keys
+         * #post The requests are applied in key order, each looked up from the node of the previous one.
+         * Subtree sizes are fixed once, at the end, for the nodes the pass touched.
+         */
+        private void apply(Request[] requests, long[] order) {
+            boolean ownBatch = tree.staleSizes == null;
+            if (ownBatch) {
+                tree.staleSizes = new ArrayList<>();
+            }
+            try {
+                WAVLNode finger = null;
+                for (long entry : order) {
+                    Request r = requests[(int) entry];
+                    int k = r.key;
+                    if (tree.root == null) {
+                        if (r.op == INSERT) {
+                            r.result = tree.insert(k, r.info);
+                            finger = tree.root;
+                        } else {
+                            r.result = -1;
+                        }
+                        continue;
+                    }
+                    WAVLNode start = finger == null ? tree.root : climbTowards(finger, k);
+                    if (r.op == INSERT) {
+                        WAVLNode newNode = new WAVLNode(k, r.info);
+                        if (tree.treeInsert(start, newNode) == -1) {
+                            r.result = -1;
+                        } else {
+                            r.result = tree.insertFixup(newNode);
+                            finger = newNode;
+                        }
+                        continue;
+                    }
+                    WAVLNode node = r.op == SEARCH ? tree.searchKey(start, k) : findKey(start, k);
+                    if (r.op == SEARCH) {
+                        r.value = node == null ? null : node.getValue();
+                        finger = node == null ? finger : node;
+                    } else if (node == null) {
+                        r.result = -1;
+                    } else {
+                        WAVLNode next = tree.successor(node);
+                        r.result = tree.deleteNode(node);
+                        finger = next;
+                    }
+                }
+            } finally {
+                if (ownBatch) {
+                    tree.finishBatch();
+                }
+            }
+        }
+    }
+
+    /**
+     * public static final class FrozenWAVLTree
+     * <p>
+     * An immutable copy of a WAVLTree (see WAVLTree.freeze) for trees that are built once and then only read.
+     * The keys are kept in one int[] in Eytzinger order: slot 1 is the root and the children of slot j are
+     * slots 2j and 2j+1, filled in order so that the layout is a complete binary search tree. The infos are in
+     * a parallel array, and so is the in-order position (rank) of every slot, which select searches like a key.
+     * <p>
+     * A lookup is a loop over the array indices without loading any node objects or virtual leaves.
+     * Each step picks the child with an arithmetic (2j or 2j+1) instead of a branch, and the first levels of
+     * the tree share a few cache lines. Java has no prefetch instruction; the next slots a search may touch
+     * are adjacent, which hardware prefetchers handle well.
+     * The slot where a search for the ceiling (or floor) of k ends is read off the bits of the index it stopped at:
+     * every 1 bit is a step to the right, so the last left (right) step is found by stripping the trailing 1s (0s).
+     */
+    public static final class FrozenWAVLTree {
+        private final int n;
+        private final int[] keys; // keys[0] is unused
+        private final String[] values;
+        private final int[] ranks;
+
+        private FrozenWAVLTree(WAVLTree tree) {
+            this.n = tree.size();
+            this.keys = new int[n + 1];
+            this.values = new String[n + 1];
+            this.ranks = new int[n + 1];
+            WAVLNode node = tree.min;
+            int slot = first();
+            for (int rank = 1; rank <= n; rank++) {
+                keys[slot] = node.getKey();
+                values[slot] = node.getValue();
+                ranks[slot] = rank;
+                node = tree.successor(node);
+                slot = next(slot);
+            }
+        }
+
+        public boolean empty() {
+            return n == 0;
+        }
+
+        public int size() {
+            return n;
+        }
+
+        /**
+         * public String search(int k) / public boolean containsKey(int k)
+         * <p>
+         * Same as in WAVLTree.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            int slot = ceilingSlot(k);
+            return slot != 0 && keys[slot] == k ? values[slot] : null;
+        }
+
+        public boolean containsKey(int k) {
+            int slot = ceilingSlot(k);
+            return slot != 0 && keys[slot] == k;
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Same as WAVLTree.select: the info of the i'th smallest key, or "-1" if there is none.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String select(int i) {
+            if (i < 1 || i > n) {
+                return "-1";
+            }
+            int slot = 1;
+            while (ranks[slot] != i) {
+                slot = 2 * slot + (ranks[slot] < i ? 1 : 0);
+            }
+            return values[slot];
+        }
+
+        /**
+         * public String min() / public String max()
+         * <p>
+         * Same as in WAVLTree.
+         * <p>
+         * Complexity O(logn)
+         */
+        public String min() {
+            return n == 0 ? null : values[first()];
+        }
+
+        public String max() {
+            if (n == 0) {
+                return null;
+            }
+            int slot = 1;
+            while (2 * slot + 1 <= n) {
+                slot = 2 * slot + 1;
+            }
+            return values[slot];
+        }
+
+        /**
+         * public int rank(int k) / floorRank(int k) / ceilingRank(int k) / countRange(int lo, int hi)
+         * <p>
+         * Same as in WAVLTree.
+         * <p>
+         * Complexity O(logn)
+         */
+        public int rank(int k) {
+            int slot = ceilingSlot(k);
+            return slot != 0 && keys[slot] == k ? ranks[slot] : -1;
+        }
+
+        public int floorRank(int k) {
+            int slot = floorSlot(k);
+            return slot == 0 ? 0 : ranks[slot];
+        }
+
+        public int ceilingRank(int k) {
+            int slot = ceilingSlot(k);
+            return slot == 0 ? n + 1 : ranks[slot];
+        }
+
+        public int countRange(int lo, int hi) {
+            if (lo > hi) {
+                return 0;
+            }
+            return floorRank(hi) - ceilingRank(lo) + 1;
+        }
+
+        /**
+         * public Integer floorKey(int k) / ceilingKey(int k)
+         * <p>
+         * Returns the largest key <= k / smallest key >= k, or null if there is none.
+         * <p>
+         * Complexity O(logn)
+         */
+        public Integer floorKey(int k) {
+            int slot = floorSlot(k);
+            return slot == 0 ? null : keys[slot];
+        }
+
+        public Integer ceilingKey(int k) {
+            int slot = ceilingSlot(k);
+            return slot == 0 ? null : keys[slot];
+        }
+
+        /**
+         * public int[] rangeKeys(int lo, int hi) / public String[] rangeValues(int lo, int hi)
+         * <p>
+         * Same as in WAVLTree.
+         * <p>
+         * Complexity O(logn + k), for k keys in the range
+         */
+        public int[] rangeKeys(int lo, int hi) {
+            int[] arr = new int[countRange(lo, hi)];
+            int slot = ceilingSlot(lo);
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = keys[slot];
+                slot = next(slot);
+            }
+            return arr;
+        }
+
+        public String[] rangeValues(int lo, int hi) {
+            String[] arr = new String[countRange(lo, hi)];
+            int slot = ceilingSlot(lo);
+            for (int i = 0; i < arr.length; i++) {
+                arr[i] = values[slot];
+                slot = next(slot);
+            }
+            return arr;
+        }
+
+        /**
+         * public void forEachInRange(int lo, int hi, EntryConsumer consumer)
+         * <p>
+         * Calls consumer with every item whose key k satisfies lo <= k <= hi, in increasing key order.
+         * <p>
+         * Complexity O(logn + k), for k keys in the range
+         */
+        public void forEachInRange(int lo, int hi, EntryConsumer consumer) {
+            for (int slot = ceilingSlot(lo); slot != 0 && keys[slot] <= hi; slot = next(slot)) {
+                consumer.accept(keys[slot], values[slot]);
+            }
+        }
+
+        /**
+         * public int[] keysToArray() / public String[] infoToArray()
+         * <p>
+         * Same as in WAVLTree.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            int[] arr = new int[n];
+            for (int slot = 1; slot <= n; slot++) {
+                arr[ranks[slot] - 1] = keys[slot];
+            }
+            return arr;
+        }
+
+        public String[] infoToArray() {
+            String[] arr = new String[n];
+            for (int slot = 1; slot <= n; slot++) {
+                arr[ranks[slot] - 1] = values[slot];
+            }
+            return arr;
+        }
+
+        /**
+         * private int ceilingSlot(int k) / private int floorSlot(int k)
+         * <p>
+         * Returns the slot of the smallest key >= k / largest key <= k, or 0 if there is none.
+         * <p>
+         * Complexity O(logn)
+         */
+        private int ceilingSlot(int k) {
+            int slot = 1;
+            while (slot <= n) {
+                slot = 2 * slot + (keys[slot] < k ? 1 : 0);
+            }
+            return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+        }
+
+        private int floorSlot(int k) {
+            int slot = 1;
+            while (slot <= n) {
+                slot = 2 * slot + (keys[slot] <= k ? 1 : 0);
+            }
+            return slot >>> (Integer.numberOfTrailingZeros(slot) + 1);
+        }
+
+        /**
+         * private int first() / private int next(int slot)
+         * <p>
+         * Returns the slot of the smallest key / the slot after slot in key order, or 0 if there is none
+         * (for first(), if the tree is empty).
+         * <p>
+         * Complexity O(logn), O(1) amortized over a scan
+         */
+        private int first() {
+            if (n == 0) {
+                return 0;
+            }
+            int slot = 1;
+            while (2 * slot <= n) {
+                slot = 2 * slot;
+            }
+            return slot;
+        }
+
+        private int next(int slot) {
+            if (2 * slot + 1 <= n) {
+                slot = 2 * slot + 1;
+                while (2 * slot <= n) {
+                    slot = 2 * slot;
+                }
+                return slot;
+            }
+            return slot >>> (Integer.numberOfTrailingZeros(~slot) + 1);
+        }
+    }
+
+    /**
+     * public static class PersistentWAVLTree
+     * <p>
+     * A copy-on-write WAVL tree. Its nodes are immutable and have no parent pointers, so insert and delete
+     * copy only the nodes on the search path (rebalancing the copies with the same cases as WAVLTree) and
+     * share every untouched subtree with the previous version. snapshot() returns, in O(1), an independent
+     * tree holding the current version; later changes to either tree are not seen by the other.
+     * <p>
+     * Reads never lock: they work on whatever version the (volatile) root pointed at when they started.
+     * Writes to the same tree are serialized. Missing children are null, which has rank -1 and size 0.
+     */
+    public static class PersistentWAVLTree {
+        private volatile Node root;
+        private int corrections; // rebalancing operations of the running insert/delete
+
+        //constructors (PersistentWAVLTree)
+        public PersistentWAVLTree() {
+            this.root = null;
+        }
+
+        private PersistentWAVLTree(Node root) {
+            this.root = root;
+        }
+
+        /**
+         * public PersistentWAVLTree snapshot()
+         * <p>
+         * Returns a tree with the current contents of this tree, sharing all of its nodes.
+         * <p>
+         * Complexity: O(1)
+         */
+        public PersistentWAVLTree snapshot() {
+            return new PersistentWAVLTree(root);
+        }
+
+        public boolean empty() {
+            return root == null;
+        }
+
+        public int size() {
+            return size(root);
+        }
+
+        /**
+         * public String search(int k)
+         * <p>
+         * returns the info of an item with key k if it exists in the tree
+         * otherwise, returns null
+         * <p>
+         * Complexity O(logn)
+         */
+        public String search(int k) {
+            Node node = root;
+            while (node != null) {
+                if (k == node.key) {
+                    return node.info;
+                }
+                node = k < node.key ? node.left : node.right;
+            }
+            return null;
+        }
+
+        public boolean containsKey(int k) {
+            Node node = root;
+            while (node != null && k != node.key) {
+                node = k < node.key ? node.left : node.right;
+            }
+            return node != null;
+        }
+
+        /**
+         * public String select(int i)
+         * <p>
+         * Returns the value of the i'th smallest key (return -1 if tree is empty)
+         * <p>
+         * Complexity O(logn)
+         */
+        public String select(int i) {
+            Node node = root;
+            if (size(node) < i || i < 1) {
+                return "-1";
+            }
+            while (true) {
+                int leftSize = size(node.left);
+                if (leftSize == i - 1) {
+                    return node.info;
+                }
+                if (leftSize > i - 1) {
+                    node = node.left;
+                } else {
+                    i = i - leftSize - 1;
+                    node = node.right;
+                }
+            }
+        }
+
+        /**
+         * public String min() / public String max()
+         * <p>
+         * Returns the info of the item with the smallest / largest key in the tree,
+         * or null if the tree is empty
+         * <p>
+         * Complexity O(logn)
+         */
+        public String min() {
+            Node node = root;
+            if (node == null) {
+                return null;
+            }
+            while (node.left != null) {
+                node = node.left;
+            }
+            return node.info;
+        }
+
+        public String max() {
+            Node node = root;
+            if (node == null) {
+                return null;
+            }
+            while (node.right != null) {
+                node = node.right;
+            }
+            return node.info;
+        }
+
+        /**
+         * public int[] keysToArray() / public String[] infoToArray()
+         * <p>
+         * Returns the keys / infos of the tree sorted by key, from a single version of the tree
+         * even if it is changed meanwhile.
+         * <p>
+         * Complexity O(n)
+         */
+        public int[] keysToArray() {
+            Node currRoot = root;
+            int[] arr = new int[size(currRoot)];
+            fillKeys(currRoot, arr, 0);
+            return arr;
+        }
+
+        public String[] infoToArray() {
+            Node currRoot = root;
+            String[] arr = new String[size(currRoot)];
+            fillInfos(currRoot, arr, 0);
+            return arr;
+        }
+
+        private static int fillKeys(Node node, int[] arr, int i) {
+            if (node == null) {
+                return i;
+            }
+            i = fillKeys(node.left, arr, i);
+            arr[i++] = node.key;
+            return fillKeys(node.right, arr, i);
+        }
+
+        private static int fillInfos(Node node, String[] arr, int i) {
+            if (node == null) {
+                return i;
+            }
+            i = fillInfos(node.left, arr, i);
+            arr[i++] = node.info;
+            return fillInfos(node.right, arr, i);
+        }
+
+        /**
+         * public int insert(int k, String i)
+         * <p>
+         * inserts an item with key k and info i, publishing a new version of the tree.
+         * returns the number of rebalancing operations (counted as in WAVLTree.insert),
+         * or -1 if an item with key k already exists in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public synchronized int insert(int k, String i) {
+            corrections = 0;
+            Node oldRoot = root;
+            Node newRoot = insert(oldRoot, k, i);
+            if (newRoot == oldRoot) {
+                return -1;
+            }
+            root = newRoot;
+            return corrections;
+        }
+
+        /**
+         * public int delete(int k)
+         * <p>
+         * deletes the item with key k, publishing a new version of the tree.
+         * returns the number of rebalancing operations (counted as in WAVLTree.delete),
+         * or -1 if an item with key k was not found in the tree.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public synchronized int delete(int k) {
+            corrections = 0;
+            Node oldRoot = root;
+            Node newRoot = delete(oldRoot, k);
+            if (newRoot == oldRoot) {
+                return -1;
+            }
+            root = newRoot;
+            return corrections;
+        }
+
+        /**
+         * private Node insert(Node node, int k, String i)
+         * <p>
+         * Returns a rebalanced copy of node's subtree with (k, i) added,
+         * or node itself if k is already in it.
+         */
+        private Node insert(Node node, int k, String i) {
+            if (node == null) {
+                return new Node(k, i, 0, null, null);
+            }
+            if (k == node.key) {
+                return node;
+            }
+            if (k < node.key) {
+                Node left = insert(node.left, k, i);
+                return left == node.left ? node : fixInsert(node.withChildren(left, node.right));
+            } else {
+                Node right = insert(node.right, k, i);
+                return right == node.right ? node : fixInsert(node.withChildren(node.left, right));
+            }
+        }
+
+        /**
+         * private Node fixInsert(Node node)
+         * <p>
+         * Fixes node after one of its children grew, with the cases of WAVLTree.checkInsertCase (see RankRules).
+         */
+        private Node fixInsert(Node node) {
+            int leftDiff = node.rank - rank(node.left);
+            int rightDiff = node.rank - rank(node.right);
+            int j = RankRules.insertCase(leftDiff, rightDiff);
+            if (j == RankRules.DEEPER) {
+                j = leftDiff == 0 ? RankRules.insertRotationCase(true, node.left.rank - rank(node.left.right))
+                        : RankRules.insertRotationCase(false, node.right.rank - rank(node.right.left));
+            }
+            if (j <= 0) {
+                return node;
+            }
+            corrections += RankRules.insertCost(j);
+            switch (j) {
+                case 1:
+                    return node.withRank(node.rank + 1);
+                case 2:
+                    return rotateRight(node);
+                case 3: {
+                    Node leftChild = node.left;
+                    Node middle = leftChild.right;
+                    return new Node(middle.key, middle.info, middle.rank + 1,
+                            new Node(leftChild.key, leftChild.info, leftChild.rank - 1, leftChild.left, middle.left),
+                            new Node(node.key, node.info, node.rank - 1, middle.right, node.right));
+                }
+                case 4: {
+                    Node rightChild = node.right;
+                    Node middle = rightChild.left;
+                    return new Node(middle.key, middle.info, middle.rank + 1,
+                            new Node(node.key, node.info, node.rank - 1, node.left, middle.left),
+                            new Node(rightChild.key, rightChild.info, rightChild.rank - 1, middle.right, rightChild.right));
+                }
+                default:
+                    return rotateLeft(node);
+            }
+        }
+
+        /**
+         * private Node delete(Node node, int k)
+         * <p>
+         * Returns a rebalanced copy of node's subtree without k,
+         * or node itself if k is not in it.
+         */
+        private Node delete(Node node, int k) {
+            if (node == null) {
+                return null;
+            }
+            if (k < node.key) {
+                Node left = delete(node.left, k);
+                return left == node.left ? node : fixDelete(node.withChildren(left, node.right));
+            }
+            if (k > node.key) {
+                Node right = delete(node.right, k);
+                return right == node.right ? node : fixDelete(node.withChildren(node.left, right));
+            }
+            if (node.left == null) {
+                return node.right;
+            }
+            if (node.right == null) {
+                return node.left;
+            }
+            // replace node by its successor, taken out of the right subtree
+            Node successor = node.right;
+            while (successor.left != null) {
+                successor = successor.left;
+            }
+            Node right = deleteMin(node.right);
+            return fixDelete(new Node(successor.key, successor.info, node.rank, node.left, right));
+        }
+
+        private Node deleteMin(Node node) {
+            if (node.left == null) {
+                return node.right;
+            }
+            return fixDelete(node.withChildren(deleteMin(node.left), node.right));
+        }
+
+        /**
+         * private Node fixDelete(Node node)
+         * <p>
+         * Fixes node after one of its children shrank, with the cases of WAVLTree.deletionCase (see RankRules).
+         */
+        private Node fixDelete(Node node) {
+            int leftDiff = node.rank - rank(node.left);
+            int rightDiff = node.rank - rank(node.right);
+            int deleteCase = RankRules.deletionCase(node.left == null && node.right == null, leftDiff, rightDiff);
+            Node sibling = leftDiff == 3 ? node.right : node.left;
+            if (deleteCase == RankRules.DEEPER) {
+                deleteCase = RankRules.deletionSiblingCase(leftDiff == 3,
+                        sibling.rank - rank(sibling.left), sibling.rank - rank(sibling.right));
+            }
+            if (deleteCase == 0) {
+                return node;
+            }
+            corrections += RankRules.deletionCost(deleteCase);
+            switch (deleteCase) {
+                case 1:
+                    return node.withRank(node.rank - 1);
+                case 2:
+                    return new Node(node.key, node.info, node.rank - 1, node.left, sibling.withRank(sibling.rank - 1));
+                case 3:
+                    return new Node(node.key, node.info, node.rank - 1, sibling.withRank(sibling.rank - 1), node.right);
+                case 4: {
+                    Node lowered = fixDelete(new Node(node.key, node.info, node.rank - 1, node.left, sibling.left));
+                    return new Node(sibling.key, sibling.info, sibling.rank + 1, lowered, sibling.right);
+                }
+                case 5: {
+                    Node lowered = fixDelete(new Node(node.key, node.info, node.rank - 1, sibling.right, node.right));
+                    return new Node(sibling.key, sibling.info, sibling.rank + 1, sibling.left, lowered);
+                }
+                case 6: {
+                    Node middle = sibling.left;
+                    Node lowered = fixDelete(new Node(node.key, node.info, node.rank - 1, node.left, middle.left));
+                    return new Node(middle.key, middle.info, middle.rank + 2, lowered,
+                            new Node(sibling.key, sibling.info, sibling.rank - 1, middle.right, sibling.right));
+                }
+                default: {
+                    Node middle = sibling.right;
+                    Node lowered = fixDelete(new Node(node.key, node.info, node.rank - 1, middle.right, node.right));
+                    return new Node(middle.key, middle.info, middle.rank + 2,
+                            new Node(sibling.key, sibling.info, sibling.rank - 1, sibling.left, middle.left), lowered);
+                }
+            }
+        }
+
+        private static Node rotateRight(Node node) {
+            Node leftChild = node.left;
+            return leftChild.withChildren(leftChild.left,
+                    new Node(node.key, node.info, node.rank - 1, leftChild.right, node.right));
+        }
+
+        private static Node rotateLeft(Node node) {
+            Node rightChild = node.right;
+            return rightChild.withChildren(
+                    new Node(node.key, node.info, node.rank - 1, node.left, rightChild.left), rightChild.right);
+        }
+
+        private static int rank(Node node) {
+            return node == null ? -1 : node.rank;
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        /**
+         * private static final class Node
+         * <p>
+         * An immutable node; its size is computed from its children when it is created.
+         */
+        private static final class Node {
+            final int key;
+            final String info;
+            final int rank;
+            final int size;
+            final Node left;
+            final Node right;
+
+            Node(int key, String info, int rank, Node left, Node right) {
+                this.key = key;
+                this.info = info;
+                this.rank = rank;
+                this.left = left;
+                this.right = right;
+                this.size = size(left) + size(right) + 1;
+            }
+
+            Node withChildren(Node newLeft, Node newRight) {
+                return new Node(key, info, rank, newLeft, newRight);
+            }
+
+            Node withRank(int newRank) {
+                return new Node(key, info, newRank, left, right);
+            }
+        }
+    }
+
+    /**
+     * public abstract static class AbstractWAVLMap
+     * <p>
+     * The part of a WAVL tree that does not depend on the type of the keys: node links, ranks,
+     * subtree sizes and the insertion and deletion rebalancing (the same cases as WAVLTree, so
+     * the same numbers of rebalancing operations). WAVLMap, LongWAVLMap and LongLongWAVLMap
+     * subclass it with their own node classes and do only the key comparisons themselves,
+     * so long keys and values are never boxed.
+     * <p>
+     * NIL plays the part of the virtual node (rank -1, size 0) and of the missing parent of the root.
+     */
+    public abstract static class AbstractWAVLMap {
+        static final Node NIL = newNil();
 
-        //constructors (WAVLNode)
-        public WAVLNode(WAVLNode parent, WAVLNode left, WAVLNode right, int key, String info, int rank) {
-            this.parent = parent;
-            this.left = left;
-            this.right = right;
-            this.key = key;
-            this.info = info;
-            this.rank = rank;
+        Node root = NIL;
+        Node min = NIL;
+        Node max = NIL;
+        int size;
+
+        /**
+         * static class Node
+         * <p>
+         * A node without key or value; subclasses of the map add those in subclasses of Node.
+         */
+        static class Node {
+            Node parent = NIL;
+            Node left = NIL;
+            Node right = NIL;
+            int rank;
+            int size = 1;
         }
 
-        public WAVLNode(int key, String info) {
-            this.key = key;
-            this.info = info;
-            //all other fields should be null or 0
+        private static Node newNil() {
+            Node nil = new Node();
+            nil.rank = -1;
+            nil.size = 0;
+            return nil;
         }
 
         /**
-         * Getters and setters
+         * public boolean empty()
+         * <p>
+         * returns true if and only if the map is empty
          * <p>
          * Complexity: O(1)
          */
-        public int getKey() {
-            return this.key;
+        public boolean empty() {
+            return this.size == 0;
         }
 
-        public String getValue() {
-            return this.info;
+        /**
+         * public int size()
+         * <p>
+         * Returns the number of items in the map.
+         * <p>
+         * Complexity: O(1)
+         */
+        public int size() {
+            return this.size;
         }
 
-        public WAVLNode getLeft() {
-            return this.left;
+        /**
+         * int linkLeaf(Node position, Node leaf, boolean asLeft)
+         * <p>
+         * Hangs leaf under position (as its left child if asLeft) and rebalances, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations.
+         * #pre position is the node treePosition-style search stopped at (NIL if the map is empty),
+         * and the side given by asLeft is free
+         * <p>
+         * Complexity: O(logn)
+         */
+        int linkLeaf(Node position, Node leaf, boolean asLeft) {
+            size++;
+            if (position == NIL) {
+                root = leaf;
+                min = leaf;
+                max = leaf;
+                return 0;
+            }
+            leaf.parent = position;
+            if (asLeft) {
+                position.left = leaf;
+                if (position == min) {
+                    min = leaf;
+                }
+            } else {
+                position.right = leaf;
+                if (position == max) {
+                    max = leaf;
+                }
+            }
+            for (Node currNode = position; currNode != NIL; currNode = currNode.parent) {
+                currNode.size++;
+            }
+
+            //rebalancing, with the same cases as WAVLTree.checkInsertCase
+            Node currNode = position;
+            int j = checkInsertCase(currNode);
+            int corrections = 0;
+            while (j > 0 && currNode != NIL) {
+                corrections += RankRules.insertCost(j);
+                switch (j) {
+                    case 1:
+                        currNode.rank++;
+                        currNode = currNode.parent;
+                        break;
+                    case 2:
+                        currNode = rightRotate(currNode).parent;
+                        break;
+                    case 3:
+                        currNode = leftDoubleRotate(currNode);
+                        break;
+                    case 4:
+                        currNode = rightDoubleRotate(currNode);
+                        break;
+                    case 5:
+                        currNode = leftRotate(currNode).parent;
+                        break;
+                }
+                if (currNode != NIL) {
+                    j = checkInsertCase(currNode);
+                }
+            }
+            return corrections;
         }
 
-        public WAVLNode getRight() {
-            return this.right;
+        /**
+         * int unlink(Node node)
+         * <p>
+         * Removes node from the tree and rebalances, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations.
+         * #pre node is a node of this map
+         * <p>
+         * Complexity: O(logn)
+         */
+        int unlink(Node node) {
+            if (node == min) {
+                min = successor(node);
+            }
+            if (node == max) {
+                max = predecessor(node);
+            }
+            Node nodeToBalance;
+            if (node.left != NIL && node.right != NIL) {
+                // move the successor (which has no left child) into node's place
+                Node successorNode = node.right;
+                while (successorNode.left != NIL) {
+                    successorNode = successorNode.left;
+                }
+                if (successorNode.parent == node) {
+                    nodeToBalance = successorNode;
+                } else {
+                    nodeToBalance = successorNode.parent;
+                    Node successorChild = successorNode.right;
+                    nodeToBalance.left = successorChild;
+                    if (successorChild != NIL) {
+                        successorChild.parent = nodeToBalance;
+                    }
+                    successorNode.right = node.right;
+                    node.right.parent = successorNode;
+                }
+                successorNode.left = node.left;
+                node.left.parent = successorNode;
+                successorNode.rank = node.rank;
+                successorNode.size = node.size;
+                successorNode.parent = node.parent;
+                replaceChild(node, successorNode);
+            } else {
+                nodeToBalance = node.parent;
+                Node child = node.left != NIL ? node.left : node.right;
+                if (child != NIL) {
+                    child.parent = nodeToBalance;
+                }
+                replaceChild(node, child);
+            }
+            for (Node currNode = nodeToBalance; currNode != NIL; currNode = currNode.parent) {
+                currNode.size--;
+            }
+            node.parent = NIL;
+            node.left = NIL;
+            node.right = NIL;
+            size--;
+
+            //rebalancing, with the same cases as WAVLTree.deletionCase
+            int rebalanceOperations = 0;
+            node = nodeToBalance;
+            int deleteCase = deletionCase(node);
+            while (deleteCase != 0) {
+                rebalanceOperations += RankRules.deletionCost(deleteCase);
+                switch (deleteCase) {
+                    case 1:
+                        node.rank--;
+                        node = node.parent;
+                        break;
+                    case 2:
+                        node.rank--;
+                        node.right.rank--;
+                        node = node.parent;
+                        break;
+                    case 3:
+                        node.rank--;
+                        node.left.rank--;
+                        node = node.parent;
+                        break;
+                    case 4:
+                        leftRotate(node).rank++;
+                        break;
+                    case 5:
+                        rightRotate(node).rank++;
+                        break;
+                    case 6:
+                        rightRotate(node.right).rank++;
+                        leftRotate(node).rank++;
+                        break;
+                    case 7:
+                        leftRotate(node.left).rank++;
+                        rightRotate(node).rank++;
+                        break;
+                }
+                deleteCase = deletionCase(node);
+            }
+            return rebalanceOperations;
+        }
+
+        /**
+         * Node selectNode(int i)
+         * <p>
+         * Returns the node with the i'th smallest key, or NIL if i is not between 1 and size().
+         * <p>
+         * Complexity O(logn)
+         */
+        Node selectNode(int i) {
+            if (i < 1 || i > this.size) {
+                return NIL;
+            }
+            Node currNode = root;
+            while (true) {
+                int leftSize = currNode.left.size;
+                if (leftSize == i - 1) {
+                    return currNode;
+                }
+                if (leftSize > i - 1) {
+                    currNode = currNode.left;
+                } else {
+                    i = i - leftSize - 1;
+                    currNode = currNode.right;
+                }
+            }
+        }
+
+        /**
+         * static int positionOf(Node node)
+         * <p>
+         * Returns i such that node is the node with the i'th smallest key.
+         * <p>
+         * Complexity O(logn)
+         */
+        static int positionOf(Node node) {
+            int position = node.left.size + 1;
+            for (Node parent = node.parent; parent != NIL; node = parent, parent = parent.parent) {
+                if (parent.right == node) {
+                    position += parent.left.size + 1;
+                }
+            }
+            return position;
+        }
+
+        static Node successor(Node node) {
+            if (node.right != NIL) {
+                node = node.right;
+                while (node.left != NIL) {
+                    node = node.left;
+                }
+                return node;
+            }
+            Node parent = node.parent;
+            while (parent != NIL && parent.right == node) {
+                node = parent;
+                parent = node.parent;
+            }
+            return parent;
+        }
+
+        static Node predecessor(Node node) {
+            if (node.left != NIL) {
+                node = node.left;
+                while (node.right != NIL) {
+                    node = node.right;
+                }
+                return node;
+            }
+            Node parent = node.parent;
+            while (parent != NIL && parent.left == node) {
+                node = parent;
+                parent = node.parent;
+            }
+            return parent;
+        }
+
+        private static int getLeftRankDiff(Node node) {
+            return node == NIL ? 1 : node.rank - node.left.rank;
+        }
+
+        private static int getRightRankDiff(Node node) {
+            return node == NIL ? 1 : node.rank - node.right.rank;
+        }
+
+        /**
+         * private static int checkInsertCase(Node node)
+         * <p>
+         * Same cases as WAVLTree.checkInsertCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private static int checkInsertCase(Node node) {
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int j = RankRules.insertCase(leftDiff, rightDiff);
+            if (j == RankRules.DEEPER) {
+                j = leftDiff == 0 ? RankRules.insertRotationCase(true, getRightRankDiff(node.left))
+                        : RankRules.insertRotationCase(false, getLeftRankDiff(node.right));
+            }
+            return j;
+        }
+
+        /**
+         * private static int deletionCase(Node node)
+         * <p>
+         * Same cases as WAVLTree.deletionCase, decided by RankRules.
+         * <p>
+         * Complexity: O(1)
+         */
+        private static int deletionCase(Node node) {
+            if (node == NIL) {
+                return 0;
+            }
+            int leftDiff = getLeftRankDiff(node);
+            int rightDiff = getRightRankDiff(node);
+            int deleteCase = RankRules.deletionCase(node.left == NIL && node.right == NIL, leftDiff, rightDiff);
+            if (deleteCase == RankRules.DEEPER) {
+                Node sibling = leftDiff == 3 ? node.right : node.left;
+                deleteCase = RankRules.deletionSiblingCase(leftDiff == 3, getLeftRankDiff(sibling), getRightRankDiff(sibling));
+            }
+            return deleteCase;
+        }
+
+        /**
+         * private Node rightRotate(Node node)
+         * <p>
+         * node becomes the right child of its left child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private Node rightRotate(Node node) {
+            Node leftChild = node.left;
+            Node middle = leftChild.right;
+            leftChild.size = node.size;
+            node.size = middle.size + node.right.size + 1;
+            node.left = middle;
+            if (middle != NIL) {
+                middle.parent = node;
+            }
+            node.rank--;
+            leftChild.parent = node.parent;
+            replaceChild(node, leftChild);
+            leftChild.right = node;
+            node.parent = leftChild;
+            return leftChild;
+        }
+
+        /**
+         * private Node leftRotate(Node node)
+         * <p>
+         * node becomes the left child of its right child and is demoted.
+         * returns the new root of the sub-tree.
+         * <p>
+         * Complexity: O(1)
+         */
+        private Node leftRotate(Node node) {
+            Node rightChild = node.right;
+            Node middle = rightChild.left;
+            rightChild.size = node.size;
+            node.size = middle.size + node.left.size + 1;
+            node.right = middle;
+            if (middle != NIL) {
+                middle.parent = node;
+            }
+            node.rank--;
+            rightChild.parent = node.parent;
+            replaceChild(node, rightChild);
+            rightChild.left = node;
+            node.parent = rightChild;
+            return rightChild;
+        }
+
+        private Node rightDoubleRotate(Node node) {
+            Node toPromote = node.right.left;
+            rightRotate(node.right);
+            toPromote.rank++;
+            leftRotate(node);
+            return toPromote;
+        }
+
+        private Node leftDoubleRotate(Node node) {
+            Node toPromote = node.left.right;
+            leftRotate(node.left);
+            toPromote.rank++;
+            rightRotate(node);
+            return toPromote;
+        }
+
+        /**
+         * private void replaceChild(Node node, Node replacement)
+         * <p>
+         * node's parent (or the root, if node is the root) points to replacement instead of node.
+         * <p>
+         * Complexity: O(1)
+         */
+        private void replaceChild(Node node, Node replacement) {
+            Node parent = node.parent;
+            if (parent == NIL) {
+                root = replacement;
+            } else if (parent.left == node) {
+                parent.left = replacement;
+            } else {
+                parent.right = replacement;
+            }
+        }
+    }
+
+    /**
+     * public static class WAVLMap<K, V>
+     * <p>
+     * A WAVL tree from keys of any type, ordered by a Comparator, to values of any type.
+     * insert, delete and the queries behave like those of WAVLTree; a null value is allowed,
+     * so use containsKey to tell a missing key from a key mapped to null.
+     */
+    public static class WAVLMap<K, V> extends AbstractWAVLMap {
+        private final Comparator<? super K> comparator;
+
+        //constructors (WAVLMap)
+        public WAVLMap(Comparator<? super K> comparator) {
+            this.comparator = comparator;
+        }
+
+        /**
+         * Orders the keys by their natural ordering; K must implement Comparable.
+         */
+        @SuppressWarnings("unchecked")
+        public WAVLMap() {
+            this((Comparator<? super K>) Comparator.naturalOrder());
+        }
+
+        /**
+         * public V search(K k)
+         * <p>
+         * returns the value of the item with key k if it exists in the map
+         * otherwise, returns null
+         * <p>
+         * Complexity O(logn)
+         */
+        public V search(K k) {
+            Node node = findKey(k);
+            return node == NIL ? null : entry(node).value;
+        }
+
+        public boolean containsKey(K k) {
+            return findKey(k) != NIL;
+        }
+
+        /**
+         * public int insert(K k, V v)
+         * <p>
+         * inserts an item with key k and value v, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations, or -1 if an item with key k already exists.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int insert(K k, V v) {
+            Node position = NIL;
+            int comparison = 0;
+            for (Node currNode = root; currNode != NIL; ) {
+                position = currNode;
+                comparison = comparator.compare(k, entry(currNode).key);
+                if (comparison == 0) {
+                    return -1;
+                }
+                currNode = comparison < 0 ? currNode.left : currNode.right;
+            }
+            return linkLeaf(position, new Entry<K, V>(k, v), comparison < 0);
+        }
+
+        /**
+         * public int delete(K k)
+         * <p>
+         * deletes the item with key k, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations, or -1 if no item with key k exists.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int delete(K k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : unlink(node);
+        }
+
+        /**
+         * public K minKey() / maxKey()
+         * <p>
+         * Returns the smallest / largest key in the map, or null if the map is empty.
+         * <p>
+         * Complexity O(1)
+         */
+        public K minKey() {
+            return min == NIL ? null : entry(min).key;
+        }
+
+        public K maxKey() {
+            return max == NIL ? null : entry(max).key;
+        }
+
+        /**
+         * public K selectKey(int i)
+         * <p>
+         * Returns the i'th smallest key, or null if i is not between 1 and size().
+         * <p>
+         * Complexity O(logn)
+         */
+        public K selectKey(int i) {
+            Node node = selectNode(i);
+            return node == NIL ? null : entry(node).key;
+        }
+
+        /**
+         * public int rank(K k)
+         * <p>
+         * Returns i such that k is the i'th smallest key, or -1 if k is not in the map.
+         * <p>
+         * Complexity O(logn)
+         */
+        public int rank(K k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : positionOf(node);
+        }
+
+        /**
+         * public void forEach(BiConsumer<? super K, ? super V> action)
+         * <p>
+         * Calls action on every item in increasing key order.
+         * <p>
+         * Complexity O(n)
+         */
+        public void forEach(BiConsumer<? super K, ? super V> action) {
+            for (Node node = min; node != NIL; node = successor(node)) {
+                Entry<K, V> e = entry(node);
+                action.accept(e.key, e.value);
+            }
+        }
+
+        private Node findKey(K k) {
+            Node currNode = root;
+            while (currNode != NIL) {
+                int comparison = comparator.compare(k, entry(currNode).key);
+                if (comparison == 0) {
+                    return currNode;
+                }
+                currNode = comparison < 0 ? currNode.left : currNode.right;
+            }
+            return NIL;
+        }
+
+        @SuppressWarnings("unchecked")
+        private Entry<K, V> entry(Node node) {
+            return (Entry<K, V>) node;
+        }
+
+        private static final class Entry<K, V> extends Node {
+            final K key;
+            V value;
+
+            Entry(K key, V value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+    }
+
+    /**
+     * public static class LongWAVLMap<V>
+     * <p>
+     * WAVLMap specialized to primitive long keys, so neither lookups nor updates box the key.
+     * minKey, maxKey and selectKey throw when there is no such key, since no long can stand for "none".
+     */
+    public static class LongWAVLMap<V> extends AbstractWAVLMap {
+
+        /**
+         * public V search(long k)
+         * <p>
+         * returns the value of the item with key k if it exists in the map
+         * otherwise, returns null
+         * <p>
+         * Complexity O(logn)
+         */
+        public V search(long k) {
+            Node node = findKey(k);
+            return node == NIL ? null : entry(node).value;
+        }
+
+        public boolean containsKey(long k) {
+            return findKey(k) != NIL;
+        }
+
+        /**
+         * public int insert(long k, V v)
+         * <p>
+         * inserts an item with key k and value v, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations, or -1 if an item with key k already exists.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int insert(long k, V v) {
+            Node position = NIL;
+            for (Node currNode = root; currNode != NIL; ) {
+                position = currNode;
+                long currKey = entry(currNode).key;
+                if (k == currKey) {
+                    return -1;
+                }
+                currNode = k < currKey ? currNode.left : currNode.right;
+            }
+            return linkLeaf(position, new Entry<V>(k, v), position != NIL && k < entry(position).key);
+        }
+
+        /**
+         * public int delete(long k)
+         * <p>
+         * deletes the item with key k, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations, or -1 if no item with key k exists.
+         * <p>
+         * Complexity: O(logn)
+         */
+        public int delete(long k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : unlink(node);
+        }
+
+        /**
+         * public long minKey() / maxKey()
+         * <p>
+         * Returns the smallest / largest key in the map.
+         * Throws NoSuchElementException if the map is empty.
+         * <p>
+         * Complexity O(1)
+         */
+        public long minKey() {
+            if (min == NIL) {
+                throw new NoSuchElementException("the map is empty");
+            }
+            return entry(min).key;
+        }
+
+        public long maxKey() {
+            if (max == NIL) {
+                throw new NoSuchElementException("the map is empty");
+            }
+            return entry(max).key;
+        }
+
+        /**
+         * public long selectKey(int i)
+         * <p>
+         * Returns the i'th smallest key.
+         * Throws IndexOutOfBoundsException if i is not between 1 and size().
+         * <p>
+         * Complexity O(logn)
+         */
+        public long selectKey(int i) {
+            Node node = selectNode(i);
+            if (node == NIL) {
+                throw new IndexOutOfBoundsException("no key number " + i + " in a map of size " + size);
+            }
+            return entry(node).key;
         }
 
-        public int getRank() {
-            return this.rank;
+        /**
+         * public int rank(long k)
+         * <p>
+         * Returns i such that k is the i'th smallest key, or -1 if k is not in the map.
+         * <p>
+         * Complexity O(logn)
+         */
+        public int rank(long k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : positionOf(node);
         }
 
-        public WAVLNode getParent() {
-            return this.parent;
+        /**
+         * public long[] keysToArray()
+         * <p>
+         * Returns a sorted array which contains all keys in the map.
+         * <p>
+         * Complexity O(n)
+         */
+        public long[] keysToArray() {
+            long[] arr = new long[size];
+            Node node = min;
+            for (int i = 0; i < size; i++) {
+                arr[i] = entry(node).key;
+                node = successor(node);
+            }
+            return arr;
         }
 
-        public int getSubtreeSize() {
-            return this.size;
+        /**
+         * public void forEach(LongEntryConsumer<? super V> action)
+         * <p>
+         * Calls action on every item in increasing key order.
+         * <p>
+         * Complexity O(n)
+         */
+        public void forEach(LongEntryConsumer<? super V> action) {
+            for (Node node = min; node != NIL; node = successor(node)) {
+                Entry<V> e = entry(node);
+                action.accept(e.key, e.value);
+            }
         }
 
-        public void setParent(WAVLNode myparent) {
-            this.parent = myparent;
+        private Node findKey(long k) {
+            Node currNode = root;
+            while (currNode != NIL) {
+                long currKey = entry(currNode).key;
+                if (k == currKey) {
+                    return currNode;
+                }
+                currNode = k < currKey ? currNode.left : currNode.right;
+            }
+            return NIL;
         }
 
-        public void setLeft(WAVLNode newLeft) {
-            this.left = newLeft;
+        @SuppressWarnings("unchecked")
+        private Entry<V> entry(Node node) {
+            return (Entry<V>) node;
         }
 
-        public void setRight(WAVLNode newRight) {
-            this.right = newRight;
-        }
+        private static final class Entry<V> extends Node {
+            final long key;
+            V value;
 
-        public void setRank(int newRank) {
-            this.rank = newRank;
+            Entry(long key, V value) {
+                this.key = key;
+                this.value = value;
+            }
         }
+    }
 
-        public void setSize(int newSize) {
-            this.size = newSize;
-        }
+    /**
+     * public static class LongLongWAVLMap
+     * <p>
+     * WAVLMap specialized to primitive long keys and values; nothing is boxed.
+     * search takes the value to return for a missing key.
+     */
+    public static class LongLongWAVLMap extends AbstractWAVLMap {
 
-        public void setKey(int key) {
-            this.key = key;
+        /**
+         * public long search(long k, long notFound)
+         * <p>
+         * returns the value of the item with key k if it exists in the map
+         * otherwise, returns notFound
+         * <p>
+         * Complexity O(logn)
+         */
+        public long search(long k, long notFound) {
+            Node node = findKey(k);
+            return node == NIL ? notFound : ((Entry) node).value;
         }
 
-        public void setInfo(String info) {
-            this.info = info;
+        public boolean containsKey(long k) {
+            return findKey(k) != NIL;
         }
 
         /**
-         * public boolean isRealNode()
+         * public int insert(long k, long v)
          * <p>
-         * returns true if this is a real node, false if it is a virtual node
+         * inserts an item with key k and value v, exactly as WAVLTree.insert does.
+         * returns the number of rebalancing operations, or -1 if an item with key k already exists.
          * <p>
-         * Complexity: O(1)
+         * Complexity: O(logn)
          */
-        public boolean isRealNode() {
-            return this.rank != -1;
+        public int insert(long k, long v) {
+            Node position = NIL;
+            for (Node currNode = root; currNode != NIL; ) {
+                position = currNode;
+                long currKey = ((Entry) currNode).key;
+                if (k == currKey) {
+                    return -1;
+                }
+                currNode = k < currKey ? currNode.left : currNode.right;
+            }
+            return linkLeaf(position, new Entry(k, v), position != NIL && k < ((Entry) position).key);
         }
 
         /**
-         * public void increaseSize()
+         * public int delete(long k)
          * <p>
-         * increases the size of this node by 1
+         * deletes the item with key k, exactly as WAVLTree.delete does.
+         * returns the number of rebalancing operations, or -1 if no item with key k exists.
          * <p>
-         * Complexity: O(1)
+         * Complexity: O(logn)
          */
-        public void increaseSize() {
-            this.size = this.size + 1;
+        public int delete(long k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : unlink(node);
         }
 
         /**
-         * public void increaseRank()
+         * public long minKey() / maxKey()
          * <p>
-         * increases the rank of this node by 1
+         * Returns the smallest / largest key in the map.
+         * Throws NoSuchElementException if the map is empty.
          * <p>
-         * Complexity: O(1)
+         * Complexity O(1)
          */
-        public void increaseRank() {
-            this.rank = this.rank + 1;
+        public long minKey() {
+            if (min == NIL) {
+                throw new NoSuchElementException("the map is empty");
+            }
+            return ((Entry) min).key;
+        }
+
+        public long maxKey() {
+            if (max == NIL) {
+                throw new NoSuchElementException("the map is empty");
+            }
+            return ((Entry) max).key;
         }
 
         /**
-         * public void decreaseRank()
+         * public long selectKey(int i)
          * <p>
-         * decreases the rank of this node by 1
+         * Returns the i'th smallest key.
+         * Throws IndexOutOfBoundsException if i is not between 1 and size().
          * <p>
-         * Complexity: O(1)
+         * Complexity O(logn)
          */
-        public void decreaseRank() {
-            this.rank = this.rank - 1;
+        public long selectKey(int i) {
+            Node node = selectNode(i);
+            if (node == NIL) {
+                throw new IndexOutOfBoundsException("no key number " + i + " in a map of size " + size);
+            }
+            return ((Entry) node).key;
         }
 
         /**
-         * public boolean hasRightChild()
+         * public int rank(long k)
          * <p>
-         * returns true iff this node has a real right child
+         * Returns i such that k is the i'th smallest key, or -1 if k is not in the map.
          * <p>
-         * Complexity: O(1)
+         * Complexity O(logn)
          */
-        public boolean hasRightChild() {
-            return (this.right.getKey() != -1);
+        public int rank(long k) {
+            Node node = findKey(k);
+            return node == NIL ? -1 : positionOf(node);
         }
 
         /**
-         * public boolean hasLeftChild()
+         * public long[] keysToArray() / valuesToArray()
          * <p>
-         * returns true iff this node has a real left child
+         * Returns all keys / values in the map, sorted by key.
          * <p>
-         * Complexity: O(1)
+         * Complexity O(n)
          */
-        public boolean hasLeftChild() {
-            return (this.left.getKey() != -1);
+        public long[] keysToArray() {
+            long[] arr = new long[size];
+            Node node = min;
+            for (int i = 0; i < size; i++) {
+                arr[i] = ((Entry) node).key;
+                node = successor(node);
+            }
+            return arr;
+        }
+
+        public long[] valuesToArray() {
+            long[] arr = new long[size];
+            Node node = min;
+            for (int i = 0; i < size; i++) {
+                arr[i] = ((Entry) node).value;
+                node = successor(node);
+            }
+            return arr;
         }
 
         /**
-         * public boolean hasParent()
+         * public void forEach(LongLongConsumer action)
          * <p>
-         * returns true iff this node has a parent
+         * Calls action on every item in increasing key order.
          * <p>
-         * Complexity: O(1)
+         * Complexity O(n)
          */
-        public boolean hasParent() {
-            return (this.parent != null);
+        public void forEach(LongLongConsumer action) {
+            for (Node node = min; node != NIL; node = successor(node)) {
+                Entry e = (Entry) node;
+                action.accept(e.key, e.value);
+            }
+        }
+
+        private Node findKey(long k) {
+            Node currNode = root;
+            while (currNode != NIL) {
+                long currKey = ((Entry) currNode).key;
+                if (k == currKey) {
+                    return currNode;
+                }
+                currNode = k < currKey ? currNode.left : currNode.right;
+            }
+            return NIL;
+        }
+
+        private static final class Entry extends Node {
+            final long key;
+            long value;
+
+            Entry(long key, long value) {
+                this.key = key;
+                this.value = value;
+            }
+        }
+    }
+
+    /**
+     * public interface MetricsMBean
+     * <p>
+     * The JMX view of a tree's Metrics (see Metrics.registerMBean). The case arrays are indexed by
+     * the case numbers of checkInsertCase (1-5) and deletionCase (1-7); index 0 is unused.
+     */
+    public interface MetricsMBean {
+        public long getInserts();
+
+        public long getDeletes();
+
+        public long getSearches();
+
+        public long getPromotions();
+
+        public long getDemotions();
+
+        public long getSingleRotations();
+
+        public long getDoubleRotations();
+
+        public long[] getInsertCaseCounts();
+
+        public long[] getDeletionCaseCounts();
+
+        public long[] getSearchPathHistogram();
+
+        public int getMaxRank();
+
+        public int getSize();
+
+        public void reset();
+    }
+
+    /**
+     * public static class Metrics
+     * <p>
+     * Counters of the work done by one tree, kept while metrics are enabled (see WAVLTree.enableMetrics):
+     * the items inserted and deleted one by one (including by insertAll/deleteAll, unless they rebuild the tree),
+     * every insertion and deletion rebalancing case taken and the promotions, demotions, single rotations
+     * and double rotations it did, and a histogram of the number of nodes visited by search, containsKey
+     * and fingerSearch (for fingerSearch, from where its climb stopped; the last bucket also counts longer paths). getMaxRank is the rank of the root, an upper bound
+     * on the height of the tree.
+     * <p>
+     * The tree only tests its metrics field for null when metrics are disabled. The counters are plain
+     * fields updated by the thread changing the tree, so searches made concurrently under a shared lock
+     * may be undercounted.
+     */
+    public static class Metrics implements MetricsMBean {
+        private static final int HISTOGRAM_BUCKETS = 64;
+
+        private final WAVLTree tree;
+        private long inserts;
+        private long deletes;
+        private long searches;
+        private long promotions;
+        private long demotions;
+        private long singleRotations;
+        private long doubleRotations;
+        private final long[] insertCases = new long[6];
+        private final long[] deletionCases = new long[8];
+        private final long[] searchPaths = new long[HISTOGRAM_BUCKETS];
+
+        private Metrics(WAVLTree tree) {
+            this.tree = tree;
         }
 
         /**
-         * public void addVirtualNodes()
+         * private void recordInsertCase(int j)
          * <p>
-         * adds virtual nodes to this node
+         * Counts one step of the insertion rebalancing loop (a checkInsertCase case) and what it does.
          * <p>
          * Complexity: O(1)
          */
-        public void addVirtualNodes() {
-            if (this.left == null) {
-                this.left = new WAVLNode(this, null, null, -1, null, -1);
-            }
-            if (this.right == null) {
-                this.right = new WAVLNode(this, null, null, -1, null, -1);
+        private void recordInsertCase(int j) {
+            insertCases[j]++;
+            switch (j) {
+                case 1:
+                    promotions++;
+                    break;
+                case 2:
+                case 5:
+                    singleRotations++;
+                    demotions++;
+                    break;
+                case 3:
+                case 4:
+                    doubleRotations++;
+                    demotions += 2;
+                    promotions++;
+                    break;
             }
         }
 
         /**
-         * public int relationWithParent()
+         * private void recordDeletionCase(int deleteCase)
          * <p>
-         * returns -1 if this node has no parent
-         * returns 0 if this node is a left child
-         * returns 1 if this node is a right child
+         * Counts one step of the deletion rebalancing loop (a deletionCase case) and what it does.
          * <p>
          * Complexity: O(1)
          */
-        public int relationWithParent() {
-            if (parent == null) {
-                return -1;
+        private void recordDeletionCase(int deleteCase) {
+            deletionCases[deleteCase]++;
+            switch (deleteCase) {
+                case 1:
+                    demotions++;
+                    break;
+                case 2:
+                case 3:
+                    demotions += 2;
+                    break;
+                case 4:
+                case 5:
+                    singleRotations++;
+                    demotions++;
+                    promotions++;
+                    break;
+                case 6:
+                case 7:
+                    doubleRotations++;
+                    demotions += 2;
+                    promotions += 2;
+                    break;
             }
-            return parent.relationWithChild(this);
         }
 
         /**
-         * public int relationWithChild(WAVLNode node)
+         * private void recordSearch(int pathLength)
          * <p>
-         * returns 0 if node is a left child
-         * returns 1 if node is a right child
-         * returns -1 otherwise
+         * Counts a lookup that visited pathLength nodes (measured by WAVLTree.searchKey as it went down).
          * <p>
          * Complexity: O(1)
          */
-        public int relationWithChild(WAVLNode node) {
-            if (node == null) {
-                return -1;
-            } else if (node == left) {
-                return 0;
-            } else if (node == right) {
-                return 1;
-            } else {
-                return -1;
-            }
+        private void recordSearch(int pathLength) {
+            searches++;
+            searchPaths[Math.min(pathLength, HISTOGRAM_BUCKETS - 1)]++;
+        }
+
+        public long getInserts() {
+            return inserts;
+        }
+
+        public long getDeletes() {
+            return deletes;
+        }
+
+        public long getSearches() {
+            return searches;
+        }
+
+        public long getPromotions() {
+            return promotions;
+        }
+
+        public long getDemotions() {
+            return demotions;
+        }
+
+        public long getSingleRotations() {
+            return singleRotations;
+        }
+
+        public long getDoubleRotations() {
+            return doubleRotations;
+        }
+
+        public long[] getInsertCaseCounts() {
+            return insertCases.clone();
+        }
+
+        public long[] getDeletionCaseCounts() {
+            return deletionCases.clone();
+        }
+
+        public long[] getSearchPathHistogram() {
+            return searchPaths.clone();
+        }
+
+        public int getMaxRank() {
+            WAVLNode root = tree.root;
+            return root == null ? -1 : root.getRank();
+        }
+
+        public int getSize() {
+            return tree.size();
         }
 
         /**
-         * public boolean isRightChild()
+         * public void reset()
          * <p>
-         * returns true iff this node is a right child
+         * Sets all counters back to 0.
          * <p>
          * Complexity: O(1)
          */
-        public boolean isRightChild() {
-            if (this.parent == null) {
-                return false;
-            }
-            return this.parent.getRight() == this;
+        public void reset() {
+            inserts = 0;
+            deletes = 0;
+            searches = 0;
+            promotions = 0;
+            demotions = 0;
+            singleRotations = 0;
+            doubleRotations = 0;
+            Arrays.fill(insertCases, 0);
+            Arrays.fill(deletionCases, 0);
+            Arrays.fill(searchPaths, 0);
         }
 
         /**
-         * public boolean isLefttChild()
+         * public MetricsSnapshot snapshot()
          * <p>
-         * returns true iff this node is a left child
+         * Returns a copy of the current counters, which later operations do not change.
          * <p>
          * Complexity: O(1)
          */
-        public boolean isLeftChild() {
-            if (this.parent == null) {
-                return false;
-            }
-            return this.parent.left == this;
+        public MetricsSnapshot snapshot() {
+            return new MetricsSnapshot(this);
+        }
+
+        /**
+         * public ObjectName registerMBean(String name)
+         * <p>
+         * Registers these metrics with the platform MBean server under the given object name
+         * (for example "wavl:type=WAVLTree,name=orders") and returns it, so they can be read with
+         * any JMX client. Unregister it when the tree is dropped.
+         */
+        public ObjectName registerMBean(String name) throws JMException {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(this, MetricsMBean.class), objectName);
+            return objectName;
+        }
+    }
+
+    /**
+     * public static class MetricsSnapshot
+     * <p>
+     * An immutable copy of a tree's Metrics at one moment (see Metrics.snapshot).
+     */
+    public static class MetricsSnapshot {
+        private final long inserts;
+        private final long deletes;
+        private final long searches;
+        private final long promotions;
+        private final long demotions;
+        private final long singleRotations;
+        private final long doubleRotations;
+        private final long[] insertCases;
+        private final long[] deletionCases;
+        private final long[] searchPaths;
+        private final int maxRank;
+        private final int size;
+
+        private MetricsSnapshot(Metrics metrics) {
+            this.inserts = metrics.getInserts();
+            this.deletes = metrics.getDeletes();
+            this.searches = metrics.getSearches();
+            this.promotions = metrics.getPromotions();
+            this.demotions = metrics.getDemotions();
+            this.singleRotations = metrics.getSingleRotations();
+            this.doubleRotations = metrics.getDoubleRotations();
+            this.insertCases = metrics.getInsertCaseCounts();
+            this.deletionCases = metrics.getDeletionCaseCounts();
+            this.searchPaths = metrics.getSearchPathHistogram();
+            this.maxRank = metrics.getMaxRank();
+            this.size = metrics.getSize();
+        }
+
+        public long getInserts() {
+            return inserts;
+        }
+
+        public long getDeletes() {
+            return deletes;
+        }
+
+        public long getSearches() {
+            return searches;
+        }
+
+        public long getPromotions() {
+            return promotions;
+        }
+
+        public long getDemotions() {
+            return demotions;
+        }
+
+        public long getSingleRotations() {
+            return singleRotations;
+        }
+
+        public long getDoubleRotations() {
+            return doubleRotations;
+        }
+
+        /**
+         * public long getInsertCaseCount(int j) / getDeletionCaseCount(int deleteCase)
+         * <p>
+         * Returns how many times the insertion rebalancing took checkInsertCase case j (1-5) /
+         * the deletion rebalancing took deletionCase case deleteCase (1-7).
+         */
+        public long getInsertCaseCount(int j) {
+            return insertCases[j];
+        }
+
+        public long getDeletionCaseCount(int deleteCase) {
+            return deletionCases[deleteCase];
+        }
+
+        /**
+         * public long getSearchPathCount(int length)
+         * <p>
+         * Returns how many searches visited exactly length nodes (at least length, for the last bucket).
+         */
+        public long getSearchPathCount(int length) {
+            return searchPaths[Math.min(length, searchPaths.length - 1)];
+        }
+
+        public int getMaxRank() {
+            return maxRank;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String toString() {
+            return "inserts=" + inserts + " deletes=" + deletes + " searches=" + searches
+                    + " promotions=" + promotions + " demotions=" + demotions
+                    + " singleRotations=" + singleRotations + " doubleRotations=" + doubleRotations
+                    + " insertCases=" + Arrays.toString(insertCases) + " deletionCases=" + Arrays.toString(deletionCases)
+                    + " maxRank=" + maxRank + " size=" + size;
         }
     }
 }
   
-
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class ArrayWAVLTreeTest {
+
+    /**
+     * The nodes of an ArrayWAVLTree are indices into its private arrays, read here by reflection;
+     * index 0 is the virtual leaf.
+     */
+    static WAVLInvariants.Shape<Integer> shape(WAVLTree.ArrayWAVLTree tree) {
+        int[] keys = field(tree, "keys");
+        int[] ranks = field(tree, "ranks");
+        int[] sizes = field(tree, "sizes");
+        int[] lefts = field(tree, "lefts");
+        int[] rights = field(tree, "rights");
+        int[] parents = field(tree, "parents");
+        int root = (Integer) get(tree, "root");
+        return new WAVLInvariants.Shape<>() {
+            public Integer root() {
+                return root;
+            }
+
+            public boolean isReal(Integer node) {
+                return node != 0;
+            }
+
+            public Integer left(Integer node) {
+                return lefts[node];
+            }
+
+            public Integer right(Integer node) {
+                return rights[node];
+            }
+
+            public Integer parent(Integer node) {
+                return parents[node];
+            }
+
+            public int rank(Integer node) {
+                return ranks[node];
+            }
+
+            public int size(Integer node) {
+                return sizes[node];
+            }
+
+            public int compareKeys(Integer a, Integer b) {
+                return Integer.compare(keys[a], keys[b]);
+            }
+        };
+    }
+
+    private static int[] field(Object tree, String name) {
+        return (int[]) get(tree, name);
+    }
+
+    private static Object get(Object tree, String name) {
+        try {
+            Field field = tree.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(tree);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    void randomInsertsAndDeletesMatchWAVLTree() {
+        Random rnd = new Random(2);
+        for (int trial = 0; trial < 100; trial++) {
+            WAVLTree tree = new WAVLTree();
+            WAVLTree.ArrayWAVLTree array = new WAVLTree.ArrayWAVLTree(1 + rnd.nextInt(4)); // grows while running
+            TreeMap<Integer, String> model = new TreeMap<>();
+            int range = 1 + rnd.nextInt(300);
+            for (int op = 0; op < 400; op++) {
+                int k = rnd.nextInt(range) - range / 2;
+                if (rnd.nextInt(3) > 0) {
+                    // the same case numbering as WAVLTree, so the same rebalancing operations
+                    assertEquals(tree.insert(k, "v" + k), array.insert(k, "v" + k), "insert " + k);
+                    model.putIfAbsent(k, "v" + k);
+                } else {
+                    assertEquals(tree.delete(k), array.delete(k), "delete " + k);
+                    model.remove(k);
+                }
+                WAVLInvariants.check(shape(array), model.size());
+                assertEquals(model.size(), array.size());
+                assertEquals(model.isEmpty(), array.empty());
+                assertArrayEquals(tree.keysToArray(), array.keysToArray());
+                assertArrayEquals(tree.infoToArray(), array.infoToArray());
+                assertEquals(tree.min(), array.min());
+                assertEquals(tree.max(), array.max());
+                for (int i = 1; i <= model.size(); i++) {
+                    assertEquals(tree.select(i), array.select(i));
+                }
+                int q = rnd.nextInt(range + 2) - 1 - range / 2;
+                assertEquals(model.get(q), array.search(q));
+            }
+        }
+    }
+
+    @Test
+    void releasedSlotsAreReused() {
+        WAVLTree.ArrayWAVLTree array = new WAVLTree.ArrayWAVLTree(64);
+        TreeMap<Integer, String> model = new TreeMap<>();
+        for (int k = 0; k < 64; k++) {
+            array.insert(k, "v" + k);
+            model.put(k, "v" + k);
+        }
+        int capacity = field(array, "keys").length;
+        for (int round = 0; round < 10; round++) {
+            for (int k = round; k < 64; k += 2) {
+                array.delete(k);
+                model.remove(k);
+            }
+            for (int k = round; k < 64; k += 2) {
+                array.insert(k, "w" + k);
+                model.put(k, "w" + k);
+            }
+        }
+        assertEquals(capacity, field(array, "keys").length);
+        WAVLInvariants.check(shape(array), model.size());
+        assertArrayEquals(model.values().toArray(new String[0]), array.infoToArray());
+    }
+}
@@ -0,0 +1,36 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class CombiningWAVLTreeTest {
+
+    @Test
+    void concurrentOperationsMatchTheModel() throws Exception {
+        for (int threads : new int[] {2, 8, 32}) {
+            WAVLTree inner = new WAVLTree();
+            WAVLTree.CombiningWAVLTree tree = new WAVLTree.CombiningWAVLTree(inner);
+            TreeMap<Integer, String> model = ThreadedModel.run(new ThreadedModel.Tree() {
+                public int insert(int k, String i) {
+                    return tree.insert(k, i);
+                }
+
+                public int delete(int k) {
+                    return tree.delete(k);
+                }
+
+                public String search(int k) {
+                    return tree.search(k);
+                }
+            }, threads, 10000, 2000);
+            WAVLTreeTest.check(inner, model);
+            assertEquals(model.size(), tree.size());
+            ThreadedModel.assertHolds(model, tree.keysToArray(), tree.infoToArray());
+            int i = 1;
+            for (String info : model.values()) {
+                assertEquals(info, tree.select(i++));
+            }
+        }
+    }
+}
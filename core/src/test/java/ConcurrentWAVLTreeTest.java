@@ -0,0 +1,90 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class ConcurrentWAVLTreeTest {
+
+    @Test
+    void concurrentOperationsMatchTheModel() throws Exception {
+        WAVLTree inner = new WAVLTree();
+        WAVLTree.ConcurrentWAVLTree tree = new WAVLTree.ConcurrentWAVLTree(inner);
+        TreeMap<Integer, String> model = ThreadedModel.run(new ThreadedModel.Tree() {
+            public int insert(int k, String i) {
+                return tree.insert(k, i);
+            }
+
+            public int delete(int k) {
+                return tree.delete(k);
+            }
+
+            public String search(int k) {
+                return tree.search(k);
+            }
+        }, 8, 20000, 2000);
+        WAVLTreeTest.check(inner, model);
+        assertEquals(model.size(), tree.size());
+        ThreadedModel.assertHolds(model, tree.keysToArray(), tree.infoToArray());
+    }
+
+    @Test
+    void readersSeeKeysThatWritersDoNotTouch() throws Exception {
+        WAVLTree.ConcurrentWAVLTree tree = new WAVLTree.ConcurrentWAVLTree();
+        int n = 20000;
+        for (int k = 0; k < n; k += 2) {
+            tree.insert(k, "v" + k); // the even keys stay; the writers only insert and delete odd keys
+        }
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<?>> writers = new ArrayList<>();
+            for (int w = 0; w < 2; w++) {
+                int seed = w;
+                writers.add(pool.submit(() -> {
+                    Random rnd = new Random(seed);
+                    while (!stop.get()) {
+                        int k = 2 * rnd.nextInt(n / 2) + 1;
+                        if (rnd.nextBoolean()) {
+                            tree.insert(k, "v" + k);
+                        } else {
+                            tree.delete(k);
+                        }
+                    }
+                }));
+            }
+            List<Future<?>> readers = new ArrayList<>();
+            for (int r = 0; r < 4; r++) {
+                int seed = 100 + r;
+                readers.add(pool.submit(() -> {
+                    Random rnd = new Random(seed);
+                    for (int q = 0; q < 20000; q++) {
+                        int k = 2 * rnd.nextInt(n / 2);
+                        assertEquals("v" + k, tree.search(k));
+                        assertTrue(tree.containsKey(k));
+                        assertEquals("v0", tree.select(1));
+                        assertEquals("v0", tree.min());
+                    }
+                }));
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+            stop.set(true);
+            for (Future<?> writer : writers) {
+                writer.get();
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+    }
+}
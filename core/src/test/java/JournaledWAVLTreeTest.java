@@ -0,0 +1,189 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+class JournaledWAVLTreeTest {
+    private static final int LAST = 1_000_000; // a key none of the random operations use
+
+    @TempDir
+    Path dir;
+
+    private static void randomOperations(WAVLTree.JournaledWAVLTree tree, TreeMap<Integer, String> model,
+                                         Random rnd, int count) {
+        for (int op = 0; op < count; op++) {
+            int k = rnd.nextInt(800);
+            if (rnd.nextInt(3) > 0) {
+                String v = rnd.nextInt(10) == 0 ? null : "v" + k + "\u00e9" + op;
+                assertEquals(model.containsKey(k), tree.insert(k, v) == -1, "insert " + k);
+                if (!model.containsKey(k)) {
+                    model.put(k, v);
+                }
+            } else {
+                assertEquals(!model.containsKey(k), tree.delete(k) == -1, "delete " + k);
+                model.remove(k);
+            }
+        }
+    }
+
+    private static void assertHolds(TreeMap<Integer, String> model, WAVLTree.JournaledWAVLTree tree) {
+        assertEquals(model.size(), tree.size());
+        assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray());
+        assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray());
+    }
+
+    /**
+     * Writes random records, then the insert of LAST as the last record of the journal, and closes it.
+     */
+    private TreeMap<Integer, String> writeJournal(Path journal) throws IOException {
+        TreeMap<Integer, String> model = new TreeMap<>();
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+            randomOperations(tree, model, new Random(22), 500);
+            tree.insert(LAST, "last");
+        }
+        return model;
+    }
+
+    /**
+     * Reopens a journal whose tail was damaged: the tree must be model, without LAST, and changes made
+     * after reopening must survive the next reopening (so the damaged tail was cut off, not appended to).
+     */
+    private static void assertRecovers(Path journal, TreeMap<Integer, String> model) throws IOException {
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+            assertNull(tree.search(LAST));
+            assertHolds(model, tree);
+            tree.insert(LAST + 1, "after");
+        }
+        model.put(LAST + 1, "after");
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+            assertHolds(model, tree);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WAVLTree.JournaledWAVLTree.Durability.class)
+    void replaysTheJournalOnReopen(WAVLTree.JournaledWAVLTree.Durability durability) throws IOException {
+        Path journal = dir.resolve("journal");
+        Random rnd = new Random(durability.ordinal());
+        TreeMap<Integer, String> model = new TreeMap<>();
+        for (int round = 0; round < 3; round++) {
+            try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, null, durability, 200)) {
+                assertHolds(model, tree);
+                randomOperations(tree, model, rnd, 1000);
+            }
+        }
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, null, durability, 200)) {
+            assertHolds(model, tree);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(WAVLTree.JournaledWAVLTree.Durability.class)
+    void replaysOnTopOfACheckpoint(WAVLTree.JournaledWAVLTree.Durability durability) throws IOException {
+        Path journal = dir.resolve("journal");
+        Path snapshot = dir.resolve("snapshot");
+        Random rnd = new Random(durability.ordinal());
+        TreeMap<Integer, String> model = new TreeMap<>();
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, snapshot, durability, 200)) {
+            randomOperations(tree, model, rnd, 1000);
+            tree.checkpoint(snapshot);
+            assertEquals(8, Files.size(journal), "the journal is back to its header");
+            randomOperations(tree, model, rnd, 1000);
+        }
+        assertTrue(Files.exists(snapshot));
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, snapshot, durability, 200)) {
+            assertHolds(model, tree);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(0, files.filter(p -> p.toString().endsWith(".tmp")).count(), "temporary snapshot files left behind");
+        }
+    }
+
+    @Test
+    void dropsARecordCutOffInTheMiddle() throws IOException {
+        Path journal = dir.resolve("journal");
+        TreeMap<Integer, String> model = writeJournal(journal);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        assertRecovers(journal, model);
+    }
+
+    @Test
+    void dropsGarbageAfterTheLastRecord() throws IOException {
+        Path journal = dir.resolve("journal");
+        TreeMap<Integer, String> model = writeJournal(journal);
+        model.put(LAST, "last");
+        // a record header promising 20 bytes, followed by only 2 of them
+        Files.write(journal, new byte[] {0, 0, 0, 20, 1, 2, 3, 4, 1, 2}, StandardOpenOption.APPEND);
+        try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+            assertHolds(model, tree);
+            tree.delete(LAST);
+        }
+        model.remove(LAST);
+        assertRecovers(journal, model);
+    }
+
+    @Test
+    void dropsARecordWithABadChecksum() throws IOException {
+        Path journal = dir.resolve("journal");
+        TreeMap<Integer, String> model = writeJournal(journal);
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer last = ByteBuffer.allocate(1);
+            channel.read(last, channel.size() - 1);
+            last.put(0, (byte) (last.get(0) ^ 1));
+            last.rewind();
+            channel.write(last, channel.size() - 1); // the last byte of "last"
+        }
+        assertRecovers(journal, model);
+    }
+
+    @Test
+    void rewritesATornHeader() throws IOException {
+        Path journal = dir.resolve("journal");
+        byte[] header = {0x57, 0x41, 0x56, 0x4A, 0, 0, 0, 1};
+        for (int length = 0; length < header.length; length++) {
+            Files.write(journal, Arrays.copyOf(header, length));
+            try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+                assertTrue(tree.empty());
+                tree.insert(3, "c");
+            }
+            try (WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC)) {
+                assertEquals("c", tree.search(3));
+            }
+        }
+    }
+
+    @Test
+    void rejectsAFileThatIsNotAJournal() throws IOException {
+        Path journal = dir.resolve("journal");
+        Files.write(journal, new byte[] {1, 2, 3});
+        assertThrows(IOException.class, () -> new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC));
+        Files.write(journal, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> new WAVLTree.JournaledWAVLTree(journal, WAVLTree.JournaledWAVLTree.Durability.SYNC));
+    }
+
+    @Test
+    void refusesChangesOnceClosed() throws IOException {
+        WAVLTree.JournaledWAVLTree tree = new WAVLTree.JournaledWAVLTree(dir.resolve("journal"), WAVLTree.JournaledWAVLTree.Durability.SYNC);
+        tree.close();
+        assertThrows(IllegalStateException.class, () -> tree.insert(1, "a"));
+    }
+}
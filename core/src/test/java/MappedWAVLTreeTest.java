@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedWAVLTreeTest {
+
+    @TempDir
+    Path dir;
+
+    /**
+     * The nodes of a MappedWAVLTree are record indices in its file, read here through its private accessors;
+     * index 0 is the virtual leaf.
+     */
+    static WAVLInvariants.Shape<Integer> shape(WAVLTree.MappedWAVLTree tree) {
+        return new WAVLInvariants.Shape<>() {
+            public Integer root() {
+                return call(tree, "root");
+            }
+
+            public boolean isReal(Integer node) {
+                return node != 0;
+            }
+
+            public Integer left(Integer node) {
+                return call(tree, "left", node);
+            }
+
+            public Integer right(Integer node) {
+                return call(tree, "right", node);
+            }
+
+            public Integer parent(Integer node) {
+                return call(tree, "parent", node);
+            }
+
+            public int rank(Integer node) {
+                return call(tree, "rank", node);
+            }
+
+            public int size(Integer node) {
+                return call(tree, "size", node);
+            }
+
+            public int compareKeys(Integer a, Integer b) {
+                return Integer.compare(call(tree, "key", a), call(tree, "key", b));
+            }
+        };
+    }
+
+    private static int call(WAVLTree.MappedWAVLTree tree, String name, int... node) {
+        try {
+            Method method = node.length == 0
+                    ? WAVLTree.MappedWAVLTree.class.getDeclaredMethod(name)
+                    : WAVLTree.MappedWAVLTree.class.getDeclaredMethod(name, int.class);
+            method.setAccessible(true);
+            return (Integer) (node.length == 0 ? method.invoke(tree) : method.invoke(tree, node[0]));
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    void randomInsertsAndDeletesSurviveReopening() throws IOException {
+        Random rnd = new Random(3);
+        for (int trial = 0; trial < 20; trial++) {
+            Path path = dir.resolve("tree" + trial);
+            WAVLTree tree = new WAVLTree();
+            WAVLTree.MappedWAVLTree mapped = new WAVLTree.MappedWAVLTree(path);
+            TreeMap<Integer, String> model = new TreeMap<>();
+            int range = 1 + rnd.nextInt(400);
+            try {
+                for (int op = 0; op < 400; op++) {
+                    int k = rnd.nextInt(range) - range / 2;
+                    // null infos, and non-ASCII infos of different lengths
+                    String v = rnd.nextInt(10) == 0 ? null : "v\u00e9" + k + "x".repeat(rnd.nextInt(50));
+                    if (rnd.nextInt(3) > 0) {
+                        assertEquals(tree.insert(k, v), mapped.insert(k, v), "insert " + k);
+                        if (!model.containsKey(k)) { // putIfAbsent would replace a null info
+                            model.put(k, v);
+                        }
+                    } else {
+                        assertEquals(tree.delete(k), mapped.delete(k), "delete " + k);
+                        model.remove(k);
+                    }
+                    if (rnd.nextInt(50) == 0) {
+                        mapped.force();
+                        mapped.close();
+                        mapped = new WAVLTree.MappedWAVLTree(path);
+                    }
+                    WAVLInvariants.check(shape(mapped), model.size());
+                    assertEquals(model.size(), mapped.size());
+                    assertArrayEquals(tree.keysToArray(), mapped.keysToArray());
+                    assertArrayEquals(model.values().toArray(new String[0]), mapped.infoToArray());
+                    assertEquals(tree.min(), mapped.min());
+                    assertEquals(tree.max(), mapped.max());
+                    int q = rnd.nextInt(range + 2) - 1 - range / 2;
+                    assertEquals(model.get(q), mapped.search(q));
+                    if (!model.isEmpty()) {
+                        int i = 1 + rnd.nextInt(model.size());
+                        assertEquals(tree.select(i), mapped.select(i));
+                    }
+                }
+            } finally {
+                mapped.close();
+            }
+        }
+    }
+
+    @Test
+    void rejectsAFileThatIsNotATree() throws IOException {
+        Path path = dir.resolve("bad");
+        Files.write(path, new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        assertThrows(IOException.class, () -> new WAVLTree.MappedWAVLTree(path));
+    }
+}
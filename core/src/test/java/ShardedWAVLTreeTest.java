@@ -0,0 +1,66 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class ShardedWAVLTreeTest {
+
+    @Test
+    void concurrentOperationsMatchTheModel() throws Exception {
+        WAVLTree.ShardedWAVLTree tree = new WAVLTree.ShardedWAVLTree(4, 500, 64); // small shards, so they split
+        AtomicBoolean stop = new AtomicBoolean();
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        TreeMap<Integer, String> model;
+        try {
+            // a reader that selects, searches and takes the ends while the shards split and merge
+            Future<?> reader = pool.submit(() -> {
+                Random rnd = new Random(99);
+                while (!stop.get()) {
+                    int size = tree.size();
+                    if (size > 0) {
+                        // deletes may shrink the tree before select runs, and then it returns "-1"
+                        String info = tree.select(1 + rnd.nextInt(size));
+                        assertTrue(info.equals("-1") || info.startsWith("v"), info);
+                    }
+                    tree.search(rnd.nextInt(16000));
+                    tree.min();
+                    tree.max();
+                }
+            });
+            model = ThreadedModel.run(new ThreadedModel.Tree() {
+                public int insert(int k, String i) {
+                    return tree.insert(k, i);
+                }
+
+                public int delete(int k) {
+                    return tree.delete(k);
+                }
+
+                public String search(int k) {
+                    return tree.search(k);
+                }
+            }, 8, 20000, 2000);
+            stop.set(true);
+            reader.get();
+        } finally {
+            stop.set(true);
+            pool.shutdownNow();
+        }
+        assertTrue(tree.getShardCount() > 1, "the tree never split");
+        assertEquals(model.size(), tree.size());
+        ThreadedModel.assertHolds(model, tree.keysToArray(), tree.infoToArray());
+        int i = 1;
+        for (String info : model.values()) {
+            assertEquals(info, tree.select(i++));
+        }
+        assertEquals(model.firstEntry().getValue(), tree.min());
+        assertEquals(model.lastEntry().getValue(), tree.max());
+    }
+}
@@ -0,0 +1,94 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * final class ThreadedModel
+ * <p>
+ * A model test for the thread-safe trees. Each thread inserts, deletes and searches keys that are
+ * its own (the keys k with k % threads equal to the thread's number), so a TreeMap per thread knows exactly
+ * what every operation must return even while the other threads change the tree; at the end the tree must
+ * hold exactly the union of the threads' models.
+ */
+final class ThreadedModel {
+
+    /**
+     * interface Tree
+     * <p>
+     * The operations of the tree under test.
+     */
+    interface Tree {
+        int insert(int k, String i);
+
+        int delete(int k);
+
+        String search(int k);
+    }
+
+    private ThreadedModel() {
+    }
+
+    /**
+     * static TreeMap<Integer, String> run(Tree tree, int threads, int operations, int keysPerThread)
+     * <p>
+     * Runs operations random operations in each of threads threads, all started together, and fails
+     * if any of them returns what its thread's model does not expect. returns the union of the models.
+     */
+    static TreeMap<Integer, String> run(Tree tree, int threads, int operations, int keysPerThread) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Future<TreeMap<Integer, String>>> futures = new ArrayList<>();
+        try {
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                futures.add(pool.submit(() -> {
+                    Random rnd = new Random(id);
+                    TreeMap<Integer, String> model = new TreeMap<>();
+                    start.await();
+                    for (int op = 0; op < operations; op++) {
+                        int k = rnd.nextInt(keysPerThread) * threads + id;
+                        switch (rnd.nextInt(3)) {
+                            case 0:
+                                assertEquals(model.containsKey(k), tree.insert(k, "v" + k) == -1, "insert " + k);
+                                model.put(k, "v" + k);
+                                break;
+                            case 1:
+                                assertEquals(!model.containsKey(k), tree.delete(k) == -1, "delete " + k);
+                                model.remove(k);
+                                break;
+                            default:
+                                assertEquals(model.get(k), tree.search(k), "search " + k);
+                                break;
+                        }
+                    }
+                    return model;
+                }));
+            }
+            TreeMap<Integer, String> union = new TreeMap<>();
+            for (Future<TreeMap<Integer, String>> future : futures) {
+                union.putAll(future.get());
+            }
+            return union;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * static void assertHolds(TreeMap<Integer, String> model, int[] keys, String[] infos)
+     * <p>
+     * Fails unless keys and infos are the keys and infos of model, in order.
+     */
+    static void assertHolds(TreeMap<Integer, String> model, int[] keys, String[] infos) {
+        assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), keys);
+        assertArrayEquals(model.values().toArray(new String[0]), infos);
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * final class WAVLInvariants
+ * <p>
+ * The invariants every WAVL tree of WAVLTree.java keeps between operations, checked on any node layout
+ * through a Shape: the keys increase from left to right, every rank difference is 1 or 2, the virtual leaves
+ * have rank -1 and size 0 (so a leaf is a 1,1 node of rank 0), every child points back at its parent,
+ * and the size of each node is the number of real nodes in its subtree.
+ */
+final class WAVLInvariants {
+
+    /**
+     * interface Shape<N>
+     * <p>
+     * How to walk one node layout; N is a node object, or the index of a node in arrays or in a file.
+     * The virtual leaves, and the parent of the root, are the nodes for which isReal is false.
+     */
+    interface Shape<N> {
+        N root();
+
+        boolean isReal(N node);
+
+        N left(N node);
+
+        N right(N node);
+
+        N parent(N node);
+
+        int rank(N node);
+
+        int size(N node);
+
+        int compareKeys(N a, N b);
+    }
+
+    private WAVLInvariants() {
+    }
+
+    /**
+     * static <N> List<N> check(Shape<N> shape, int size)
+     * <p>
+     * Fails with the first broken invariant, or if the tree does not have size real nodes.
+     * returns the real nodes in key order.
+     * <p>
+     * Complexity: O(n)
+     */
+    static <N> List<N> check(Shape<N> shape, int size) {
+        List<N> inOrder = new ArrayList<>(size);
+        N root = shape.root();
+        if (shape.isReal(root)) {
+            assertFalse(shape.isReal(shape.parent(root)), "the root has a parent");
+            walk(shape, root, inOrder);
+        } else if (root != null) { // an empty WAVLTree has no root at all
+            checkVirtual(shape, root);
+        }
+        assertEquals(size, inOrder.size(), "real nodes");
+        for (int j = 1; j < inOrder.size(); j++) {
+            if (shape.compareKeys(inOrder.get(j - 1), inOrder.get(j)) >= 0) {
+                fail("keys out of order at in-order position " + j);
+            }
+        }
+        return inOrder;
+    }
+
+    private static <N> void walk(Shape<N> shape, N node, List<N> inOrder) {
+        int rank = shape.rank(node);
+        int size = 1;
+        N left = shape.left(node);
+        N right = shape.right(node);
+        for (N child : List.of(left, right)) {
+            int diff = rank - shape.rank(child);
+            if (diff < 1 || diff > 2) {
+                fail("rank difference " + diff + " under a node of rank " + rank);
+            }
+            if (shape.isReal(child)) {
+                assertTrue(Objects.equals(shape.parent(child), node), "a child does not point back at its parent");
+            } else {
+                checkVirtual(shape, child);
+            }
+        }
+        if (shape.isReal(left)) {
+            walk(shape, left, inOrder);
+            size += shape.size(left);
+        }
+        inOrder.add(node);
+        if (shape.isReal(right)) {
+            walk(shape, right, inOrder);
+            size += shape.size(right);
+        }
+        assertEquals(size, shape.size(node), "subtree size");
+    }
+
+    private static <N> void checkVirtual(Shape<N> shape, N leaf) {
+        assertEquals(-1, shape.rank(leaf), "rank of a virtual leaf");
+        assertEquals(0, shape.size(leaf), "size of a virtual leaf");
+    }
+}
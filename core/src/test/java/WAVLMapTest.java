@@ -0,0 +1,151 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class WAVLMapTest {
+
+    /**
+     * The nodes of WAVLMap, LongWAVLMap and LongLongWAVLMap are AbstractWAVLMap.Node objects;
+     * their keys are in the private Entry subclasses, read here by reflection and ordered by keyOrder.
+     */
+    static <K> WAVLInvariants.Shape<WAVLTree.AbstractWAVLMap.Node> shape(WAVLTree.AbstractWAVLMap map,
+                                                                         Comparator<? super K> keyOrder) {
+        return new WAVLInvariants.Shape<>() {
+            public WAVLTree.AbstractWAVLMap.Node root() {
+                return map.root;
+            }
+
+            public boolean isReal(WAVLTree.AbstractWAVLMap.Node node) {
+                return node != WAVLTree.AbstractWAVLMap.NIL;
+            }
+
+            public WAVLTree.AbstractWAVLMap.Node left(WAVLTree.AbstractWAVLMap.Node node) {
+                return node.left;
+            }
+
+            public WAVLTree.AbstractWAVLMap.Node right(WAVLTree.AbstractWAVLMap.Node node) {
+                return node.right;
+            }
+
+            public WAVLTree.AbstractWAVLMap.Node parent(WAVLTree.AbstractWAVLMap.Node node) {
+                return node.parent;
+            }
+
+            public int rank(WAVLTree.AbstractWAVLMap.Node node) {
+                return node.rank;
+            }
+
+            public int size(WAVLTree.AbstractWAVLMap.Node node) {
+                return node.size;
+            }
+
+            public int compareKeys(WAVLTree.AbstractWAVLMap.Node a, WAVLTree.AbstractWAVLMap.Node b) {
+                return keyOrder.compare(key(a), key(b));
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <K> K key(WAVLTree.AbstractWAVLMap.Node node) {
+        try {
+            Field key = node.getClass().getDeclaredField("key");
+            key.setAccessible(true);
+            return (K) key.get(node);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static final Comparator<String> NUMERIC = Comparator.comparing((String s) -> Integer.parseInt(s.substring(1)));
+
+    @Test
+    void randomInsertsAndDeletesMatchWAVLTree() {
+        Random rnd = new Random(15);
+        for (int trial = 0; trial < 100; trial++) {
+            WAVLTree tree = new WAVLTree();
+            WAVLTree.WAVLMap<String, Integer> byComparator = new WAVLTree.WAVLMap<>(NUMERIC);
+            WAVLTree.WAVLMap<Integer, String> natural = new WAVLTree.WAVLMap<>();
+            WAVLTree.LongWAVLMap<String> longKeys = new WAVLTree.LongWAVLMap<>();
+            WAVLTree.LongLongWAVLMap longLong = new WAVLTree.LongLongWAVLMap();
+            TreeMap<Integer, String> model = new TreeMap<>();
+            int range = 1 + rnd.nextInt(400);
+            for (int op = 0; op < 300; op++) {
+                int k = rnd.nextInt(range) - range / 2;
+                long lk = (long) k << 33; // outside the int range, in the same order
+                if (rnd.nextInt(3) > 0) {
+                    int rebalances = tree.insert(k, "v" + k);
+                    assertEquals(rebalances, byComparator.insert("k" + k, k));
+                    assertEquals(rebalances, natural.insert(k, "v" + k));
+                    assertEquals(rebalances, longKeys.insert(lk, "v" + k));
+                    assertEquals(rebalances, longLong.insert(lk, k * 7L));
+                    model.putIfAbsent(k, "v" + k);
+                } else {
+                    int rebalances = tree.delete(k);
+                    assertEquals(rebalances, byComparator.delete("k" + k));
+                    assertEquals(rebalances, natural.delete(k));
+                    assertEquals(rebalances, longKeys.delete(lk));
+                    assertEquals(rebalances, longLong.delete(lk));
+                    model.remove(k);
+                }
+                int n = model.size();
+                WAVLInvariants.check(shape(byComparator, NUMERIC), n);
+                WAVLInvariants.check(shape(natural, Comparator.<Integer>naturalOrder()), n);
+                WAVLInvariants.check(shape(longKeys, Comparator.<Long>naturalOrder()), n);
+                WAVLInvariants.check(shape(longLong, Comparator.<Long>naturalOrder()), n);
+                assertEquals(n, byComparator.size());
+                assertEquals(n == 0, natural.empty());
+                assertEquals(n, longKeys.size());
+                assertEquals(n, longLong.size());
+
+                int q = rnd.nextInt(range) - range / 2;
+                long lq = (long) q << 33;
+                assertEquals(model.get(q), natural.search(q));
+                assertEquals(model.get(q), longKeys.search(lq));
+                assertEquals(model.containsKey(q) ? q * 7L : Long.MIN_VALUE, longLong.search(lq, Long.MIN_VALUE));
+                assertEquals(model.containsKey(q), byComparator.containsKey("k" + q));
+                int rank = model.containsKey(q) ? model.headMap(q, true).size() : -1;
+                assertEquals(rank, byComparator.rank("k" + q));
+                assertEquals(rank, natural.rank(q));
+                assertEquals(rank, longKeys.rank(lq));
+                assertEquals(rank, longLong.rank(lq));
+                if (n > 0) {
+                    assertEquals(model.firstKey(), natural.minKey());
+                    assertEquals((long) model.lastKey() << 33, longKeys.maxKey());
+                    assertEquals((long) model.firstKey() << 33, longLong.minKey());
+                    int i = 1 + rnd.nextInt(n);
+                    int key = tree.selectNode(i).getKey();
+                    assertEquals("k" + key, byComparator.selectKey(i));
+                    assertEquals(key, natural.selectKey(i));
+                    assertEquals((long) key << 33, longKeys.selectKey(i));
+                    assertEquals((long) key << 33, longLong.selectKey(i));
+                } else {
+                    assertNull(natural.minKey());
+                }
+            }
+            long[] expectedKeys = model.keySet().stream().mapToLong(k -> (long) k << 33).toArray();
+            assertArrayEquals(expectedKeys, longKeys.keysToArray());
+            assertArrayEquals(expectedKeys, longLong.keysToArray());
+            assertArrayEquals(model.keySet().stream().mapToLong(k -> k * 7L).toArray(), longLong.valuesToArray());
+            List<Integer> seen = new ArrayList<>();
+            natural.forEach((k, v) -> seen.add(k));
+            assertEquals(new ArrayList<>(model.keySet()), seen);
+        }
+    }
+
+    @Test
+    void primitiveMapsThrowWithoutAKey() {
+        assertThrows(NoSuchElementException.class, () -> new WAVLTree.LongLongWAVLMap().minKey());
+        assertThrows(NoSuchElementException.class, () -> new WAVLTree.LongWAVLMap<String>().maxKey());
+    }
+}
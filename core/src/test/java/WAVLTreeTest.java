@@ -0,0 +1,162 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.jupiter.api.Test;
+
+class WAVLTreeTest {
+
+    static WAVLInvariants.Shape<WAVLTree.WAVLNode> shape(WAVLTree tree) {
+        return new WAVLInvariants.Shape<>() {
+            public WAVLTree.WAVLNode root() {
+                return (WAVLTree.WAVLNode) tree.getRoot();
+            }
+
+            public boolean isReal(WAVLTree.WAVLNode node) {
+                return node != null && node.isRealNode();
+            }
+
+            public WAVLTree.WAVLNode left(WAVLTree.WAVLNode node) {
+                return node.getLeft();
+            }
+
+            public WAVLTree.WAVLNode right(WAVLTree.WAVLNode node) {
+                return node.getRight();
+            }
+
+            public WAVLTree.WAVLNode parent(WAVLTree.WAVLNode node) {
+                return node.getParent();
+            }
+
+            public int rank(WAVLTree.WAVLNode node) {
+                return node.getRank();
+            }
+
+            public int size(WAVLTree.WAVLNode node) {
+                return node.getSubtreeSize();
+            }
+
+            public int compareKeys(WAVLTree.WAVLNode a, WAVLTree.WAVLNode b) {
+                return Integer.compare(a.getKey(), b.getKey());
+            }
+        };
+    }
+
+    /**
+     * Checks the invariants of tree and that it holds exactly the items of model.
+     */
+    static void check(WAVLTree tree, TreeMap<Integer, String> model) {
+        WAVLInvariants.check(shape(tree), model.size());
+        assertEquals(model.size(), tree.size());
+        assertEquals(model.isEmpty(), tree.empty());
+        assertArrayEquals(model.keySet().stream().mapToInt(Integer::intValue).toArray(), tree.keysToArray());
+        assertArrayEquals(model.values().toArray(new String[0]), tree.infoToArray());
+        if (model.isEmpty()) {
+            assertNull(tree.min());
+            assertNull(tree.max());
+            return;
+        }
+        assertEquals(model.firstEntry().getValue(), tree.min());
+        assertEquals(model.lastEntry().getValue(), tree.max());
+        int i = 1;
+        for (Map.Entry<Integer, String> e : model.entrySet()) {
+            assertEquals(e.getValue(), tree.select(i));
+            assertEquals(e.getKey().intValue(), tree.selectNode(i).getKey());
+            i++;
+        }
+    }
+
+    @Test
+    void randomInsertsAndDeletesMatchTreeMap() {
+        Random rnd = new Random(1);
+        for (int trial = 0; trial < 100; trial++) {
+            WAVLTree tree = new WAVLTree();
+            TreeMap<Integer, String> model = new TreeMap<>();
+            int range = 1 + rnd.nextInt(200);
+            for (int op = 0; op < 300; op++) {
+                int k = rnd.nextInt(range) - range / 2;
+                if (rnd.nextInt(3) > 0) {
+                    int result = tree.insert(k, "v" + k);
+                    assertEquals(model.containsKey(k), result == -1, "insert " + k);
+                    model.putIfAbsent(k, "v" + k);
+                } else {
+                    int result = tree.delete(k);
+                    assertEquals(!model.containsKey(k), result == -1, "delete " + k);
+                    model.remove(k);
+                }
+                int q = rnd.nextInt(range + 2) - 1 - range / 2;
+                assertEquals(model.get(q), tree.search(q));
+                assertEquals(model.containsKey(q), tree.containsKey(q));
+                check(tree, model);
+            }
+        }
+    }
+
+    @Test
+    void sequentialInsertsThenDeletesFromBothEnds() {
+        WAVLTree tree = new WAVLTree();
+        TreeMap<Integer, String> model = new TreeMap<>();
+        for (int k = 0; k < 2000; k++) {
+            tree.insert(k, "v" + k);
+            model.put(k, "v" + k);
+        }
+        check(tree, model);
+        for (int j = 0; j < 1000; j++) {
+            int k = (j & 1) == 0 ? j / 2 : 1999 - j / 2;
+            tree.delete(k);
+            model.remove(k);
+        }
+        check(tree, model);
+    }
+
+    @Test
+    void fromSortedBuildsAValidTree() {
+        for (int n = 0; n < 200; n++) {
+            int[] keys = new int[n];
+            String[] values = new String[n];
+            TreeMap<Integer, String> model = new TreeMap<>();
+            for (int j = 0; j < n; j++) {
+                keys[j] = 3 * j - n;
+                values[j] = "v" + j;
+                model.put(keys[j], values[j]);
+            }
+            check(WAVLTree.fromSorted(keys, values), model);
+        }
+    }
+
+    @Test
+    void batchesMatchSingleOperations() {
+        Random rnd = new Random(5);
+        for (int trial = 0; trial < 200; trial++) {
+            WAVLTree tree = new WAVLTree();
+            TreeMap<Integer, String> model = new TreeMap<>();
+            int range = 1 + rnd.nextInt(500);
+            for (int round = 0; round < 6; round++) {
+                // small batches take the finger path, batches as large as the tree rebuild it
+                int m = rnd.nextBoolean() ? 1 + rnd.nextInt(8) : 1 + rnd.nextInt(range);
+                int[] keys = new int[m];
+                String[] values = new String[m];
+                for (int j = 0; j < m; j++) {
+                    keys[j] = rnd.nextInt(range);
+                    values[j] = "v" + keys[j] + "." + round;
+                }
+                if (rnd.nextInt(3) > 0) {
+                    tree.insertAll(keys, values);
+                    for (int j = 0; j < m; j++) {
+                        model.putIfAbsent(keys[j], values[j]);
+                    }
+                } else {
+                    tree.deleteAll(keys);
+                    for (int k : keys) {
+                        model.remove(k);
+                    }
+                }
+                check(tree, model);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package wavl.benchmarks;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class BulkBenchmark
+ * <p>
+ * Inserting every key of a Keys state into an empty tree (or TreeMap), in the order of its distribution,
+ * and deleting every key from a full one, in ms per whole run (divide by size for the time per operation).
+ * The rebalancing operations insert and delete returned are reported as the rebalances counter of each run.
+ * Run with -prof gc for the bytes allocated per run; for the delete runs that includes the full tree (or map)
+ * built, untimed, before each run.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx16g"})
+public class BulkBenchmark {
+
+    /**
+     * public static class Rebalances
+     * <p>
+     * The rebalancing operations reported by insert or delete during one run.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Rebalances {
+        public long rebalances;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rebalances = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FullTree {
+        WAVLTree tree;
+
+        @Setup(Level.Iteration)
+        public void setUp(Keys keys) {
+            tree = null; // let the previous run's tree be collected first
+            tree = keys.fullTree();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FullMap {
+        TreeMap<Integer, String> map;
+
+        @Setup(Level.Iteration)
+        public void setUp(Keys keys) {
+            map = null;
+            map = keys.fullMap();
+        }
+    }
+
+    @Benchmark
+    public WAVLTree insertWAVLTree(Keys keys, Rebalances counter) {
+        WAVLTree tree = new WAVLTree();
+        long rebalances = 0;
+        for (int key : keys.order) {
+            rebalances += Math.max(0, tree.insert(key, Keys.VALUE));
+        }
+        counter.rebalances += rebalances;
+        return tree;
+    }
+
+    @Benchmark
+    public TreeMap<Integer, String> insertTreeMap(Keys keys) {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int key : keys.order) {
+            map.put(key, Keys.VALUE);
+        }
+        return map;
+    }
+
+    @Benchmark
+    public WAVLTree deleteWAVLTree(Keys keys, FullTree full, Rebalances counter) {
+        WAVLTree tree = full.tree;
+        long rebalances = 0;
+        for (int key : keys.order) {
+            rebalances += Math.max(0, tree.delete(key));
+        }
+        counter.rebalances += rebalances;
+        return tree;
+    }
+
+    @Benchmark
+    public TreeMap<Integer, String> deleteTreeMap(Keys keys, FullMap full) {
+        TreeMap<Integer, String> map = full.map;
+        for (int key : keys.order) {
+            map.remove(key);
+        }
+        return map;
+    }
+}
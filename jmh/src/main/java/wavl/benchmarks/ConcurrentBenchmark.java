@@ -0,0 +1,117 @@
+package wavl.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class ConcurrentBenchmark
+ * <p>
+ * Several threads (4 by default, change with -t) sharing one tree that holds the keys of a Keys state,
+ * in ns/op per thread.
+ * Each operation takes the next key of the thread's query stream and, for writePercent of the operations,
+ * deletes it, or inserts it if it was not there (so the size stays about the same); the others search for it.
+ * The same mix runs on a CombiningWAVLTree, on a WAVLTree behind one synchronized lock,
+ * and on a ConcurrentWAVLTree (StampedLock with optimistic reads).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx16g"})
+@Threads(4)
+public class ConcurrentBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Mix {
+        @Param({"10", "50", "100"})
+        public int writePercent;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Combining {
+        WAVLTree.CombiningWAVLTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            tree = new WAVLTree.CombiningWAVLTree(keys.fullTree());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Locked {
+        WAVLTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            tree = keys.fullTree();
+        }
+
+        synchronized String search(int k) {
+            return tree.search(k);
+        }
+
+        synchronized int insert(int k, String i) {
+            return tree.insert(k, i);
+        }
+
+        synchronized int delete(int k) {
+            return tree.delete(k);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Stamped {
+        WAVLTree.ConcurrentWAVLTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            tree = new WAVLTree.ConcurrentWAVLTree(keys.fullTree());
+        }
+    }
+
+    @Benchmark
+    public int combining(Keys keys, Keys.Cursor cursor, Mix mix, Combining combining) {
+        int j = cursor.next();
+        int key = keys.queries[j];
+        if (j % 100 < mix.writePercent) {
+            int result = combining.tree.delete(key);
+            return result < 0 ? combining.tree.insert(key, Keys.VALUE) : result;
+        }
+        return combining.tree.search(key) == null ? 0 : 1;
+    }
+
+    @Benchmark
+    public int synchronizedTree(Keys keys, Keys.Cursor cursor, Mix mix, Locked locked) {
+        int j = cursor.next();
+        int key = keys.queries[j];
+        if (j % 100 < mix.writePercent) {
+            int result = locked.delete(key);
+            return result < 0 ? locked.insert(key, Keys.VALUE) : result;
+        }
+        return locked.search(key) == null ? 0 : 1;
+    }
+
+    @Benchmark
+    public int stampedLock(Keys keys, Keys.Cursor cursor, Mix mix, Stamped stamped) {
+        int j = cursor.next();
+        int key = keys.queries[j];
+        if (j % 100 < mix.writePercent) {
+            int result = stamped.tree.delete(key);
+            return result < 0 ? stamped.tree.insert(key, Keys.VALUE) : result;
+        }
+        return stamped.tree.search(key) == null ? 0 : 1;
+    }
+}
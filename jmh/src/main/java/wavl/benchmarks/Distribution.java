@@ -0,0 +1,87 @@
+package wavl.benchmarks;
+
+import java.util.Random;
+
+/**
+ * public enum Distribution
+ * <p>
+ * The orders in which the benchmarks insert, delete and look up keys:
+ * SEQUENTIAL is 0..n-1; RANDOM is a shuffle of 0..n-1; ZIPFIAN draws from n keys with skew ZIPF_THETA
+ * (so hot keys repeat, and repeated inserts and deletes are no-ops); ADVERSARIAL alternates between
+ * the two ends of 0..n-1 (0, n-1, 1, n-2, ...).
+ */
+public enum Distribution {
+    SEQUENTIAL, RANDOM, ZIPFIAN, ADVERSARIAL;
+
+    private static final double ZIPF_THETA = 0.99;
+
+    /**
+     * public int[] keys(int n, int count, Random rnd)
+     * <p>
+     * Returns count keys drawn from the n keys of this distribution, in the order they are used.
+     * For SEQUENTIAL and ADVERSARIAL the keys repeat every n; for RANDOM each run of n keys is a new shuffle.
+     * <p>
+     * Complexity: O(n + count)
+     */
+    public int[] keys(int n, int count, Random rnd) {
+        int[] keys = new int[count];
+        switch (this) {
+            case SEQUENTIAL:
+                for (int j = 0; j < count; j++) {
+                    keys[j] = j % n;
+                }
+                break;
+            case RANDOM:
+                for (int from = 0; from < count; from += n) {
+                    int length = Math.min(n, count - from);
+                    int[] shuffle = shuffle(n, rnd);
+                    System.arraycopy(shuffle, 0, keys, from, length);
+                }
+                break;
+            case ZIPFIAN:
+                // Gray et al.'s generator, as in YCSB; the hash spreads the hot ranks over the key space
+                double zetaN = 0;
+                for (int j = 1; j <= n; j++) {
+                    zetaN += 1 / Math.pow(j, ZIPF_THETA);
+                }
+                double zeta2 = 1 + 1 / Math.pow(2, ZIPF_THETA);
+                double alpha = 1 / (1 - ZIPF_THETA);
+                double eta = (1 - Math.pow(2.0 / n, 1 - ZIPF_THETA)) / (1 - zeta2 / zetaN);
+                for (int j = 0; j < count; j++) {
+                    double u = rnd.nextDouble();
+                    double uz = u * zetaN;
+                    long rank;
+                    if (uz < 1) {
+                        rank = 0;
+                    } else if (uz < zeta2) {
+                        rank = 1;
+                    } else {
+                        rank = (long) (n * Math.pow(eta * u - eta + 1, alpha));
+                    }
+                    keys[j] = (int) ((rank * 2654435761L) & Integer.MAX_VALUE);
+                }
+                break;
+            default:
+                for (int j = 0; j < count; j++) {
+                    int i = j % n;
+                    keys[j] = (i & 1) == 0 ? i >> 1 : n - 1 - (i >> 1);
+                }
+                break;
+        }
+        return keys;
+    }
+
+    private static int[] shuffle(int n, Random rnd) {
+        int[] keys = new int[n];
+        for (int j = 0; j < n; j++) {
+            keys[j] = j;
+        }
+        for (int j = n - 1; j > 0; j--) {
+            int other = rnd.nextInt(j + 1);
+            int tmp = keys[j];
+            keys[j] = keys[other];
+            keys[other] = tmp;
+        }
+        return keys;
+    }
+}
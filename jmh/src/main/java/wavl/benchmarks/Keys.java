@@ -0,0 +1,93 @@
+package wavl.benchmarks;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * public class Keys
+ * <p>
+ * The key set every benchmark of one (size, distribution) pair works on: the size keys in the order they are
+ * inserted and deleted, the distinct keys sorted (to build full trees quickly with fromSorted), and a cyclic
+ * stream of QUERIES lookups and positions drawn from the same distribution. The trees and maps themselves are
+ * separate states, so a benchmark only builds the structure it measures; at 100M keys one of them alone
+ * needs several GB of heap (see the -Xmx of the forks).
+ */
+@State(Scope.Benchmark)
+public class Keys {
+    static final int QUERIES = 1 << 20; // a power of two, so a cursor wraps with a mask
+    static final String VALUE = "v";
+
+    @Param({"1000", "1000000", "100000000"})
+    public int size;
+
+    @Param({"SEQUENTIAL", "RANDOM", "ZIPFIAN", "ADVERSARIAL"})
+    public Distribution distribution;
+
+    int[] order; // size keys, in insertion order
+    int[] sorted; // the distinct keys of order, sorted
+    String[] values; // VALUE for every key of sorted
+    int[] queries; // keys to look up, delete or insert
+    int[] positions; // positions to select, between 1 and sorted.length
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        order = distribution.keys(size, size, new Random(size));
+        queries = distribution.keys(size, QUERIES, new Random(size + 1L));
+        sorted = order.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int j = 0; j < sorted.length; j++) {
+            if (j == 0 || sorted[j] != sorted[j - 1]) {
+                sorted[distinct++] = sorted[j];
+            }
+        }
+        sorted = Arrays.copyOf(sorted, distinct);
+        values = new String[distinct];
+        Arrays.fill(values, VALUE);
+        positions = new int[QUERIES];
+        Random rnd = new Random(size + 2L);
+        for (int j = 0; j < QUERIES; j++) {
+            positions[j] = 1 + rnd.nextInt(distinct);
+        }
+    }
+
+    WAVLTree fullTree() {
+        return WAVLTree.fromSorted(sorted, values);
+    }
+
+    TreeMap<Integer, String> fullMap() {
+        TreeMap<Integer, String> map = new TreeMap<>();
+        for (int key : sorted) {
+            map.put(key, VALUE);
+        }
+        return map;
+    }
+
+    /**
+     * public static class Cursor
+     * <p>
+     * Each benchmark thread's position in the query stream. Threads start at random positions,
+     * so concurrent threads do not all work on the same keys at the same time.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = ThreadLocalRandom.current().nextInt(QUERIES);
+        }
+
+        int next() {
+            return next++ & (QUERIES - 1);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package wavl.benchmarks;
+
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * public class OperationBenchmark
+ * <p>
+ * Single operations on a tree (or TreeMap) holding the keys of a Keys state, in ns/op:
+ * search, select, keysToArray, and deleteInsert, which deletes a key of the query stream and, if it was
+ * there, inserts it back so the size stays the same. search is also measured on the tree's FrozenWAVLTree (see freeze).
+ * TreeMap has no select; its keysToArray is a walk over keySet() into an int[].
+ * Run with -prof gc for the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xmx16g"})
+public class OperationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Tree {
+        WAVLTree tree;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            tree = keys.fullTree();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Map {
+        TreeMap<Integer, String> map;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            map = keys.fullMap();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Frozen {
+        WAVLTree.FrozenWAVLTree frozen;
+
+        @Setup(Level.Trial)
+        public void setUp(Keys keys) {
+            frozen = keys.fullTree().freeze();
+        }
+    }
+
+    @Benchmark
+    public String searchWAVLTree(Keys keys, Keys.Cursor cursor, Tree tree) {
+        return tree.tree.search(keys.queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public String searchTreeMap(Keys keys, Keys.Cursor cursor, Map map) {
+        return map.map.get(keys.queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public String searchFrozen(Keys keys, Keys.Cursor cursor, Frozen frozen) {
+        return frozen.frozen.search(keys.queries[cursor.next()]);
+    }
+
+    @Benchmark
+    public String selectWAVLTree(Keys keys, Keys.Cursor cursor, Tree tree) {
+        return tree.tree.select(keys.positions[cursor.next()]);
+    }
+
+    @Benchmark
+    public int[] keysToArrayWAVLTree(Tree tree) {
+        return tree.tree.keysToArray();
+    }
+
+    @Benchmark
+    public int[] keysToArrayTreeMap(Map map) {
+        int[] arr = new int[map.map.size()];
+        int j = 0;
+        for (int key : map.map.keySet()) {
+            arr[j++] = key;
+        }
+        return arr;
+    }
+
+    @Benchmark
+    public int deleteInsertWAVLTree(Keys keys, Keys.Cursor cursor, Tree tree) {
+        int key = keys.queries[cursor.next()];
+        int rebalances = tree.tree.delete(key);
+        return rebalances < 0 ? rebalances : rebalances + tree.tree.insert(key, Keys.VALUE);
+    }
+
+    @Benchmark
+    public String deleteInsertTreeMap(Keys keys, Keys.Cursor cursor, Map map) {
+        int key = keys.queries[cursor.next()];
+        String removed = map.map.remove(key);
+        return removed == null ? null : map.map.put(key, removed);
+    }
+}